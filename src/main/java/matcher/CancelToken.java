@@ -0,0 +1,60 @@
+package matcher;
+
+/**
+ * Cooperative cancellation for long running operations with an optional wall-clock budget per phase.
+ */
+public final class CancelToken {
+	public CancelToken() {
+		this(null, 0, 0);
+	}
+
+	/**
+	 * Create a token limiting each phase to phaseBudgetMs milliseconds, 0 for no limit.
+	 */
+	public CancelToken(long phaseBudgetMs) {
+		this(null, 0, phaseBudgetMs);
+	}
+
+	private CancelToken(CancelToken parent, long deadline, long phaseBudgetMs) {
+		if (phaseBudgetMs < 0) throw new IllegalArgumentException("negative budget: "+phaseBudgetMs);
+
+		this.parent = parent;
+		this.deadline = deadline;
+		this.phaseBudgetMs = phaseBudgetMs;
+	}
+
+	/**
+	 * Derive a token for a single phase, stopping on cancellation or once the phase budget is exhausted.
+	 */
+	public CancelToken startPhase() {
+		long deadline = phaseBudgetMs > 0 ? System.nanoTime() + phaseBudgetMs * 1_000_000L : 0;
+		if (deadline == 0 && phaseBudgetMs > 0) deadline = 1; // 0 is reserved for no deadline
+
+		return new CancelToken(this, deadline, phaseBudgetMs);
+	}
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled || parent != null && parent.isCancelled();
+	}
+
+	public boolean isExpired() {
+		return deadline != 0 && System.nanoTime() - deadline >= 0;
+	}
+
+	public boolean isStopped() {
+		return isCancelled() || isExpired();
+	}
+
+	public long getPhaseBudgetMs() {
+		return phaseBudgetMs;
+	}
+
+	private final CancelToken parent;
+	private final long deadline;
+	private final long phaseBudgetMs;
+	private volatile boolean cancelled;
+}
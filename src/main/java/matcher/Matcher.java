@@ -6,11 +6,15 @@ import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
@@ -19,23 +23,35 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.DoubleConsumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.objectweb.asm.tree.MethodNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import matcher.classifier.ClassClassifier;
+import matcher.classifier.ClassifierUtil;
 import matcher.classifier.ClassifierLevel;
 import matcher.classifier.FieldClassifier;
 import matcher.classifier.IRanker;
 import matcher.classifier.MethodClassifier;
+import matcher.classifier.MethodFingerprintIndex;
+import matcher.classifier.MethodFingerprintIndex.Fingerprint;
 import matcher.classifier.MethodVarClassifier;
+import matcher.classifier.PackageClusters;
 import matcher.classifier.RankResult;
+import matcher.classifier.SimilarityFlooding;
+import matcher.classifier.StringConstantIndex;
+import matcher.classifier.StructuralHash;
 import matcher.config.Config;
 import matcher.config.ProjectConfig;
 import matcher.type.ClassEnv;
@@ -46,6 +62,7 @@ import matcher.type.InputFile;
 import matcher.type.MemberInstance;
 import matcher.type.MethodInstance;
 import matcher.type.MethodVarInstance;
+import matcher.type.ReloadState;
 
 public class Matcher {
 	public static void init() {
@@ -70,6 +87,45 @@ public class Matcher {
 		}
 	}
 
+	/**
+	 * Initialize for the next project in a series, whose side A is the current side B.
+	 *
+	 * <p>The already extracted side B is reused as side A if config's side A is set up the same, otherwise this falls
+	 * back to initializing from scratch.
+	 */
+	public void initFromSideB(ProjectConfig config, DoubleConsumer progressReceiver) {
+		try {
+			if (!env.initFromSideB(config, progressReceiver)) {
+				LOGGER.info("Side B doesn't match the new side A, initializing from scratch");
+				env.reset();
+				env.init(config, progressReceiver);
+			}
+
+			matchUnobfuscated();
+		} catch (Throwable t) {
+			reset();
+			throw t;
+		}
+	}
+
+	/**
+	 * Re-read config's inputs, only processing the sides that changed, and restore the matches and names of all
+	 * classes that didn't change.
+	 */
+	public void reload(ProjectConfig config, DoubleConsumer progressReceiver) {
+		ReloadState retained = ReloadState.capture(env);
+
+		try {
+			if (!env.reload(config, progressReceiver)) return;
+
+			matchUnobfuscated();
+			retained.apply(this);
+		} catch (Throwable t) {
+			reset();
+			throw t;
+		}
+	}
+
 	private void matchUnobfuscated() {
 		for (ClassInstance cls : env.getClassesA()) {
 			if (cls.isNameObfuscated() || !cls.isReal()) continue;
@@ -131,6 +187,7 @@ public class Matcher {
 
 	public static List<Path> resolvePaths(Collection<Path> inputDirs, Collection<InputFile> inputFiles) throws IOException {
 		List<Path> ret = new ArrayList<>(inputFiles.size());
+		Map<String, List<Path>> dirIndex = null; // file name -> files in the input dirs, built on first use
 
 		inputFileLoop: for (InputFile inputFile : inputFiles) {
 			if (inputFile.pathHint != null) {
@@ -151,17 +208,23 @@ public class Matcher {
 				}
 			}
 
-			for (Path inputDir : inputDirs) {
-				try (Stream<Path> matches = Files.find(inputDir, Integer.MAX_VALUE, (path, attr) -> inputFile.equals(path), FileVisitOption.FOLLOW_LINKS)) {
-					Path file = matches.findFirst().orElse(null);
+			if (dirIndex == null) dirIndex = indexInputDirs(inputDirs);
 
-					if (file != null) {
-						ret.add(file);
-						continue inputFileLoop;
+			Collection<List<Path>> candidateLists = inputFile.fileName != null
+					? Collections.singletonList(dirIndex.getOrDefault(inputFile.fileName, Collections.emptyList()))
+					: dirIndex.values();
+
+			try {
+				for (List<Path> candidates : candidateLists) {
+					for (Path file : candidates) {
+						if (inputFile.equals(file)) { // checks the size before hashing
+							ret.add(file);
+							continue inputFileLoop;
+						}
 					}
-				} catch (UncheckedIOException e) {
-					throw e.getCause();
 				}
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
 			}
 
 			throw new IOException("can't find input "+inputFile);
@@ -170,6 +233,20 @@ public class Matcher {
 		return ret;
 	}
 
+	private static Map<String, List<Path>> indexInputDirs(Collection<Path> inputDirs) throws IOException {
+		Map<String, List<Path>> ret = new LinkedHashMap<>();
+
+		for (Path inputDir : inputDirs) {
+			try (Stream<Path> files = Files.find(inputDir, Integer.MAX_VALUE, (path, attr) -> attr.isRegularFile(), FileVisitOption.FOLLOW_LINKS)) {
+				files.forEach(file -> ret.computeIfAbsent(file.getFileName().toString().replace('\n', ' '), ignore -> new ArrayList<>()).add(file));
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+
+		return ret;
+	}
+
 	public void match(ClassInstance a, ClassInstance b) {
 		if (a == null) throw new NullPointerException("null class A");
 		if (b == null) throw new NullPointerException("null class B");
@@ -463,71 +540,437 @@ public class Matcher {
 		env.getCache().clear();
 	}
 
-	public void autoMatchAll(DoubleConsumer progressReceiver) {
-		if (autoMatchClasses(ClassifierLevel.Initial, absClassAutoMatchThreshold, relClassAutoMatchThreshold, progressReceiver)) {
-			autoMatchClasses(ClassifierLevel.Initial, absClassAutoMatchThreshold, relClassAutoMatchThreshold, progressReceiver);
+	/**
+	 * Run an auto matching task exclusively, it waits for running {@link #runWithStableMatches} tasks and holds back new
+	 * ones until it completes.
+	 */
+	public void runAutoMatch(Runnable task) {
+		matchLock.writeLock().lock();
+
+		try {
+			task.run();
+		} finally {
+			matchLock.writeLock().unlock();
 		}
+	}
 
-		autoMatchLevel(ClassifierLevel.Intermediate, progressReceiver);
-		autoMatchLevel(ClassifierLevel.Full, progressReceiver);
-		autoMatchLevel(ClassifierLevel.Extra, progressReceiver);
+	/**
+	 * Run a task reading the matches, e.g. a ranking for display, while no {@link #runAutoMatch} task is modifying them.
+	 *
+	 * <p>The task is queued behind a running auto matching task instead of observing its intermediate state.
+	 */
+	public <T> T runWithStableMatches(Callable<T> task) throws Exception {
+		matchLock.readLock().lock();
 
-		boolean matchedAny;
+		try {
+			return task.call();
+		} finally {
+			matchLock.readLock().unlock();
+		}
+	}
 
-		do {
-			matchedAny = autoMatchMethodArgs(ClassifierLevel.Full, absMethodArgAutoMatchThreshold, relMethodArgAutoMatchThreshold, progressReceiver);
-			matchedAny |= autoMatchMethodVars(ClassifierLevel.Full, absMethodVarAutoMatchThreshold, relMethodVarAutoMatchThreshold, progressReceiver);
-		} while (matchedAny);
+	public void autoMatchAll(DoubleConsumer progressReceiver) {
+		autoMatchAll(progressReceiver, new CancelToken());
+	}
+
+	public void autoMatchAll(DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		autoMatchExact(progressReceiver, cancelToken);
+
+		boolean seeded = autoMatchClassesByCode(progressReceiver, cancelToken);
+		seeded |= autoMatchClassesByStrings(progressReceiver, cancelToken);
+		if (seeded) autoMatchExact(progressReceiver, cancelToken);
+
+		autoMatchPropagate(progressReceiver, cancelToken);
+		autoMatchFlooding(progressReceiver, cancelToken);
+
+		autoMatchAll(anyClass, anyClass, progressReceiver, cancelToken);
+	}
+
+	/**
+	 * Auto match only the A side classes passing srcFilter against the B side classes passing dstFilter.
+	 *
+	 * <p>Members and method vars are matched within the matched classes passing both filters. The global seeding passes
+	 * are skipped, which makes this suitable for quickly re-matching a region after fixing it up by hand.
+	 */
+	public void autoMatchAll(Predicate<ClassInstance> srcFilter, Predicate<ClassInstance> dstFilter, DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		cachePackagePairs = true;
+
+		try {
+			if (autoMatchClasses(ClassifierLevel.Initial, absClassAutoMatchThreshold, relClassAutoMatchThreshold, srcFilter, dstFilter, progressReceiver, cancelToken)) {
+				autoMatchClasses(ClassifierLevel.Initial, absClassAutoMatchThreshold, relClassAutoMatchThreshold, srcFilter, dstFilter, progressReceiver, cancelToken);
+			}
+
+			autoMatchLevel(ClassifierLevel.Intermediate, srcFilter, dstFilter, progressReceiver, cancelToken);
+			autoMatchLevel(ClassifierLevel.Full, srcFilter, dstFilter, progressReceiver, cancelToken);
+			autoMatchLevel(ClassifierLevel.Extra, srcFilter, dstFilter, progressReceiver, cancelToken);
+
+			boolean matchedAny;
+
+			do {
+				matchedAny = autoMatchMethodArgs(ClassifierLevel.Full, absMethodArgAutoMatchThreshold, relMethodArgAutoMatchThreshold, srcFilter, dstFilter, progressReceiver, cancelToken);
+				matchedAny |= autoMatchMethodVars(ClassifierLevel.Full, absMethodVarAutoMatchThreshold, relMethodVarAutoMatchThreshold, srcFilter, dstFilter, progressReceiver, cancelToken);
+			} while (matchedAny);
+
+			if (cancelToken.isCancelled()) LOGGER.info("Auto matching cancelled");
+		} finally {
+			cachePackagePairs = false;
+			packagePairs = null;
+		}
 
 		env.getCache().clear();
 	}
 
-	private void autoMatchLevel(ClassifierLevel level, DoubleConsumer progressReceiver) {
+	private void autoMatchLevel(ClassifierLevel level, Predicate<ClassInstance> srcFilter, Predicate<ClassInstance> dstFilter, DoubleConsumer progressReceiver, CancelToken cancelToken) {
 		boolean matchedAny;
 		boolean matchedClassesBefore = true;
 
 		do {
-			matchedAny = autoMatchMethods(level, absMethodAutoMatchThreshold, relMethodAutoMatchThreshold, progressReceiver);
-			matchedAny |= autoMatchFields(level, absFieldAutoMatchThreshold, relFieldAutoMatchThreshold, progressReceiver);
+			matchedAny = autoMatchMethods(level, absMethodAutoMatchThreshold, relMethodAutoMatchThreshold, srcFilter, dstFilter, progressReceiver, cancelToken);
+			matchedAny |= autoMatchFields(level, absFieldAutoMatchThreshold, relFieldAutoMatchThreshold, srcFilter, dstFilter, progressReceiver, cancelToken);
 
 			if (!matchedAny && !matchedClassesBefore) {
 				break;
 			}
 
-			matchedAny |= matchedClassesBefore = autoMatchClasses(level, absClassAutoMatchThreshold, relClassAutoMatchThreshold, progressReceiver);
+			matchedAny |= matchedClassesBefore = autoMatchClasses(level, absClassAutoMatchThreshold, relClassAutoMatchThreshold, srcFilter, dstFilter, progressReceiver, cancelToken);
+		} while (matchedAny);
+	}
+
+	public boolean autoMatchExact(DoubleConsumer progressReceiver) {
+		return autoMatchExact(progressReceiver, new CancelToken());
+	}
+
+	/**
+	 * Match classes and members whose structure and code are identical apart from names, see {@link StructuralHash}.
+	 *
+	 * <p>Only hashes unique to one class or member on each side get matched. This repeats while the new matches
+	 * make more references comparable, leaving the actually changed remainder for the classifiers.
+	 */
+	public boolean autoMatchExact(DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		Predicate<ClassInstance> filter = unmatchedClassFilter();
+		int classCount = 0;
+		int memberCount = 0;
+		boolean matchedAny;
+
+		do {
+			if (cancelToken.isCancelled()) break;
+
+			List<ClassInstance> classesA = env.getClassesA().stream().filter(filter).collect(Collectors.toList());
+			List<ClassInstance> classesB = env.getClassesB().stream().filter(filter).collect(Collectors.toList());
+
+			Map<ClassInstance, ClassInstance> matches = matchUniqueHashes(classesA, classesB,
+					getHashes(classesA, progressReceiver), getHashes(classesB, progressReceiver));
+			matches.entrySet().removeIf(entry -> !ClassifierUtil.checkPotentialEquality(entry.getKey(), entry.getValue()));
+
+			for (Map.Entry<ClassInstance, ClassInstance> entry : matches.entrySet()) {
+				match(entry.getKey(), entry.getValue());
+			}
+
+			int members = autoMatchExactMembers();
+
+			classCount += matches.size();
+			memberCount += members;
+			matchedAny = !matches.isEmpty() || members > 0;
 		} while (matchedAny);
+
+		LOGGER.info("Exact matched {} classes and {} members", classCount, memberCount);
+
+		return classCount > 0 || memberCount > 0;
+	}
+
+	private static Map<ClassInstance, Long> getHashes(List<ClassInstance> classes, DoubleConsumer progressReceiver) {
+		Map<ClassInstance, Long> ret = new ConcurrentHashMap<>(classes.size());
+		runInParallel(classes, cls -> ret.put(cls, StructuralHash.hash(cls)), Matcher::estimateRankCost, progressReceiver, null);
+
+		return ret;
+	}
+
+	/**
+	 * Match the unmatched members of all matched classes with unique structural hashes within their class.
+	 */
+	private int autoMatchExactMembers() {
+		List<ClassInstance> classes = env.getClassesA().stream()
+				.filter(cls -> cls.isReal() && cls.hasMatch())
+				.collect(Collectors.toList());
+		Map<MethodInstance, MethodInstance> methodMatches = new ConcurrentHashMap<>();
+		Map<FieldInstance, FieldInstance> fieldMatches = new ConcurrentHashMap<>();
+
+		runInParallel(classes, cls -> {
+			List<MethodInstance> methodsA = getExactMatchCandidates(cls.getMethods());
+			List<MethodInstance> methodsB = getExactMatchCandidates(cls.getMatch().getMethods());
+
+			if (!methodsA.isEmpty() && !methodsB.isEmpty()) {
+				Map<MethodInstance, MethodInstance> matches = matchUniqueHashes(methodsA, methodsB,
+						getHashes(methodsA, StructuralHash::hash), getHashes(methodsB, StructuralHash::hash));
+
+				for (Map.Entry<MethodInstance, MethodInstance> entry : matches.entrySet()) {
+					if (ClassifierUtil.checkPotentialEquality(entry.getKey(), entry.getValue())) methodMatches.put(entry.getKey(), entry.getValue());
+				}
+			}
+
+			List<FieldInstance> fieldsA = getExactMatchCandidates(cls.getFields());
+			List<FieldInstance> fieldsB = getExactMatchCandidates(cls.getMatch().getFields());
+
+			if (!fieldsA.isEmpty() && !fieldsB.isEmpty()) {
+				Map<FieldInstance, FieldInstance> matches = matchUniqueHashes(fieldsA, fieldsB,
+						getHashes(fieldsA, StructuralHash::hash), getHashes(fieldsB, StructuralHash::hash));
+
+				for (Map.Entry<FieldInstance, FieldInstance> entry : matches.entrySet()) {
+					if (ClassifierUtil.checkPotentialEquality(entry.getKey(), entry.getValue())) fieldMatches.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}, Matcher::estimateRankCost, progress -> { }, null);
+
+		int ret = 0;
+
+		for (Map.Entry<MethodInstance, MethodInstance> entry : methodMatches.entrySet()) {
+			// matching a method may have matched others in its hierarchy already
+			if (entry.getKey().hasMatch() || entry.getValue().hasMatch()) continue;
+
+			match(entry.getKey(), entry.getValue());
+			ret++;
+		}
+
+		for (Map.Entry<FieldInstance, FieldInstance> entry : fieldMatches.entrySet()) {
+			match(entry.getKey(), entry.getValue());
+			ret++;
+		}
+
+		return ret;
+	}
+
+	private static <T extends MemberInstance<T>> List<T> getExactMatchCandidates(T[] members) {
+		List<T> ret = new ArrayList<>(members.length);
+
+		for (T member : members) {
+			if (member.isReal() && !member.hasMatch() && member.isMatchable()) ret.add(member);
+		}
+
+		return ret;
+	}
+
+	private static <T> Map<T, Long> getHashes(List<T> items, ToLongFunction<T> hasher) {
+		Map<T, Long> ret = new IdentityHashMap<>(items.size());
+
+		for (T item : items) {
+			ret.put(item, hasher.applyAsLong(item));
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Pair up srcs and dsts whose hash occurs exactly once on each side.
+	 */
+	private static <T> Map<T, T> matchUniqueHashes(List<T> srcs, List<T> dsts, Map<T, Long> srcHashes, Map<T, Long> dstHashes) {
+		Map<Long, T> uniqueSrcs = getUniqueHashes(srcs, srcHashes);
+		Map<Long, T> uniqueDsts = getUniqueHashes(dsts, dstHashes);
+		Map<T, T> ret = new IdentityHashMap<>();
+
+		for (Map.Entry<Long, T> entry : uniqueSrcs.entrySet()) {
+			if (entry.getValue() == null) continue;
+
+			T dst = uniqueDsts.get(entry.getKey());
+			if (dst != null) ret.put(entry.getValue(), dst);
+		}
+
+		return ret;
+	}
+
+	private static <T> Map<Long, T> getUniqueHashes(List<T> items, Map<T, Long> hashes) {
+		Map<Long, T> ret = new HashMap<>(items.size());
+
+		for (T item : items) {
+			Long hash = hashes.get(item);
+
+			if (ret.containsKey(hash)) {
+				ret.put(hash, null); // ambiguous
+			} else {
+				ret.put(hash, item);
+			}
+		}
+
+		return ret;
+	}
+
+	public boolean autoMatchClassesByCode(DoubleConsumer progressReceiver) {
+		return autoMatchClassesByCode(progressReceiver, new CancelToken());
+	}
+
+	/**
+	 * Match classes whose distinctive method bodies are found in the same counterpart class, see
+	 * {@link MethodFingerprintIndex}.
+	 *
+	 * <p>Every method votes for the owner of its unique exact or clearly best near-duplicate counterpart. A class
+	 * gets matched if enough of its methods vote and most of them agree.
+	 */
+	public boolean autoMatchClassesByCode(DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		MethodFingerprintIndex indexA = env.getMethodIndexA();
+		MethodFingerprintIndex indexB = env.getMethodIndexB();
+
+		return autoMatchClassesByVotes("Code", (cls, votes) -> {
+			for (MethodInstance method : cls.getMethods()) {
+				MethodInstance target = getCodeMatchCandidate(method, indexA, indexB);
+				if (target != null) votes.accept(target.getCls());
+			}
+		}, progressReceiver, cancelToken);
+	}
+
+	public boolean autoMatchClassesByStrings(DoubleConsumer progressReceiver) {
+		return autoMatchClassesByStrings(progressReceiver, new CancelToken());
+	}
+
+	/**
+	 * Match classes sharing rare string constants, see {@link StringConstantIndex}.
+	 *
+	 * <p>Every string used by exactly one class on each side votes for the pairing of those classes. This anchors
+	 * classes with distinctive log or error messages before the full ranking runs. Strings shared by a few classes
+	 * would spread their vote over all of them and dilute the required agreement, they match fewer classes overall.
+	 */
+	public boolean autoMatchClassesByStrings(DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		StringConstantIndex indexA = env.getStringIndexA();
+		StringConstantIndex indexB = env.getStringIndexB();
+
+		return autoMatchClassesByVotes("String", (cls, votes) -> {
+			for (String str : cls.getStrings()) {
+				if (indexA.getUniqueClass(str) != cls) continue;
+
+				ClassInstance target = indexB.getUniqueClass(str);
+				if (target != null) votes.accept(target);
+			}
+		}, progressReceiver, cancelToken);
+	}
+
+	/**
+	 * Match the unmatched A side classes to the B side class most of the votes supplied by voter are for.
+	 */
+	private boolean autoMatchClassesByVotes(String kind, BiConsumer<ClassInstance, Consumer<ClassInstance>> voter, DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		if (cancelToken.isCancelled()) return false;
+
+		Predicate<ClassInstance> filter = unmatchedClassFilter();
+		List<ClassInstance> classes = env.getClassesA().stream().filter(filter).collect(Collectors.toList());
+		Map<ClassInstance, ClassInstance> matches = new ConcurrentHashMap<>();
+
+		runInParallel(classes, cls -> {
+			Map<ClassInstance, Integer> votes = new IdentityHashMap<>();
+			int[] voteCount = new int[1];
+
+			voter.accept(cls, target -> {
+				voteCount[0]++; // votes for already matched or unmatchable targets still count as disagreement
+				if (!filter.test(target)) return;
+
+				votes.merge(target, 1, Integer::sum);
+			});
+
+			ClassInstance best = null;
+			int bestVotes = 0;
+
+			for (Map.Entry<ClassInstance, Integer> entry : votes.entrySet()) {
+				if (entry.getValue() > bestVotes) {
+					best = entry.getKey();
+					bestVotes = entry.getValue();
+				}
+			}
+
+			if (bestVotes >= minClassVotes
+					&& bestVotes >= voteCount[0] * minClassVoteAgreement
+					&& ClassifierUtil.checkPotentialEquality(cls, best)) {
+				matches.put(cls, best);
+			}
+		}, Matcher::estimateRankCost, progressReceiver, cancelToken);
+
+		sanitizeMatches(matches);
+
+		for (Map.Entry<ClassInstance, ClassInstance> entry : matches.entrySet()) {
+			match(entry.getKey(), entry.getValue());
+		}
+
+		LOGGER.info("{} matched {} classes ({} unmatched, {} total)", kind, matches.size(), (classes.size() - matches.size()), env.getClassesA().size());
+
+		return !matches.isEmpty();
+	}
+
+	/**
+	 * Find the B side method with the same or almost the same code as methodA if it is unambiguous.
+	 */
+	private static MethodInstance getCodeMatchCandidate(MethodInstance methodA, MethodFingerprintIndex indexA, MethodFingerprintIndex indexB) {
+		if (!methodA.isReal() || methodA.hasMatch() || !methodA.isMatchable()) return null;
+
+		Fingerprint fingerprint = MethodFingerprintIndex.compute(methodA);
+		if (fingerprint == null) return null;
+
+		List<MethodInstance> exact = indexB.getExact(fingerprint);
+
+		if (!exact.isEmpty()) {
+			return exact.size() == 1 && indexA.getExact(fingerprint).size() == 1 ? exact.get(0) : null;
+		}
+
+		List<RankResult<MethodInstance>> similar = indexB.getSimilar(fingerprint, minCodeSimilarity, 2);
+		if (similar.isEmpty()) return null;
+		if (similar.size() > 1 && similar.get(0).getScore() - similar.get(1).getScore() < minCodeSimilarityGap) return null;
+
+		return similar.get(0).getSubject();
 	}
 
 	public boolean autoMatchClasses(DoubleConsumer progressReceiver) {
-		return autoMatchClasses(autoMatchLevel, absClassAutoMatchThreshold, relClassAutoMatchThreshold, progressReceiver);
+		return autoMatchClasses(progressReceiver, new CancelToken());
 	}
 
-	public boolean autoMatchClasses(ClassifierLevel level, double absThreshold, double relThreshold, DoubleConsumer progressReceiver) {
-		boolean assumeBothOrNoneObfuscated = env.assumeBothOrNoneObfuscated;
-		Predicate<ClassInstance> filter = cls -> cls.isReal() && (!assumeBothOrNoneObfuscated || cls.isNameObfuscated()) && !cls.hasMatch() && cls.isMatchable();
+	public boolean autoMatchClasses(DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		return autoMatchClasses(autoMatchLevel, absClassAutoMatchThreshold, relClassAutoMatchThreshold, progressReceiver, cancelToken);
+	}
+
+	public boolean autoMatchClasses(ClassifierLevel level, double absThreshold, double relThreshold, DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		return autoMatchClasses(level, absThreshold, relThreshold, anyClass, anyClass, progressReceiver, cancelToken);
+	}
+
+	/**
+	 * Auto match the A side classes passing srcFilter, considering only the B side classes passing dstFilter.
+	 */
+	public boolean autoMatchClasses(ClassifierLevel level, double absThreshold, double relThreshold, Predicate<ClassInstance> srcFilter, Predicate<ClassInstance> dstFilter,
+			DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		if (cancelToken.isCancelled()) return false;
+
+		CancelToken phaseToken = cancelToken.startPhase();
+		Predicate<ClassInstance> filter = unmatchedClassFilter();
 
 		List<ClassInstance> classes = env.getClassesA().stream()
-				.filter(filter)
+				.filter(filter.and(srcFilter))
 				.collect(Collectors.toList());
 
 		ClassInstance[] cmpClasses = env.getClassesB().stream()
-				.filter(filter)
+				.filter(filter.and(dstFilter))
 				.collect(Collectors.toList()).toArray(new ClassInstance[0]);
 
 		double maxScore = ClassClassifier.getMaxScore(level);
 		double maxMismatch = maxScore - getRawScore(absThreshold * (1 - relThreshold), maxScore);
 		Map<ClassInstance, ClassInstance> matches = new ConcurrentHashMap<>(classes.size());
+		List<ClassInstance> unranked = classes;
 
-		runInParallel(classes, cls -> {
-			List<RankResult<ClassInstance>> ranking = ClassClassifier.rank(cls, cmpClasses, level, env, maxMismatch);
+		if (partitionClassesByPackage) {
+			unranked = autoMatchClassesByPackage(classes, cmpClasses, srcFilter, dstFilter, level, absThreshold, relThreshold, maxMismatch, matches, phaseToken);
+
+			if (!matches.isEmpty()) { // the leftovers may only go for B classes not already claimed within a package
+				Set<ClassInstance> claimed = Collections.newSetFromMap(new IdentityHashMap<>(matches.size()));
+				claimed.addAll(matches.values());
+				cmpClasses = Arrays.stream(cmpClasses).filter(cls -> !claimed.contains(cls)).toArray(ClassInstance[]::new);
+			}
+		}
+
+		// checkRank only looks at the best two results, keeping more would hold every pair's classifier results at once
+		List<List<RankResult<ClassInstance>>> rankings = ClassClassifier.rankTiled(unranked, cmpClasses, level, env, maxMismatch, 2, progressReceiver, phaseToken);
+
+		for (int i = 0; i < unranked.size(); i++) {
+			List<RankResult<ClassInstance>> ranking = rankings.get(i);
 
 			if (checkRank(ranking, absThreshold, relThreshold, maxScore)) {
 				ClassInstance match = ranking.get(0).getSubject();
 
-				matches.put(cls, match);
+				matches.put(unranked.get(i), match);
 			}
-		}, progressReceiver);
+		}
 
+		logBudgetExhaustion(phaseToken, "class");
 		sanitizeMatches(matches);
 
 		for (Map.Entry<ClassInstance, ClassInstance> entry : matches.entrySet()) {
@@ -539,20 +982,324 @@ public class Matcher {
 		return !matches.isEmpty();
 	}
 
+	/**
+	 * Rank classes only against the candidates in the counterpart of their package, returning those left unmatched.
+	 *
+	 * <p>Packages are paired by their aggregated features first, classes in unpaired packages are returned as well.
+	 * The pairing only considers the classes passing srcFilter and dstFilter and is reused within an autoMatchAll pass.
+	 */
+	private List<ClassInstance> autoMatchClassesByPackage(List<ClassInstance> classes, ClassInstance[] cmpClasses, Predicate<ClassInstance> srcFilter, Predicate<ClassInstance> dstFilter,
+			ClassifierLevel level, double absThreshold, double relThreshold, double maxMismatch, Map<ClassInstance, ClassInstance> matches, CancelToken cancelToken) {
+		Map<String, String> packages = getPackagePairs(srcFilter, dstFilter);
+		Map<String, List<ClassInstance>> candidates = new HashMap<>();
+
+		for (ClassInstance cls : cmpClasses) {
+			candidates.computeIfAbsent(PackageClusters.getPackage(cls), ignore -> new ArrayList<>()).add(cls);
+		}
+
+		List<ClassInstance> partitioned = new ArrayList<>();
+		List<ClassInstance> ret = Collections.synchronizedList(new ArrayList<>());
+
+		for (ClassInstance cls : classes) {
+			String pkg = packages.get(PackageClusters.getPackage(cls));
+
+			if (pkg != null && candidates.containsKey(pkg)) {
+				partitioned.add(cls);
+			} else {
+				ret.add(cls);
+			}
+		}
+
+		double maxScore = ClassClassifier.getMaxScore(level);
+		Map<String, ClassInstance[]> candidateArrays = new HashMap<>();
+
+		for (Map.Entry<String, List<ClassInstance>> entry : candidates.entrySet()) {
+			candidateArrays.put(entry.getKey(), entry.getValue().toArray(new ClassInstance[0]));
+		}
+
+		runInParallel(partitioned, cls -> {
+			ClassInstance[] dsts = candidateArrays.get(packages.get(PackageClusters.getPackage(cls)));
+			List<RankResult<ClassInstance>> ranking = ClassClassifier.rank(cls, dsts, level, env, maxMismatch);
+
+			if (checkRank(ranking, absThreshold, relThreshold, maxScore)) {
+				matches.put(cls, ranking.get(0).getSubject());
+			} else {
+				ret.add(cls);
+			}
+		}, progress -> { }, cancelToken);
+
+		LOGGER.info("Paired {} packages, ranked {} classes within them, {} left for global ranking", packages.size(), partitioned.size(), ret.size());
+
+		return new ArrayList<>(ret);
+	}
+
+	private Map<String, String> getPackagePairs(Predicate<ClassInstance> srcFilter, Predicate<ClassInstance> dstFilter) {
+		Map<String, String> ret = packagePairs;
+		if (ret != null) return ret;
+
+		ret = PackageClusters.matchPackages(env.getClassesA().stream().filter(srcFilter).collect(Collectors.toList()),
+				env.getClassesB().stream().filter(dstFilter).collect(Collectors.toList()),
+				minPackageScore);
+		if (cachePackagePairs) packagePairs = ret;
+
+		return ret;
+	}
+
+	public void setPartitionClassesByPackage(boolean value) {
+		partitionClassesByPackage = value;
+	}
+
+	public boolean isPartitionClassesByPackage() {
+		return partitionClassesByPackage;
+	}
+
+	public boolean autoMatchPropagate(DoubleConsumer progressReceiver) {
+		return autoMatchPropagate(progressReceiver, new CancelToken());
+	}
+
+	/**
+	 * Match classes outwards from the existing class matches, most supported candidates first.
+	 *
+	 * <p>Unmatched classes related to matched ones are queued by how many of their related classes are matched and
+	 * only ranked against the unmatched relatives of those matches' counterparts. A new match gets its members
+	 * matched and queues its own relatives right away, so the following rankings already benefit from it. Since
+	 * the candidate sets are reduced, a match also mustn't score better with any other related class.
+	 */
+	public boolean autoMatchPropagate(DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		if (cancelToken.isCancelled()) return false;
+
+		CancelToken phaseToken = cancelToken.startPhase();
+		Predicate<ClassInstance> filter = unmatchedClassFilter();
+		ClassifierLevel level = ClassifierLevel.Intermediate;
+		double maxScore = ClassClassifier.getMaxScore(level);
+		double maxMismatch = maxScore - getRawScore(absClassAutoMatchThreshold * (1 - relClassAutoMatchThreshold), maxScore);
+		PriorityQueue<PropagationEntry> queue = new PriorityQueue<>();
+		Map<ClassInstance, Integer> rankedSupport = new IdentityHashMap<>(); // matched relatives at the last ranking
+		Map<ClassInstance, Set<ClassInstance>> relativeCache = new IdentityHashMap<>();
+		Function<ClassInstance, Set<ClassInstance>> relatives = cls -> relativeCache.computeIfAbsent(cls, Matcher::getRelatives);
+		int classCount = 0;
+		int memberCount = 0;
+		int rankCount = 0;
+
+		for (ClassInstance cls : env.getClassesA()) {
+			if (cls.isReal() && cls.hasMatch() && !cls.isShared()) queueRelatives(cls, relatives, filter, queue);
+		}
+
+		while (!queue.isEmpty() && !phaseToken.isStopped()) {
+			ClassInstance cls = queue.poll().cls;
+			if (!filter.test(cls)) continue;
+
+			Set<ClassInstance> anchors = getMatchedRelatives(cls, relatives);
+			int lastSupport = rankedSupport.getOrDefault(cls, 0);
+			if (anchors.size() < lastSupport + Math.max(1, lastSupport / 2)) continue; // not enough new since the last ranking
+
+			rankedSupport.put(cls, anchors.size());
+
+			ClassInstance[] candidates = getPropagationCandidates(anchors, relatives, filter);
+			if (candidates.length == 0) continue;
+
+			List<RankResult<ClassInstance>> ranking = ClassClassifier.rank(cls, candidates, level, env, maxMismatch);
+			rankCount++;
+
+			if (!checkRank(ranking, absClassAutoMatchThreshold, relClassAutoMatchThreshold, maxScore)) continue;
+
+			ClassInstance match = ranking.get(0).getSubject();
+			if (!isBestPropagationMatch(cls, match, ranking.get(0).getScore(), relatives, filter, level, maxMismatch)) continue;
+
+			match(cls, match);
+			classCount++;
+			memberCount += matchMembers(cls, ClassInstance::getMethods, MethodClassifier::rank, MethodClassifier.getMaxScore(level),
+					level, absMethodAutoMatchThreshold, relMethodAutoMatchThreshold);
+			memberCount += matchMembers(cls, ClassInstance::getFields, FieldClassifier::rank, FieldClassifier.getMaxScore(level),
+					level, absFieldAutoMatchThreshold, relFieldAutoMatchThreshold);
+			queueRelatives(cls, relatives, filter, queue);
+
+			progressReceiver.accept((double) classCount / (classCount + queue.size()));
+		}
+
+		logBudgetExhaustion(phaseToken, "propagation");
+		LOGGER.info("Propagation matched {} classes and {} members with {} class rankings", classCount, memberCount, rankCount);
+
+		return classCount > 0;
+	}
+
+	public boolean autoMatchFlooding(DoubleConsumer progressReceiver) {
+		return autoMatchFlooding(progressReceiver, new CancelToken());
+	}
+
+	/**
+	 * Match classes by similarity flooding from the existing class matches.
+	 *
+	 * <p>The flooding scores only select the candidates, each class is still ranked against them by the regular
+	 * classifiers. A match additionally has to be the flooding favorite of both sides.
+	 */
+	public boolean autoMatchFlooding(DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		if (cancelToken.isCancelled()) return false;
+
+		CancelToken phaseToken = cancelToken.startPhase();
+		Predicate<ClassInstance> filter = unmatchedClassFilter();
+		SimilarityFlooding flooding = SimilarityFlooding.run(env, filter, phaseToken);
+
+		List<ClassInstance> classes = env.getClassesA().stream()
+				.filter(filter)
+				.collect(Collectors.toList());
+
+		ClassifierLevel level = ClassifierLevel.Intermediate;
+		double maxScore = ClassClassifier.getMaxScore(level);
+		double maxMismatch = maxScore - getRawScore(absClassAutoMatchThreshold * (1 - relClassAutoMatchThreshold), maxScore);
+		Map<ClassInstance, ClassInstance> matches = new ConcurrentHashMap<>();
+
+		runInParallel(classes, cls -> {
+			List<RankResult<ClassInstance>> candidates = flooding.getCandidates(cls, minFloodingScore, maxFloodingCandidates);
+			if (candidates.isEmpty()) return;
+
+			ClassInstance[] dsts = candidates.stream().map(RankResult::getSubject).toArray(ClassInstance[]::new);
+			List<RankResult<ClassInstance>> ranking = ClassClassifier.rank(cls, dsts, level, env, maxMismatch);
+			if (!checkRank(ranking, absClassAutoMatchThreshold, relClassAutoMatchThreshold, maxScore)) return;
+
+			ClassInstance match = ranking.get(0).getSubject();
+			if (flooding.getBestCounterpart(match) == cls) matches.put(cls, match);
+		}, progressReceiver, phaseToken);
+
+		logBudgetExhaustion(phaseToken, "flooding");
+		sanitizeMatches(matches);
+
+		for (Map.Entry<ClassInstance, ClassInstance> entry : matches.entrySet()) {
+			match(entry.getKey(), entry.getValue());
+		}
+
+		LOGGER.info("Flooding matched {} classes ({} unmatched, {} total)", matches.size(), (classes.size() - matches.size()), env.getClassesA().size());
+
+		return !matches.isEmpty();
+	}
+
+	/**
+	 * Check that no other unmatched A side class related to the anchors of clsB scores at least as well with it.
+	 */
+	private boolean isBestPropagationMatch(ClassInstance clsA, ClassInstance clsB, double score, Function<ClassInstance, Set<ClassInstance>> relatives,
+			Predicate<ClassInstance> filter, ClassifierLevel level, double maxMismatch) {
+		ClassInstance[] dsts = { clsB };
+
+		for (ClassInstance cls : getPropagationCandidates(getMatchedRelatives(clsB, relatives), relatives, filter)) {
+			if (cls == clsA) continue;
+
+			List<RankResult<ClassInstance>> ranking = ClassClassifier.rank(cls, dsts, level, env, maxMismatch);
+			if (!ranking.isEmpty() && ranking.get(0).getScore() >= score) return false;
+		}
+
+		return true;
+	}
+
+	private <T extends MemberInstance<T>> int matchMembers(ClassInstance cls, Function<ClassInstance, T[]> memberGetter, IRanker<T> ranker, double maxScore,
+			ClassifierLevel level, double absThreshold, double relThreshold) {
+		double maxMismatch = maxScore - getRawScore(absThreshold * (1 - relThreshold), maxScore);
+		Map<T, T> matches = new IdentityHashMap<>();
+
+		for (T member : memberGetter.apply(cls)) {
+			if (member.hasMatch() || !member.isMatchable()) continue;
+
+			List<RankResult<T>> ranking = ranker.rank(member, memberGetter.apply(cls.getMatch()), level, env, maxMismatch);
+			if (checkRank(ranking, absThreshold, relThreshold, maxScore)) matches.put(member, ranking.get(0).getSubject());
+		}
+
+		sanitizeMatches(matches);
+
+		int ret = 0;
+
+		for (Map.Entry<T, T> entry : matches.entrySet()) {
+			// matching a method may have matched others in its hierarchy already
+			if (entry.getKey().hasMatch() || entry.getValue().hasMatch()) continue;
+
+			match(entry.getKey(), entry.getValue());
+			ret++;
+		}
+
+		return ret;
+	}
+
+	private static void queueRelatives(ClassInstance cls, Function<ClassInstance, Set<ClassInstance>> relatives, Predicate<ClassInstance> filter,
+			PriorityQueue<PropagationEntry> queue) {
+		for (ClassInstance relative : relatives.apply(cls)) {
+			if (filter.test(relative)) queue.add(new PropagationEntry(relative, getMatchedRelatives(relative, relatives).size()));
+		}
+	}
+
+	private static Set<ClassInstance> getMatchedRelatives(ClassInstance cls, Function<ClassInstance, Set<ClassInstance>> relatives) {
+		Set<ClassInstance> ret = Util.newIdentityHashSet();
+
+		for (ClassInstance relative : relatives.apply(cls)) {
+			if (relative.hasMatch() && !relative.isShared()) ret.add(relative);
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Collect the classes passing filter that are related to the counterparts of most of the matched anchors.
+	 *
+	 * <p>The actual counterpart is usually related to all of them, while a class only sharing some widely used
+	 * relative isn't worth ranking.
+	 */
+	private static ClassInstance[] getPropagationCandidates(Set<ClassInstance> anchors, Function<ClassInstance, Set<ClassInstance>> relatives,
+			Predicate<ClassInstance> filter) {
+		Map<ClassInstance, Integer> support = new IdentityHashMap<>();
+		int maxSupport = 0;
+
+		for (ClassInstance anchor : anchors) {
+			for (ClassInstance relative : relatives.apply(anchor.getMatch())) {
+				if (filter.test(relative)) maxSupport = Math.max(maxSupport, support.merge(relative, 1, Integer::sum));
+			}
+		}
+
+		int minSupport = (int) Math.ceil(maxSupport * minPropagationSupport);
+		List<ClassInstance> ret = new ArrayList<>();
+
+		for (Map.Entry<ClassInstance, Integer> entry : support.entrySet()) {
+			if (entry.getValue() >= minSupport) ret.add(entry.getKey());
+		}
+
+		return ret.toArray(new ClassInstance[0]);
+	}
+
+	private static Set<ClassInstance> getRelatives(ClassInstance cls) {
+		Set<ClassInstance> ret = Util.newIdentityHashSet();
+		ClassifierUtil.forEachRelative(cls, (relation, relative) -> ret.add(relative));
+
+		return ret;
+	}
+
 	public static <T, C> void runInParallel(List<T> workSet, Consumer<T> worker, DoubleConsumer progressReceiver) {
+		runInParallel(workSet, worker, null, progressReceiver, null);
+	}
+
+	public static <T> void runInParallel(List<T> workSet, Consumer<T> worker, DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		runInParallel(workSet, worker, null, progressReceiver, cancelToken);
+	}
+
+	/**
+	 * Process workSet in parallel, scheduling the most expensive items first as estimated by costEstimator (may be null).
+	 */
+	public static <T> void runInParallel(List<T> workSet, Consumer<T> worker, ToLongFunction<T> costEstimator, DoubleConsumer progressReceiver, CancelToken cancelToken) {
 		if (workSet.isEmpty()) return;
 
+		List<List<T>> chunks = partitionWork(workSet, costEstimator);
+		int totalItems = workSet.size();
 		AtomicInteger itemsDone = new AtomicInteger();
-		int updateRate = Math.max(1, workSet.size() / 200);
+		int updateRate = Math.max(1, totalItems / 200);
 
 		try {
-			List<Future<Void>> futures = threadPool.invokeAll(workSet.stream().<Callable<Void>>map(workItem -> () -> {
-				worker.accept(workItem);
+			List<Future<Void>> futures = threadPool.invokeAll(chunks.stream().<Callable<Void>>map(chunk -> () -> {
+				for (T workItem : chunk) {
+					if (cancelToken != null && cancelToken.isStopped()) break; // skip remaining items after cancellation, keeping the results so far
+
+					worker.accept(workItem);
+				}
 
-				int cItemsDone = itemsDone.incrementAndGet();
+				int prevItemsDone = itemsDone.getAndAdd(chunk.size());
+				int cItemsDone = prevItemsDone + chunk.size();
 
-				if ((cItemsDone % updateRate) == 0) {
-					progressReceiver.accept((double) cItemsDone / workSet.size());
+				if (prevItemsDone / updateRate != cItemsDone / updateRate) {
+					progressReceiver.accept((double) cItemsDone / totalItems);
 				}
 
 				return null;
@@ -566,15 +1313,101 @@ public class Matcher {
 		}
 	}
 
+	/**
+	 * Split workSet into chunks of roughly equal estimated cost, ordered by decreasing cost.
+	 *
+	 * <p>Expensive items get their own chunk and are scheduled first to avoid a long tail, cheap items are
+	 * grouped to reduce the per task overhead.
+	 */
+	private static <T> List<List<T>> partitionWork(List<T> workSet, ToLongFunction<T> costEstimator) {
+		final int size = workSet.size();
+		final int maxChunks = Runtime.getRuntime().availableProcessors() * chunksPerThread;
+		List<List<T>> ret;
+
+		if (costEstimator == null) {
+			int chunkSize = (size + maxChunks - 1) / maxChunks;
+			ret = new ArrayList<>((size + chunkSize - 1) / chunkSize);
+
+			for (int start = 0; start < size; start += chunkSize) {
+				ret.add(workSet.subList(start, Math.min(start + chunkSize, size)));
+			}
+
+			return ret;
+		}
+
+		long[] costs = new long[size];
+		Integer[] order = new Integer[size];
+		long totalCost = 0;
+
+		for (int i = 0; i < size; i++) {
+			long cost = Math.max(1, costEstimator.applyAsLong(workSet.get(i)));
+			costs[i] = cost;
+			order[i] = i;
+			totalCost += cost;
+		}
+
+		Arrays.sort(order, (a, b) -> Long.compare(costs[b], costs[a]));
+
+		long targetChunkCost = Math.max(1, totalCost / maxChunks);
+		ret = new ArrayList<>(maxChunks + 1);
+		List<T> chunk = new ArrayList<>();
+		long chunkCost = 0;
+
+		for (int idx : order) {
+			chunk.add(workSet.get(idx));
+			chunkCost += costs[idx];
+
+			if (chunkCost >= targetChunkCost) {
+				ret.add(chunk);
+				chunk = new ArrayList<>();
+				chunkCost = 0;
+			}
+		}
+
+		if (!chunk.isEmpty()) ret.add(chunk);
+
+		return ret;
+	}
+
+	static long estimateRankCost(ClassInstance cls) {
+		long ret = 1 + cls.getFields().length;
+
+		for (MethodInstance method : cls.getMethods()) {
+			ret += estimateRankCost(method);
+		}
+
+		return ret;
+	}
+
+	static long estimateRankCost(MethodInstance method) {
+		MethodNode asmNode = method.getAsmNode();
+
+		return asmNode != null ? 1 + asmNode.instructions.size() : 1;
+	}
+
 	public boolean autoMatchMethods(DoubleConsumer progressReceiver) {
-		return autoMatchMethods(autoMatchLevel, absMethodAutoMatchThreshold, relMethodAutoMatchThreshold, progressReceiver);
+		return autoMatchMethods(progressReceiver, new CancelToken());
+	}
+
+	public boolean autoMatchMethods(DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		return autoMatchMethods(autoMatchLevel, absMethodAutoMatchThreshold, relMethodAutoMatchThreshold, progressReceiver, cancelToken);
 	}
 
-	public boolean autoMatchMethods(ClassifierLevel level, double absThreshold, double relThreshold, DoubleConsumer progressReceiver) {
+	public boolean autoMatchMethods(ClassifierLevel level, double absThreshold, double relThreshold, DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		return autoMatchMethods(level, absThreshold, relThreshold, anyClass, anyClass, progressReceiver, cancelToken);
+	}
+
+	/**
+	 * Auto match the methods of the matched A side classes passing srcFilter whose match passes dstFilter.
+	 */
+	public boolean autoMatchMethods(ClassifierLevel level, double absThreshold, double relThreshold, Predicate<ClassInstance> srcFilter, Predicate<ClassInstance> dstFilter,
+			DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		if (cancelToken.isCancelled()) return false;
+
 		AtomicInteger totalUnmatched = new AtomicInteger();
-		Map<MethodInstance, MethodInstance> matches = match(level, absThreshold, relThreshold,
+		Map<MethodInstance, MethodInstance> matches = match(level, absThreshold, relThreshold, getMatchedClassFilter(srcFilter, dstFilter),
 				cls -> cls.getMethods(), MethodClassifier::rank, MethodClassifier.getMaxScore(level),
-				progressReceiver, totalUnmatched);
+				progressReceiver, cancelToken.startPhase(), totalUnmatched);
 
 		for (Map.Entry<MethodInstance, MethodInstance> entry : matches.entrySet()) {
 			match(entry.getKey(), entry.getValue());
@@ -586,16 +1419,30 @@ public class Matcher {
 	}
 
 	public boolean autoMatchFields(DoubleConsumer progressReceiver) {
-		return autoMatchFields(autoMatchLevel, absFieldAutoMatchThreshold, relFieldAutoMatchThreshold, progressReceiver);
+		return autoMatchFields(progressReceiver, new CancelToken());
 	}
 
-	public boolean autoMatchFields(ClassifierLevel level, double absThreshold, double relThreshold, DoubleConsumer progressReceiver) {
+	public boolean autoMatchFields(DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		return autoMatchFields(autoMatchLevel, absFieldAutoMatchThreshold, relFieldAutoMatchThreshold, progressReceiver, cancelToken);
+	}
+
+	public boolean autoMatchFields(ClassifierLevel level, double absThreshold, double relThreshold, DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		return autoMatchFields(level, absThreshold, relThreshold, anyClass, anyClass, progressReceiver, cancelToken);
+	}
+
+	/**
+	 * Auto match the fields of the matched A side classes passing srcFilter whose match passes dstFilter.
+	 */
+	public boolean autoMatchFields(ClassifierLevel level, double absThreshold, double relThreshold, Predicate<ClassInstance> srcFilter, Predicate<ClassInstance> dstFilter,
+			DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		if (cancelToken.isCancelled()) return false;
+
 		AtomicInteger totalUnmatched = new AtomicInteger();
 		double maxScore = FieldClassifier.getMaxScore(level);
 
-		Map<FieldInstance, FieldInstance> matches = match(level, absThreshold, relThreshold,
+		Map<FieldInstance, FieldInstance> matches = match(level, absThreshold, relThreshold, getMatchedClassFilter(srcFilter, dstFilter),
 				cls -> cls.getFields(), FieldClassifier::rank, maxScore,
-				progressReceiver, totalUnmatched);
+				progressReceiver, cancelToken.startPhase(), totalUnmatched);
 
 		for (Map.Entry<FieldInstance, FieldInstance> entry : matches.entrySet()) {
 			match(entry.getKey(), entry.getValue());
@@ -606,11 +1453,11 @@ public class Matcher {
 		return !matches.isEmpty();
 	}
 
-	private <T extends MemberInstance<T>> Map<T, T> match(ClassifierLevel level, double absThreshold, double relThreshold,
+	private <T extends MemberInstance<T>> Map<T, T> match(ClassifierLevel level, double absThreshold, double relThreshold, Predicate<ClassInstance> classFilter,
 			Function<ClassInstance, T[]> memberGetter, IRanker<T> ranker, double maxScore,
-			DoubleConsumer progressReceiver, AtomicInteger totalUnmatched) {
+			DoubleConsumer progressReceiver, CancelToken phaseToken, AtomicInteger totalUnmatched) {
 		List<ClassInstance> classes = env.getClassesA().stream()
-				.filter(cls -> cls.isReal() && cls.hasMatch() && memberGetter.apply(cls).length > 0)
+				.filter(cls -> cls.isReal() && cls.hasMatch() && memberGetter.apply(cls).length > 0 && classFilter.test(cls))
 				.filter(cls -> {
 					for (T member : memberGetter.apply(cls)) {
 						if (!member.hasMatch() && member.isMatchable()) return true;
@@ -629,6 +1476,7 @@ public class Matcher {
 
 			for (T member : memberGetter.apply(cls)) {
 				if (member.hasMatch() || !member.isMatchable()) continue;
+				if (phaseToken.isStopped()) break;
 
 				List<RankResult<T>> ranking = ranker.rank(member, memberGetter.apply(cls.getMatch()), level, env, maxMismatch);
 
@@ -642,33 +1490,61 @@ public class Matcher {
 			}
 
 			if (unmatched > 0) totalUnmatched.addAndGet(unmatched);
-		}, progressReceiver);
+		}, Matcher::estimateRankCost, progressReceiver, phaseToken);
 
+		logBudgetExhaustion(phaseToken, "member");
 		sanitizeMatches(ret);
 
 		return ret;
 	}
 
 	public boolean autoMatchMethodArgs(DoubleConsumer progressReceiver) {
-		return autoMatchMethodArgs(autoMatchLevel, absMethodArgAutoMatchThreshold, relMethodArgAutoMatchThreshold, progressReceiver);
+		return autoMatchMethodArgs(progressReceiver, new CancelToken());
 	}
 
-	public boolean autoMatchMethodArgs(ClassifierLevel level, double absThreshold, double relThreshold, DoubleConsumer progressReceiver) {
-		return autoMatchMethodVars(true, MethodInstance::getArgs, level, absThreshold, relThreshold, progressReceiver);
+	public boolean autoMatchMethodArgs(DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		return autoMatchMethodArgs(autoMatchLevel, absMethodArgAutoMatchThreshold, relMethodArgAutoMatchThreshold, progressReceiver, cancelToken);
+	}
+
+	public boolean autoMatchMethodArgs(ClassifierLevel level, double absThreshold, double relThreshold, DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		return autoMatchMethodArgs(level, absThreshold, relThreshold, anyClass, anyClass, progressReceiver, cancelToken);
+	}
+
+	/**
+	 * Auto match the method args within the matched A side classes passing srcFilter whose match passes dstFilter.
+	 */
+	public boolean autoMatchMethodArgs(ClassifierLevel level, double absThreshold, double relThreshold, Predicate<ClassInstance> srcFilter, Predicate<ClassInstance> dstFilter,
+			DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		return autoMatchMethodVars(true, MethodInstance::getArgs, level, absThreshold, relThreshold, getMatchedClassFilter(srcFilter, dstFilter), progressReceiver, cancelToken);
 	}
 
 	public boolean autoMatchMethodVars(DoubleConsumer progressReceiver) {
-		return autoMatchMethodVars(autoMatchLevel, absMethodVarAutoMatchThreshold, relMethodVarAutoMatchThreshold, progressReceiver);
+		return autoMatchMethodVars(progressReceiver, new CancelToken());
+	}
+
+	public boolean autoMatchMethodVars(DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		return autoMatchMethodVars(autoMatchLevel, absMethodVarAutoMatchThreshold, relMethodVarAutoMatchThreshold, progressReceiver, cancelToken);
 	}
 
-	public boolean autoMatchMethodVars(ClassifierLevel level, double absThreshold, double relThreshold, DoubleConsumer progressReceiver) {
-		return autoMatchMethodVars(false, MethodInstance::getVars, level, absThreshold, relThreshold, progressReceiver);
+	public boolean autoMatchMethodVars(ClassifierLevel level, double absThreshold, double relThreshold, DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		return autoMatchMethodVars(level, absThreshold, relThreshold, anyClass, anyClass, progressReceiver, cancelToken);
+	}
+
+	/**
+	 * Auto match the method vars within the matched A side classes passing srcFilter whose match passes dstFilter.
+	 */
+	public boolean autoMatchMethodVars(ClassifierLevel level, double absThreshold, double relThreshold, Predicate<ClassInstance> srcFilter, Predicate<ClassInstance> dstFilter,
+			DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		return autoMatchMethodVars(false, MethodInstance::getVars, level, absThreshold, relThreshold, getMatchedClassFilter(srcFilter, dstFilter), progressReceiver, cancelToken);
 	}
 
 	private boolean autoMatchMethodVars(boolean isArg, Function<MethodInstance, MethodVarInstance[]> supplier,
-			ClassifierLevel level, double absThreshold, double relThreshold, DoubleConsumer progressReceiver) {
+			ClassifierLevel level, double absThreshold, double relThreshold, Predicate<ClassInstance> classFilter, DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		if (cancelToken.isCancelled()) return false;
+
+		CancelToken phaseToken = cancelToken.startPhase();
 		List<MethodInstance> methods = env.getClassesA().stream()
-				.filter(cls -> cls.isReal() && cls.hasMatch() && cls.getMethods().length > 0)
+				.filter(cls -> cls.isReal() && cls.hasMatch() && cls.getMethods().length > 0 && classFilter.test(cls))
 				.flatMap(cls -> Stream.<MethodInstance>of(cls.getMethods()))
 				.filter(m -> m.hasMatch() && supplier.apply(m).length > 0)
 				.filter(m -> {
@@ -694,6 +1570,7 @@ public class Matcher {
 
 				for (MethodVarInstance var : supplier.apply(m)) {
 					if (var.hasMatch() || !var.isMatchable()) continue;
+					if (phaseToken.isStopped()) break;
 
 					List<RankResult<MethodVarInstance>> ranking = MethodVarClassifier.rank(var, supplier.apply(m.getMatch()), level, env, maxMismatch);
 
@@ -707,8 +1584,9 @@ public class Matcher {
 				}
 
 				if (unmatched > 0) totalUnmatched.addAndGet(unmatched);
-			}, progressReceiver);
+			}, Matcher::estimateRankCost, progressReceiver, phaseToken);
 
+			logBudgetExhaustion(phaseToken, "method "+(isArg ? "arg" : "var"));
 			sanitizeMatches(matches);
 		}
 
@@ -721,6 +1599,30 @@ public class Matcher {
 		return !matches.isEmpty();
 	}
 
+	/**
+	 * Get a filter for the real classes still open for auto matching.
+	 */
+	private Predicate<ClassInstance> unmatchedClassFilter() {
+		boolean assumeBothOrNoneObfuscated = env.assumeBothOrNoneObfuscated;
+
+		return cls -> cls.isReal() && (!assumeBothOrNoneObfuscated || cls.isNameObfuscated()) && !cls.hasMatch() && cls.isMatchable();
+	}
+
+	/**
+	 * Get a filter for matched A side classes passing srcFilter whose match passes dstFilter.
+	 */
+	private static Predicate<ClassInstance> getMatchedClassFilter(Predicate<ClassInstance> srcFilter, Predicate<ClassInstance> dstFilter) {
+		if (srcFilter == anyClass && dstFilter == anyClass) return anyClass;
+
+		return cls -> srcFilter.test(cls) && cls.getMatch() != null && dstFilter.test(cls.getMatch());
+	}
+
+	private static void logBudgetExhaustion(CancelToken phaseToken, String kind) {
+		if (phaseToken.isExpired()) {
+			LOGGER.info("Auto {} matching exceeded its time budget of {} ms, keeping partial results", kind, phaseToken.getPhaseBudgetMs());
+		}
+	}
+
 	public static boolean checkRank(List<? extends RankResult<?>> ranking, double absThreshold, double relThreshold, double maxScore) {
 		if (ranking.isEmpty()) return false;
 
@@ -815,6 +1717,21 @@ public class Matcher {
 				totalFieldCount, matchedFieldCount);
 	}
 
+	private static final class PropagationEntry implements Comparable<PropagationEntry> {
+		PropagationEntry(ClassInstance cls, int support) {
+			this.cls = cls;
+			this.support = support;
+		}
+
+		@Override
+		public int compareTo(PropagationEntry o) {
+			return Integer.compare(o.support, support); // most matched relatives first
+		}
+
+		final ClassInstance cls;
+		final int support;
+	}
+
 	public static class MatchingStatus {
 		MatchingStatus(int totalClassCount, int matchedClassCount,
 				int totalMethodCount, int matchedMethodCount,
@@ -846,6 +1763,16 @@ public class Matcher {
 	}
 
 	public static final ExecutorService threadPool = Executors.newWorkStealingPool();
+	private static final int chunksPerThread = 8;
+	private static final int minClassVotes = 2;
+	private static final double minClassVoteAgreement = 0.8;
+	private static final double minCodeSimilarity = 0.9;
+	private static final double minCodeSimilarityGap = 0.05;
+	private static final double minPropagationSupport = 0.75;
+	private static final double minFloodingScore = 0.5;
+	private static final int maxFloodingCandidates = 4;
+	private static final double minPackageScore = 0.5;
+	private static final Predicate<ClassInstance> anyClass = cls -> true;
 	public static final Logger LOGGER = LoggerFactory.getLogger("Matcher");
 
 	private final ClassEnvironment env;
@@ -860,4 +1787,8 @@ public class Matcher {
 	private final double relMethodArgAutoMatchThreshold = 0.085;
 	private final double absMethodVarAutoMatchThreshold = 0.85;
 	private final double relMethodVarAutoMatchThreshold = 0.085;
+	private final ReadWriteLock matchLock = new ReentrantReadWriteLock(); // auto matching writes, display rankings read
+	private volatile boolean partitionClassesByPackage;
+	private boolean cachePackagePairs;
+	private Map<String, String> packagePairs; // package pairing of the current autoMatchAll pass
 }
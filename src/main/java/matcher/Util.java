@@ -1,12 +1,15 @@
 package matcher;
 
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.FileSystems;
@@ -15,6 +18,7 @@ import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collection;
 import java.util.Collections;
@@ -103,6 +107,30 @@ public class Util {
 		return autoClose || existing ? null : fs;
 	}
 
+	/**
+	 * Get the file system of a jar, opening it if it isn't open yet. Only newly opened file systems are passed to openHandler.
+	 */
+	public static FileSystem getJarFileSystem(Path archive, Consumer<FileSystem> openHandler) throws IOException {
+		URI uri;
+
+		try {
+			uri = new URI("jar:"+archive.toUri().toString());
+		} catch (URISyntaxException e) {
+			throw new RuntimeException(e);
+		}
+
+		synchronized (Util.class) {
+			try {
+				return FileSystems.getFileSystem(uri);
+			} catch (FileSystemNotFoundException e) {
+				FileSystem ret = FileSystems.newFileSystem(uri, Collections.emptyMap());
+				openHandler.accept(ret);
+
+				return ret;
+			}
+		}
+	}
+
 	public static boolean clearDir(Path path, Predicate<Path> disallowed) throws IOException {
 		try (Stream<Path> stream = Files.walk(path, FileVisitOption.FOLLOW_LINKS)) {
 			if (stream.anyMatch(disallowed)) return false;
@@ -146,6 +174,37 @@ public class Util {
 		}
 	}
 
+	/**
+	 * Write file through a temporary file in the same directory that replaces it atomically where supported, readers
+	 * never see a partially written file. The temporary file is removed if writing fails.
+	 */
+	public static void writeAtomically(Path file, DataWriter writer) throws IOException {
+		Files.createDirectories(file.getParent());
+		Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+
+		try {
+			try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+				writer.write(os);
+			}
+
+			try {
+				Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			tmp = null;
+		} finally {
+			if (tmp != null) {
+				try {
+					Files.deleteIfExists(tmp);
+				} catch (IOException e) {
+					// ignored
+				}
+			}
+		}
+	}
+
 	public static boolean isCallToInterface(MethodInsnNode insn) {
 		assert insn.itf || insn.getOpcode() != Opcodes.INVOKEINTERFACE;
 
@@ -372,5 +431,7 @@ public class Util {
 		}
 	}
 
-	public static final Object asmNodeSync = new Object();
+	public interface DataWriter {
+		void write(DataOutputStream os) throws IOException;
+	}
 }
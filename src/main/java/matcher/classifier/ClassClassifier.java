@@ -8,6 +8,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.DoubleConsumer;
+import java.util.function.Function;
+import java.util.function.ToDoubleBiFunction;
 
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
@@ -16,8 +19,10 @@ import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 
+import matcher.CancelToken;
 import matcher.Matcher;
 import matcher.Util;
+import matcher.classifier.MatchingCache.CacheToken;
 import matcher.type.ClassEnvironment;
 import matcher.type.ClassInstance;
 import matcher.type.FieldInstance;
@@ -63,20 +68,43 @@ public class ClassClassifier {
 		}
 	}
 
+	public static boolean isApproximateSetScores() {
+		return approximateSetScores;
+	}
+
+	/**
+	 * Score large set comparisons by their MinHash estimate instead of exactly and prune candidates with estimated
+	 * bounds, trading accuracy for speed. Otherwise large sets only prune by their exact size bound.
+	 */
+	public static void setApproximateSetScores(boolean value) {
+		approximateSetScores = value;
+	}
+
 	public static double getMaxScore(ClassifierLevel level) {
 		return maxScore.getOrDefault(level, 0.);
 	}
 
 	public static List<RankResult<ClassInstance>> rank(ClassInstance src, ClassInstance[] dsts, ClassifierLevel level, ClassEnvironment env, double maxMismatch) {
-		return ClassifierUtil.rank(src, dsts, classifiers.getOrDefault(level, Collections.emptyList()), ClassifierUtil::checkPotentialEquality, env, maxMismatch);
+		return rank(src, dsts, level, env, maxMismatch, null);
+	}
+
+	public static List<RankResult<ClassInstance>> rank(ClassInstance src, ClassInstance[] dsts, ClassifierLevel level, ClassEnvironment env, double maxMismatch, CancelToken cancelToken) {
+		return ClassifierUtil.rank(src, dsts, classifiers.getOrDefault(level, Collections.emptyList()), ClassifierUtil::checkPotentialEquality, env, maxMismatch, cancelToken);
 	}
 
 	public static List<RankResult<ClassInstance>> rankParallel(ClassInstance src, ClassInstance[] dsts, ClassifierLevel level, ClassEnvironment env, double maxMismatch) {
 		return ClassifierUtil.rankParallel(src, dsts, classifiers.getOrDefault(level, Collections.emptyList()), ClassifierUtil::checkPotentialEquality, env, maxMismatch);
 	}
 
+	public static List<List<RankResult<ClassInstance>>> rankTiled(List<ClassInstance> srcs, ClassInstance[] dsts, ClassifierLevel level, ClassEnvironment env, double maxMismatch,
+			int maxResults, DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		return ClassifierUtil.rankTiled(srcs, dsts, classifiers.getOrDefault(level, Collections.emptyList()), ClassifierUtil::checkPotentialEquality, env, maxMismatch, maxResults, progressReceiver, cancelToken);
+	}
+
 	private static final Map<ClassifierLevel, List<IClassifier<ClassInstance>>> classifiers = new EnumMap<>(ClassifierLevel.class);
 	private static final Map<ClassifierLevel, Double> maxScore = new EnumMap<>(ClassifierLevel.class);
+	private static final double sketchBoundMargin = 0.2;
+	private static volatile boolean approximateSetScores;
 
 	private static AbstractClassifier classTypeCheck = new AbstractClassifier("class type check") {
 		@Override
@@ -259,15 +287,8 @@ public class ClassClassifier {
 		}
 	};
 
-	private static AbstractClassifier outReferences = new AbstractClassifier("out references") {
-		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
-			Set<ClassInstance> refsA = getOutRefs(clsA);
-			Set<ClassInstance> refsB = getOutRefs(clsB);
-
-			return ClassifierUtil.compareClassSets(refsA, refsB, false);
-		}
-	};
+	private static AbstractClassifier outReferences = new SetClassifier<>("out references",
+			ClassClassifier::getOutRefs, (refsA, refsB) -> ClassifierUtil.compareClassSets(refsA, refsB, false), MinHashSketch::ofMatchables);
 
 	private static Set<ClassInstance> getOutRefs(ClassInstance cls) {
 		Set<ClassInstance> ret = Util.newIdentityHashSet();
@@ -283,15 +304,8 @@ public class ClassClassifier {
 		return ret;
 	}
 
-	private static AbstractClassifier inReferences = new AbstractClassifier("in references") {
-		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
-			Set<ClassInstance> refsA = getInRefs(clsA);
-			Set<ClassInstance> refsB = getInRefs(clsB);
-
-			return ClassifierUtil.compareClassSets(refsA, refsB, false);
-		}
-	};
+	private static AbstractClassifier inReferences = new SetClassifier<>("in references",
+			ClassClassifier::getInRefs, (refsA, refsB) -> ClassifierUtil.compareClassSets(refsA, refsB, false), MinHashSketch::ofMatchables);
 
 	private static Set<ClassInstance> getInRefs(ClassInstance cls) {
 		Set<ClassInstance> ret = Util.newIdentityHashSet();
@@ -307,15 +321,8 @@ public class ClassClassifier {
 		return ret;
 	}
 
-	private static AbstractClassifier methodOutReferences = new AbstractClassifier("method out references") {
-		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
-			Set<MethodInstance> refsA = getMethodOutRefs(clsA);
-			Set<MethodInstance> refsB = getMethodOutRefs(clsB);
-
-			return ClassifierUtil.compareMethodSets(refsA, refsB, false);
-		}
-	};
+	private static AbstractClassifier methodOutReferences = new SetClassifier<>("method out references",
+			ClassClassifier::getMethodOutRefs, (refsA, refsB) -> ClassifierUtil.compareMethodSets(refsA, refsB, false), MinHashSketch::ofMatchables);
 
 	private static Set<MethodInstance> getMethodOutRefs(ClassInstance cls) {
 		Set<MethodInstance> ret = Util.newIdentityHashSet();
@@ -327,15 +334,8 @@ public class ClassClassifier {
 		return ret;
 	}
 
-	private static AbstractClassifier methodInReferences = new AbstractClassifier("method in references") {
-		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
-			Set<MethodInstance> refsA = getMethodInRefs(clsA);
-			Set<MethodInstance> refsB = getMethodInRefs(clsB);
-
-			return ClassifierUtil.compareMethodSets(refsA, refsB, false);
-		}
-	};
+	private static AbstractClassifier methodInReferences = new SetClassifier<>("method in references",
+			ClassClassifier::getMethodInRefs, (refsA, refsB) -> ClassifierUtil.compareMethodSets(refsA, refsB, false), MinHashSketch::ofMatchables);
 
 	private static Set<MethodInstance> getMethodInRefs(ClassInstance cls) {
 		Set<MethodInstance> ret = Util.newIdentityHashSet();
@@ -347,15 +347,8 @@ public class ClassClassifier {
 		return ret;
 	}
 
-	private static AbstractClassifier fieldReadReferences = new AbstractClassifier("field read references") {
-		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
-			Set<FieldInstance> refsA = getFieldReadRefs(clsA);
-			Set<FieldInstance> refsB = getFieldReadRefs(clsB);
-
-			return ClassifierUtil.compareFieldSets(refsA, refsB, false);
-		}
-	};
+	private static AbstractClassifier fieldReadReferences = new SetClassifier<>("field read references",
+			ClassClassifier::getFieldReadRefs, (refsA, refsB) -> ClassifierUtil.compareFieldSets(refsA, refsB, false), MinHashSketch::ofMatchables);
 
 	private static Set<FieldInstance> getFieldReadRefs(ClassInstance cls) {
 		Set<FieldInstance> ret = Util.newIdentityHashSet();
@@ -367,15 +360,8 @@ public class ClassClassifier {
 		return ret;
 	}
 
-	private static AbstractClassifier fieldWriteReferences = new AbstractClassifier("field write references") {
-		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
-			Set<FieldInstance> refsA = getFieldWriteRefs(clsA);
-			Set<FieldInstance> refsB = getFieldWriteRefs(clsB);
-
-			return ClassifierUtil.compareFieldSets(refsA, refsB, false);
-		}
-	};
+	private static AbstractClassifier fieldWriteReferences = new SetClassifier<>("field write references",
+			ClassClassifier::getFieldWriteRefs, (refsA, refsB) -> ClassifierUtil.compareFieldSets(refsA, refsB, false), MinHashSketch::ofMatchables);
 
 	private static Set<FieldInstance> getFieldWriteRefs(ClassInstance cls) {
 		Set<FieldInstance> ret = Util.newIdentityHashSet();
@@ -387,12 +373,8 @@ public class ClassClassifier {
 		return ret;
 	}
 
-	private static AbstractClassifier stringConstants = new AbstractClassifier("string constants") {
-		@Override
-		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
-			return ClassifierUtil.compareSets(clsA.getStrings(), clsB.getStrings(), true);
-		}
-	};
+	private static AbstractClassifier stringConstants = new SetClassifier<>("string constants",
+			ClassInstance::getStrings, (stringsA, stringsB) -> ClassifierUtil.compareSets(stringsA, stringsB, true), MinHashSketch::ofStrings);
 
 	private static AbstractClassifier numericConstants = new AbstractClassifier("numeric constants") {
 		@Override
@@ -550,4 +532,56 @@ public class ClassClassifier {
 		private final String name;
 		private double weight;
 	}
+
+	/**
+	 * Classifier comparing a set derived from each class, using MinHash sketches for a cheap score bound.
+	 */
+	private static final class SetClassifier<E> extends AbstractClassifier {
+		SetClassifier(String name, Function<ClassInstance, Set<E>> setProvider, ToDoubleBiFunction<Set<E>, Set<E>> comparator,
+				Function<Set<E>, MinHashSketch> sketcher) {
+			super(name);
+
+			this.setProvider = setProvider;
+			this.comparator = comparator;
+			this.sketcher = sketcher;
+		}
+
+		@Override
+		public double getScore(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
+			if (approximateSetScores) {
+				MinHashSketch sketchA = getSketch(clsA, env);
+				MinHashSketch sketchB = getSketch(clsB, env);
+
+				if (sketchA.isEstimate() || sketchB.isEstimate()) return sketchA.estimateScore(sketchB, 0);
+			}
+
+			return comparator.applyAsDouble(setProvider.apply(clsA), setProvider.apply(clsB));
+		}
+
+		@Override
+		public boolean hasScoreBound() {
+			return true;
+		}
+
+		@Override
+		public double getScoreBound(ClassInstance clsA, ClassInstance clsB, ClassEnvironment env) {
+			MinHashSketch sketchA = getSketch(clsA, env);
+			MinHashSketch sketchB = getSketch(clsB, env);
+
+			if (!sketchA.isEstimate() && !sketchB.isEstimate() || approximateSetScores) {
+				return sketchA.estimateScore(sketchB, sketchBoundMargin);
+			} else { // an estimated bound may undercut the exact score, only the sizes bound it reliably
+				return sketchA.getSizeBound(sketchB);
+			}
+		}
+
+		private MinHashSketch getSketch(ClassInstance cls, ClassEnvironment env) {
+			return env.getCache().compute(sketchToken, cls, c -> sketcher.apply(setProvider.apply(c)));
+		}
+
+		private final Function<ClassInstance, Set<E>> setProvider;
+		private final ToDoubleBiFunction<Set<E>, Set<E>> comparator;
+		private final Function<Set<E>, MinHashSketch> sketcher;
+		private final CacheToken<MinHashSketch> sketchToken = new CacheToken<>();
+	}
 }
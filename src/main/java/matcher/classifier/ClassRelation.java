@@ -0,0 +1,17 @@
+package matcher.classifier;
+
+/**
+ * Kind of relation between two classes, see {@link ClassifierUtil#forEachRelative}.
+ */
+public enum ClassRelation {
+	Super,
+	Child,
+	Interface,
+	Implementer,
+	Outer,
+	Inner,
+	RefOut, // classes referenced by the class' methods or field types
+	RefIn; // classes whose methods or field types reference the class
+
+	public static final ClassRelation[] ALL = values();
+}
@@ -3,17 +3,19 @@ package matcher.classifier;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
+import java.util.function.DoubleConsumer;
 import java.util.function.Function;
 import java.util.function.ToIntBiFunction;
 import java.util.function.ToIntFunction;
-import java.util.stream.Collectors;
 
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.MethodVisitor;
@@ -37,6 +39,7 @@ import org.objectweb.asm.tree.VarInsnNode;
 import org.objectweb.asm.util.Textifier;
 import org.objectweb.asm.util.TraceMethodVisitor;
 
+import matcher.CancelToken;
 import matcher.Matcher;
 import matcher.Util;
 import matcher.classifier.MatchingCache.CacheToken;
@@ -137,6 +140,58 @@ public class ClassifierUtil {
 		return true;
 	}
 
+	/**
+	 * Pass every class sharing a hierarchy, nesting or reference relation with cls to visitor, arrays resolved to
+	 * their element class. Classes may be reported more than once, cls itself is skipped.
+	 */
+	public static void forEachRelative(ClassInstance cls, BiConsumer<ClassRelation, ClassInstance> visitor) {
+		visitRelative(cls, ClassRelation.Super, cls.getSuperClass(), visitor);
+
+		for (ClassInstance c : cls.getChildClasses()) {
+			visitRelative(cls, ClassRelation.Child, c, visitor);
+		}
+
+		for (ClassInstance c : cls.getInterfaces()) {
+			visitRelative(cls, ClassRelation.Interface, c, visitor);
+		}
+
+		for (ClassInstance c : cls.getImplementers()) {
+			visitRelative(cls, ClassRelation.Implementer, c, visitor);
+		}
+
+		visitRelative(cls, ClassRelation.Outer, cls.getOuterClass(), visitor);
+
+		for (ClassInstance c : cls.getInnerClasses()) {
+			visitRelative(cls, ClassRelation.Inner, c, visitor);
+		}
+
+		for (MethodInstance method : cls.getMethods()) {
+			for (ClassInstance c : method.getClassRefs()) {
+				visitRelative(cls, ClassRelation.RefOut, c, visitor);
+			}
+		}
+
+		for (FieldInstance field : cls.getFields()) {
+			visitRelative(cls, ClassRelation.RefOut, field.getType(), visitor);
+		}
+
+		for (MethodInstance method : cls.getMethodTypeRefs()) {
+			visitRelative(cls, ClassRelation.RefIn, method.getCls(), visitor);
+		}
+
+		for (FieldInstance field : cls.getFieldTypeRefs()) {
+			visitRelative(cls, ClassRelation.RefIn, field.getCls(), visitor);
+		}
+	}
+
+	private static void visitRelative(ClassInstance cls, ClassRelation relation, ClassInstance relative, BiConsumer<ClassRelation, ClassInstance> visitor) {
+		if (relative == null) return;
+		if (relative.isArray()) relative = relative.getElementClass();
+		if (relative == cls) return;
+
+		visitor.accept(relation, relative);
+	}
+
 	public static boolean checkPotentialEqualityNullable(ClassInstance a, ClassInstance b) {
 		if (a == null && b == null) return true;
 		if (a == null || b == null) return false;
@@ -706,10 +761,19 @@ public class ClassifierUtil {
 	}
 
 	public static <T extends Matchable<T>> List<RankResult<T>> rank(T src, T[] dsts, Collection<IClassifier<T>> classifiers, BiPredicate<T, T> potentialEqualityCheck, ClassEnvironment env, double maxMismatch) {
+		return rank(src, dsts, classifiers, potentialEqualityCheck, env, maxMismatch, null);
+	}
+
+	public static <T extends Matchable<T>> List<RankResult<T>> rank(T src, T[] dsts, Collection<IClassifier<T>> classifiers, BiPredicate<T, T> potentialEqualityCheck, ClassEnvironment env, double maxMismatch,
+			CancelToken cancelToken) {
 		List<RankResult<T>> ret = new ArrayList<>(dsts.length);
 
-		for (T dst : dsts) {
-			RankResult<T> result = rank(src, dst, classifiers, potentialEqualityCheck, env, maxMismatch);
+		for (int i = 0; i < dsts.length; i++) {
+			if (cancelToken != null && (i & (cancelCheckInterval - 1)) == 0 && cancelToken.isStopped()) {
+				return Collections.emptyList(); // a partial ranking may yield a wrong best match
+			}
+
+			RankResult<T> result = rank(src, dsts[i], classifiers, potentialEqualityCheck, env, maxMismatch);
 			if (result != null) ret.add(result);
 		}
 
@@ -719,12 +783,105 @@ public class ClassifierUtil {
 	}
 
 	public static <T extends Matchable<T>> List<RankResult<T>> rankParallel(T src, T[] dsts, Collection<IClassifier<T>> classifiers, BiPredicate<T, T> potentialEqualityCheck, ClassEnvironment env, double maxMismatch) {
-		return Arrays.stream(dsts)
-				.parallel()
-				.map(dst -> rank(src, dst, classifiers, potentialEqualityCheck, env, maxMismatch))
-				.filter(Objects::nonNull)
-				.sorted(Comparator.<RankResult<T>, Double>comparing(RankResult::getScore).reversed())
-				.collect(Collectors.toList());
+		return rankTiled(Collections.singletonList(src), dsts, classifiers, potentialEqualityCheck, env, maxMismatch, Integer.MAX_VALUE, ignore -> { }, null).get(0);
+	}
+
+	/**
+	 * Rank all srcs against dsts in parallel, returning the best maxResults results for each src in srcs order.
+	 *
+	 * <p>The src x dst matrix is split into tiles processed as a whole by a single thread so the involved
+	 * classifier inputs stay cached. The tile size adapts to keep all threads busy for a few srcs or a few dsts.
+	 * Srcs not fully ranked due to cancellation get an empty ranking.
+	 */
+	public static <T extends Matchable<T>> List<List<RankResult<T>>> rankTiled(List<T> srcs, T[] dsts, Collection<IClassifier<T>> classifiers, BiPredicate<T, T> potentialEqualityCheck, ClassEnvironment env, double maxMismatch,
+			int maxResults, DoubleConsumer progressReceiver, CancelToken cancelToken) {
+		final int srcCount = srcs.size();
+		final int dstCount = dsts.length;
+		List<List<RankResult<T>>> ret = new ArrayList<>(srcCount);
+
+		for (int i = 0; i < srcCount; i++) {
+			ret.add(new ArrayList<>());
+		}
+
+		if (srcCount == 0 || dstCount == 0) return ret;
+
+		// size tiles to yield at least minTiles tiles if possible, preferring wide dst tiles
+		int minTiles = Runtime.getRuntime().availableProcessors() * tilesPerThread;
+		int dstTileSize = Math.max(1, Math.min(maxTileSize, ceilDiv(dstCount, Math.max(1, minTiles / srcCount))));
+		int dstTiles = ceilDiv(dstCount, dstTileSize);
+		int srcTileSize = Math.max(1, Math.min(maxTileSize, ceilDiv(srcCount, ceilDiv(minTiles, dstTiles))));
+		List<int[]> tiles = new ArrayList<>(ceilDiv(srcCount, srcTileSize) * dstTiles);
+
+		for (int srcStart = 0; srcStart < srcCount; srcStart += srcTileSize) {
+			for (int dstStart = 0; dstStart < dstCount; dstStart += dstTileSize) {
+				tiles.add(new int[] { srcStart, Math.min(srcStart + srcTileSize, srcCount), dstStart, Math.min(dstStart + dstTileSize, dstCount) });
+			}
+		}
+
+		boolean[] incomplete = new boolean[srcCount];
+
+		Matcher.runInParallel(tiles, tile -> {
+			for (int srcIdx = tile[0]; srcIdx < tile[1]; srcIdx++) {
+				if (cancelToken != null && cancelToken.isStopped()) {
+					for (int i = srcIdx; i < tile[1]; i++) {
+						incomplete[i] = true; // racy but only ever set to true, read after all tiles completed
+					}
+
+					return;
+				}
+
+				T src = srcs.get(srcIdx);
+				List<RankResult<T>> results = null;
+
+				for (int dstIdx = tile[2]; dstIdx < tile[3]; dstIdx++) {
+					RankResult<T> result = rank(src, dsts[dstIdx], classifiers, potentialEqualityCheck, env, maxMismatch);
+					if (result == null) continue;
+
+					if (results == null) results = new ArrayList<>();
+					addResult(results, result, maxResults);
+				}
+
+				if (results != null) {
+					List<RankResult<T>> out = ret.get(srcIdx);
+
+					synchronized (out) {
+						for (RankResult<T> result : results) {
+							addResult(out, result, maxResults);
+						}
+					}
+				}
+			}
+		}, progressReceiver, null);
+
+		for (int i = 0; i < srcCount; i++) {
+			if (incomplete[i]) {
+				ret.set(i, Collections.emptyList()); // a partial ranking may yield a wrong best match
+			} else {
+				ret.get(i).sort(Comparator.<RankResult<T>, Double>comparing(RankResult::getScore).reversed());
+			}
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Add result to results, dropping the worst result if there are more than maxResults afterwards.
+	 */
+	private static <T> void addResult(List<RankResult<T>> results, RankResult<T> result, int maxResults) {
+		results.add(result);
+		if (results.size() <= maxResults) return;
+
+		int worst = 0;
+
+		for (int i = 1; i < results.size(); i++) {
+			if (results.get(i).getScore() < results.get(worst).getScore()) worst = i;
+		}
+
+		results.remove(worst);
+	}
+
+	private static int ceilDiv(int a, int b) {
+		return (a + b - 1) / b;
 	}
 
 	private static <T extends Matchable<T>> RankResult<T> rank(T src, T dst, Collection<IClassifier<T>> classifiers, BiPredicate<T, T> potentialEqualityCheck, ClassEnvironment env, double maxMismatch) {
@@ -734,9 +891,16 @@ public class ClassifierUtil {
 
 		double score = 0;
 		double mismatch = 0;
+		boolean bounded = maxMismatch == Double.POSITIVE_INFINITY;
 		List<ClassifierResult<T>> results = new ArrayList<>(classifiers.size());
 
 		for (IClassifier<T> classifier : classifiers) {
+			if (!bounded && classifier.hasScoreBound()) {
+				// check the cheap bounds of this and all following classifiers before computing their actual scores
+				if (mismatch + getMismatchBound(src, dst, classifiers, results.size(), env) >= maxMismatch) return null;
+				bounded = true;
+			}
+
 			double cScore = classifier.getScore(src, dst, env);
 			assert cScore > -epsilon && cScore < 1 + epsilon : "invalid score from "+classifier.getName()+": "+cScore;
 
@@ -753,6 +917,19 @@ public class ClassifierUtil {
 		return new RankResult<>(dst, score, results);
 	}
 
+	private static <T> double getMismatchBound(T src, T dst, Collection<IClassifier<T>> classifiers, int start, ClassEnvironment env) {
+		double ret = 0;
+		int idx = 0;
+
+		for (IClassifier<T> classifier : classifiers) {
+			if (idx++ >= start && classifier.hasScoreBound()) {
+				ret += classifier.getWeight() * (1 - classifier.getScoreBound(src, dst, env));
+			}
+		}
+
+		return ret;
+	}
+
 	public static void extractStrings(InsnList il, Set<String> out) {
 		extractStrings(il.iterator(), out);
 	}
@@ -871,6 +1048,9 @@ public class ClassifierUtil {
 	}
 
 	private static final double epsilon = 1e-6;
+	private static final int cancelCheckInterval = 32; // power of 2
+	private static final int tilesPerThread = 4;
+	private static final int maxTileSize = 64;
 
 	private static final CacheToken<int[]> ilMapCacheToken = new CacheToken<>();
 }
@@ -6,4 +6,15 @@ public interface IClassifier<T> {
 	String getName();
 	double getWeight();
 	double getScore(T a, T b, ClassEnvironment env);
+
+	default boolean hasScoreBound() {
+		return false;
+	}
+
+	/**
+	 * Get a cheap, likely upper bound of getScore's result, allowing to skip hopeless candidates early.
+	 */
+	default double getScoreBound(T a, T b, ClassEnvironment env) {
+		return 1;
+	}
 }
@@ -3,6 +3,7 @@ package matcher.classifier;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import matcher.type.Matchable;
 
@@ -17,6 +18,14 @@ public class MatchingCache {
 		return (T) cache.computeIfAbsent(new CacheKey<U>(token, a, b), k -> f.apply((U) k.a, (U) k.b));
 	}
 
+	/**
+	 * Compute a value depending on a alone.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T, U extends Matchable<U>> T compute(CacheToken<T> token, U a, Function<U, T> f) {
+		return (T) cache.computeIfAbsent(new CacheKey<U>(token, a, a), k -> f.apply((U) k.a));
+	}
+
 	public void clear() {
 		cache.clear();
 	}
@@ -32,7 +41,7 @@ public class MatchingCache {
 
 		@Override
 		public int hashCode() {
-			return token.hashCode() ^ a.hashCode() ^ b.hashCode();
+			return (token.hashCode() * 31 + a.hashCode()) * 31 + b.hashCode(); // not xor, a and b may be the same
 		}
 
 		@Override
@@ -0,0 +1,286 @@
+package matcher.classifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import matcher.type.ClassEnv;
+import matcher.type.ClassInstance;
+import matcher.type.MethodInstance;
+
+/**
+ * Index of the input methods of one side by a match independent fingerprint of their code.
+ *
+ * <p>A fingerprint consists of the hash of the whole normalized instruction sequence for exact lookups and a set of
+ * features for near-duplicate lookups: hashes of opcode shingles and of the constants used. Obfuscated references
+ * only contribute their opcode, so the fingerprints stay valid regardless of names and matches.
+ */
+public final class MethodFingerprintIndex {
+	public static MethodFingerprintIndex build(Collection<ClassInstance> classes) {
+		List<MethodInstance> methods = new ArrayList<>();
+		List<Fingerprint> fingerprints = new ArrayList<>();
+
+		for (ClassInstance cls : classes) {
+			if (!cls.isInput() || !cls.isReal()) continue;
+
+			for (MethodInstance method : cls.getMethods()) {
+				Fingerprint fingerprint = compute(method);
+				if (fingerprint == null) continue;
+
+				methods.add(method);
+				fingerprints.add(fingerprint);
+			}
+		}
+
+		return new MethodFingerprintIndex(methods, fingerprints);
+	}
+
+	private MethodFingerprintIndex(List<MethodInstance> methods, List<Fingerprint> fingerprints) {
+		this.methods = methods.toArray(new MethodInstance[0]);
+		this.fingerprints = fingerprints.toArray(new Fingerprint[0]);
+
+		Map<Long, List<Integer>> postingLists = new HashMap<>();
+
+		for (int i = 0; i < this.fingerprints.length; i++) {
+			Fingerprint fingerprint = this.fingerprints[i];
+
+			exact.computeIfAbsent(fingerprint.exact, ignore -> new ArrayList<>(1)).add(this.methods[i]);
+
+			for (long feature : fingerprint.features) {
+				postingLists.computeIfAbsent(feature, ignore -> new ArrayList<>()).add(i);
+			}
+		}
+
+		// features shared by too many methods aren't distinctive and only make near lookups slow
+		int maxPostings = Math.max(minMaxPostings, this.methods.length / 100);
+
+		for (Map.Entry<Long, List<Integer>> entry : postingLists.entrySet()) {
+			List<Integer> list = entry.getValue();
+
+			if (list.size() > maxPostings) {
+				stopFeatures.add(entry.getKey());
+				continue;
+			}
+
+			int[] postingArray = new int[list.size()];
+
+			for (int i = 0; i < postingArray.length; i++) {
+				postingArray[i] = list.get(i);
+			}
+
+			postings.put(entry.getKey(), postingArray);
+		}
+	}
+
+	public int size() {
+		return methods.length;
+	}
+
+	/**
+	 * Get the indexed methods with exactly the same normalized code as the fingerprinted method.
+	 */
+	public List<MethodInstance> getExact(Fingerprint fingerprint) {
+		return Collections.unmodifiableList(exact.getOrDefault(fingerprint.exact, Collections.emptyList()));
+	}
+
+	/**
+	 * Get the indexed methods whose code features overlap with the fingerprinted method's by at least minSimilarity,
+	 * best first.
+	 *
+	 * <p>The similarity is the Jaccard index of the distinctive feature sets.
+	 */
+	public List<RankResult<MethodInstance>> getSimilar(Fingerprint fingerprint, double minSimilarity, int maxResults) {
+		int size = 0;
+		Map<Integer, Integer> shared = new HashMap<>();
+
+		for (long feature : fingerprint.features) {
+			int[] postingArray = postings.get(feature);
+			if (postingArray == null && stopFeatures.contains(feature)) continue;
+
+			size++;
+			if (postingArray == null) continue;
+
+			for (int idx : postingArray) {
+				shared.merge(idx, 1, Integer::sum);
+			}
+		}
+
+		List<RankResult<MethodInstance>> ret = new ArrayList<>();
+
+		for (Map.Entry<Integer, Integer> entry : shared.entrySet()) {
+			int idx = entry.getKey();
+			int count = entry.getValue();
+			double similarity = (double) count / (size + getDistinctiveSize(idx) - count);
+
+			if (similarity >= minSimilarity) ret.add(new RankResult<>(methods[idx], similarity, Collections.emptyList()));
+		}
+
+		ret.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+
+		return ret.size() > maxResults ? ret.subList(0, maxResults) : ret;
+	}
+
+	private int getDistinctiveSize(int idx) {
+		Fingerprint fingerprint = fingerprints[idx];
+
+		if (fingerprint.distinctiveSize < 0) {
+			int size = 0;
+
+			for (long feature : fingerprint.features) {
+				if (postings.containsKey(feature)) size++;
+			}
+
+			fingerprint.distinctiveSize = size;
+		}
+
+		return fingerprint.distinctiveSize;
+	}
+
+	/**
+	 * Compute the fingerprint of method, null if it has no code worth indexing.
+	 */
+	public static Fingerprint compute(MethodInstance method) {
+		MethodNode asmNode = method.getAsmNode();
+		if (asmNode == null || !method.isReal()) return null;
+
+		ClassEnv env = method.getCls().getEnv();
+		long[] tokens = new long[asmNode.instructions.size()];
+		int tokenCount = 0;
+		List<Long> features = new ArrayList<>();
+
+		for (AbstractInsnNode insn : asmNode.instructions) {
+			if (insn.getOpcode() < 0) continue; // labels, line numbers and frames
+
+			long token = insn.getOpcode();
+			long operand = getOperandHash(insn, env);
+
+			if (operand != 0) {
+				token = token * prime + operand;
+
+				if (insn.getType() == AbstractInsnNode.LDC_INSN || insn.getType() == AbstractInsnNode.INT_INSN) {
+					features.add(operand);
+				}
+			}
+
+			tokens[tokenCount++] = token;
+		}
+
+		if (tokenCount < minInsns) return null;
+
+		long exact = tokenCount;
+
+		for (int i = 0; i < tokenCount; i++) {
+			exact = exact * prime + tokens[i];
+		}
+
+		for (int i = 0; i + shingleSize <= tokenCount; i++) {
+			long shingle = 0;
+
+			for (int j = 0; j < shingleSize; j++) {
+				shingle = shingle * prime + tokens[i + j];
+			}
+
+			features.add(shingle);
+		}
+
+		long[] featureArray = features.stream().mapToLong(Long::longValue).sorted().distinct().toArray();
+
+		return new Fingerprint(exact, featureArray);
+	}
+
+	/**
+	 * Hash the operand of insn if it doesn't depend on names that may be obfuscated, 0 otherwise.
+	 */
+	private static long getOperandHash(AbstractInsnNode insn, ClassEnv env) {
+		switch (insn.getType()) {
+		case AbstractInsnNode.INT_INSN:
+			return (((IntInsnNode) insn).operand & 0xffffffffL) | 1L << 40;
+		case AbstractInsnNode.IINC_INSN:
+			return (((IincInsnNode) insn).incr & 0xffffffffL) | 1L << 41;
+		case AbstractInsnNode.LDC_INSN: {
+			Object cst = ((LdcInsnNode) insn).cst;
+			if (cst instanceof Type) return 0;
+
+			return (cst.getClass().getName().hashCode() * prime) ^ hash(cst.toString());
+		}
+		case AbstractInsnNode.TYPE_INSN:
+			return getClassHash(((TypeInsnNode) insn).desc, env);
+		case AbstractInsnNode.FIELD_INSN: {
+			FieldInsnNode in = (FieldInsnNode) insn;
+			long owner = getClassHash(in.owner, env);
+
+			return owner != 0 ? owner * prime ^ hash(in.name) : 0;
+		}
+		case AbstractInsnNode.METHOD_INSN: {
+			MethodInsnNode in = (MethodInsnNode) insn;
+			long owner = getClassHash(in.owner, env);
+
+			return owner != 0 ? owner * prime ^ hash(in.name) : 0;
+		}
+		default:
+			return 0;
+		}
+	}
+
+	private static long getClassHash(String name, ClassEnv env) {
+		if (name.startsWith("[")) return 0;
+
+		ClassInstance cls = env.getClsByName(name);
+		if (cls == null || cls.isInput() && cls.isNameObfuscated()) return 0;
+
+		return hash(name);
+	}
+
+	private static long hash(String str) {
+		long ret = 0xcbf29ce484222325L;
+
+		for (int i = 0, max = str.length(); i < max; i++) {
+			ret = (ret ^ str.charAt(i)) * prime;
+		}
+
+		return ret;
+	}
+
+	public static final class Fingerprint {
+		Fingerprint(long exact, long[] features) {
+			this.exact = exact;
+			this.features = features;
+		}
+
+		@Override
+		public String toString() {
+			return Long.toHexString(exact)+" "+Arrays.toString(features);
+		}
+
+		final long exact;
+		final long[] features;
+		int distinctiveSize = -1;
+	}
+
+	private static final int minInsns = 8;
+	private static final int shingleSize = 4;
+	private static final int minMaxPostings = 50;
+	private static final long prime = 0x100000001b3L;
+
+	private final MethodInstance[] methods;
+	private final Fingerprint[] fingerprints;
+	private final Map<Long, List<MethodInstance>> exact = new HashMap<>();
+	private final Map<Long, int[]> postings = new HashMap<>();
+	private final Set<Long> stopFeatures = new HashSet<>();
+}
@@ -0,0 +1,211 @@
+package matcher.classifier;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import matcher.type.ClassEnv;
+import matcher.type.ClassInstance;
+import matcher.type.Matchable;
+
+/**
+ * Bottom-k MinHash sketch of a set, estimating the set classifier scores of two sets in O(k).
+ *
+ * <p>Matchable elements are sketched by their match-canonical id: the B side id if matched or the own id if not
+ * obfuscated. Unmatched obfuscated elements may still compare equal to anything unmatched on the other side, they
+ * are only counted as wildcards. Sets with at most k canonical elements are represented exactly.
+ */
+public final class MinHashSketch {
+	public static MinHashSketch ofStrings(Collection<String> strings) {
+		long[] hashes = new long[strings.size()];
+		int count = 0;
+
+		for (String str : strings) {
+			hashes[count++] = hash(str);
+		}
+
+		return create(hashes, count, 0, false);
+	}
+
+	public static MinHashSketch ofMatchables(Collection<? extends Matchable<?>> items) {
+		long[] hashes = new long[items.size()];
+		int count = 0;
+		int wildcards = 0;
+
+		for (Matchable<?> item : items) {
+			String id = getCanonicalId(item);
+
+			if (id == null) {
+				wildcards++;
+			} else {
+				hashes[count++] = hash(id);
+			}
+		}
+
+		return create(hashes, count, wildcards, true);
+	}
+
+	private static MinHashSketch create(long[] hashes, int count, int wildcards, boolean identity) {
+		Arrays.sort(hashes, 0, count);
+
+		int size = 0;
+
+		for (int i = 0; i < count; i++) {
+			if (size == 0 || hashes[i] != hashes[size - 1]) hashes[size++] = hashes[i];
+		}
+
+		return new MinHashSketch(Arrays.copyOf(hashes, Math.min(size, k)), size, wildcards, identity);
+	}
+
+	private MinHashSketch(long[] mins, int size, int wildcards, boolean identity) {
+		this.mins = mins;
+		this.size = size;
+		this.wildcards = wildcards;
+		this.identity = identity;
+	}
+
+	/**
+	 * Whether the sketch only approximates its set.
+	 */
+	public boolean isEstimate() {
+		return size > k;
+	}
+
+	/**
+	 * Get an upper bound for the score of the exact set comparison from the set sizes alone, never undercutting it.
+	 *
+	 * <p>Identity sets may match multiple elements to the same counterpart, their sizes don't bound the score.
+	 */
+	public double getSizeBound(MinHashSketch o) {
+		if (identity || size == 0 && o.size == 0) return 1;
+
+		return (double) Math.min(size, o.size) / Math.max(size, o.size);
+	}
+
+	/**
+	 * Estimate the score the exact set comparison of both sketched sets would yield.
+	 *
+	 * <p>A positive margin is added to the estimated Jaccard index, yielding a likely upper bound instead.
+	 */
+	public double estimateScore(MinHashSketch o, double margin) {
+		if (identity) {
+			return estimateIdentitySetScore(o, margin);
+		} else {
+			return estimateSetScore(o, margin);
+		}
+	}
+
+	/**
+	 * Estimate ClassifierUtil.compareSets' result.
+	 */
+	private double estimateSetScore(MinHashSketch o, double margin) {
+		if (size == 0 && o.size == 0) return 1;
+
+		double intersection = estimateIntersection(o, margin);
+
+		return intersection / (size + o.size - intersection);
+	}
+
+	/**
+	 * Estimate ClassifierUtil.compareIdentitySets' result, optimistically assuming that wildcards find a counterpart.
+	 */
+	private double estimateIdentitySetScore(MinHashSketch o, double margin) {
+		int sizeA = size + wildcards;
+		int sizeB = o.size + o.wildcards;
+
+		if (sizeA == 0 || sizeB == 0) {
+			return sizeA == 0 && sizeB == 0 ? 1 : 0;
+		}
+
+		double intersection = estimateIntersection(o, margin);
+		double foundA = intersection
+				+ (o.wildcards > 0 ? size - intersection : 0)
+				+ (sizeB - intersection > 0 ? wildcards : 0);
+		double foundB = intersection
+				+ (wildcards > 0 ? o.size - intersection : 0)
+				+ (sizeA - intersection > 0 ? o.wildcards : 0);
+
+		return Math.min(1, (foundA + foundB) / (sizeA + sizeB));
+	}
+
+	private double estimateIntersection(MinHashSketch o, double margin) {
+		int picked = 0;
+		int shared = 0;
+		int i = 0;
+		int j = 0;
+
+		// walk the k smallest hashes of the union, those in both sketches are in the intersection
+		while (picked < k && (i < mins.length || j < o.mins.length)) {
+			if (j >= o.mins.length || i < mins.length && mins[i] < o.mins[j]) {
+				i++;
+			} else if (i >= mins.length || o.mins[j] < mins[i]) {
+				j++;
+			} else {
+				shared++;
+				i++;
+				j++;
+			}
+
+			picked++;
+		}
+
+		if (!isEstimate() && !o.isEstimate()) return shared;
+		if (picked == 0) return 0;
+
+		double jaccard = Math.min(1, (double) shared / picked + margin);
+
+		return Math.min(Math.min(size, o.size), jaccard * (size + o.size) / (1 + jaccard));
+	}
+
+	/**
+	 * Get the id item and its counterpart share, null if there's none yet.
+	 */
+	static String getCanonicalId(Matchable<?> item) {
+		String ownerId;
+
+		if (item.getOwner() == null) {
+			ownerId = null;
+		} else {
+			ownerId = getCanonicalId(item.getOwner());
+			if (ownerId == null) return null;
+		}
+
+		String id;
+
+		if (item instanceof ClassInstance && ((ClassInstance) item).isShared()) {
+			id = item.getId();
+		} else if (item.getMatch() != null) {
+			id = isSideA(item.getEnv()) ? item.getMatch().getId() : item.getId();
+		} else if (!item.isNameObfuscated()) {
+			id = item.getId();
+		} else {
+			return null;
+		}
+
+		return ownerId != null ? ownerId+"/"+id : id;
+	}
+
+	private static boolean isSideA(ClassEnv env) {
+		return !env.isShared() && env == env.getGlobal().getEnvA();
+	}
+
+	private static long hash(String str) {
+		long ret = 0xcbf29ce484222325L;
+
+		for (int i = 0, max = str.length(); i < max; i++) {
+			ret = (ret ^ str.charAt(i)) * 0x100000001b3L;
+		}
+
+		// finalize to spread FNV's weak low bits over the whole value, the sketch relies on uniform ordering
+		ret = (ret ^ ret >>> 33) * 0xff51afd7ed558ccdL;
+		ret = (ret ^ ret >>> 33) * 0xc4ceb9fe1a85ec53L;
+
+		return ret ^ ret >>> 33;
+	}
+
+	private static final int k = 128;
+
+	private final long[] mins;
+	private final int size;
+	private final int wildcards;
+	private final boolean identity;
+}
@@ -0,0 +1,215 @@
+package matcher.classifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import matcher.Matcher;
+import matcher.Util;
+import matcher.type.ClassInstance;
+import matcher.type.FieldInstance;
+import matcher.type.MethodInstance;
+
+/**
+ * Pairing of the A and B side packages by features aggregated over their input classes.
+ *
+ * <p>A package is described by its class count, the union of its classes' strings, the number of classes it
+ * references in other packages and the canonical ids of its matched or unobfuscated classes and their references
+ * outside the package. Packages are paired if they are each other's best counterpart, or have the same name and
+ * contain unobfuscated classes on both sides.
+ */
+public final class PackageClusters {
+	/**
+	 * Pair the packages of the input classes in classesA and classesB, mapping A package names to B package names.
+	 */
+	public static Map<String, String> matchPackages(Collection<ClassInstance> classesA, Collection<ClassInstance> classesB, double minScore) {
+		List<Cluster> clustersA = gatherClusters(classesA);
+		List<Cluster> clustersB = gatherClusters(classesB);
+		Map<String, String> ret = new HashMap<>();
+		Set<String> namesB = new HashSet<>();
+
+		for (Cluster cluster : clustersB) {
+			if (!cluster.nameObfuscated) namesB.add(cluster.name);
+		}
+
+		// packages with unobfuscated classes on both sides are paired by name directly
+		List<Cluster> remainingA = new ArrayList<>();
+		Set<String> pairedB = new HashSet<>();
+
+		for (Cluster cluster : clustersA) {
+			if (!cluster.nameObfuscated && namesB.contains(cluster.name)) {
+				ret.put(cluster.name, cluster.name);
+				pairedB.add(cluster.name);
+			} else {
+				remainingA.add(cluster);
+			}
+		}
+
+		List<Cluster> remainingB = new ArrayList<>();
+
+		for (Cluster cluster : clustersB) {
+			if (!pairedB.contains(cluster.name)) remainingB.add(cluster);
+		}
+
+		if (remainingA.isEmpty() || remainingB.isEmpty()) return ret;
+
+		double[][] scores = new double[remainingA.size()][];
+		List<Integer> indices = new ArrayList<>(remainingA.size());
+
+		for (int i = 0; i < remainingA.size(); i++) {
+			indices.add(i);
+		}
+
+		Matcher.runInParallel(indices, i -> {
+			Cluster a = remainingA.get(i);
+			double[] row = new double[remainingB.size()];
+
+			for (int j = 0; j < row.length; j++) {
+				row[j] = a.compare(remainingB.get(j));
+			}
+
+			scores[i] = row;
+		}, progress -> { });
+
+		int[] bestB = new int[remainingB.size()];
+		double[] bestBScore = new double[remainingB.size()];
+
+		for (int j = 0; j < bestB.length; j++) {
+			bestB[j] = -1;
+
+			for (int i = 0; i < scores.length; i++) {
+				if (bestB[j] < 0 || scores[i][j] > bestBScore[j]) {
+					bestB[j] = i;
+					bestBScore[j] = scores[i][j];
+				}
+			}
+		}
+
+		for (int i = 0; i < scores.length; i++) {
+			int best = -1;
+
+			for (int j = 0; j < scores[i].length; j++) {
+				if (best < 0 || scores[i][j] > scores[i][best]) best = j;
+			}
+
+			if (scores[i][best] >= minScore && bestB[best] == i) {
+				ret.put(remainingA.get(i).name, remainingB.get(best).name);
+			}
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Get the package name of cls, the empty string for the default package.
+	 */
+	public static String getPackage(ClassInstance cls) {
+		String ret = ClassInstance.getPackageName(cls.getName());
+
+		return ret != null ? ret : "";
+	}
+
+	private static List<Cluster> gatherClusters(Collection<ClassInstance> classes) {
+		Map<String, List<ClassInstance>> packages = new HashMap<>();
+
+		for (ClassInstance cls : classes) {
+			if (cls.isReal() && cls.isInput()) packages.computeIfAbsent(getPackage(cls), ignore -> new ArrayList<>()).add(cls);
+		}
+
+		List<Cluster> ret = new ArrayList<>(packages.size());
+
+		for (Map.Entry<String, List<ClassInstance>> entry : packages.entrySet()) {
+			ret.add(new Cluster(entry.getKey(), entry.getValue()));
+		}
+
+		return ret;
+	}
+
+	private static final class Cluster {
+		Cluster(String name, List<ClassInstance> classes) {
+			this.name = name;
+			this.classCount = classes.size();
+
+			Set<String> strings = new HashSet<>();
+			Set<String> anchors = new HashSet<>();
+			Set<ClassInstance> refs = Util.newIdentityHashSet();
+			boolean nameObfuscated = true;
+
+			for (ClassInstance cls : classes) {
+				strings.addAll(cls.getStrings());
+				if (!cls.isNameObfuscated()) nameObfuscated = false;
+
+				String id = MinHashSketch.getCanonicalId(cls);
+				if (id != null) anchors.add(id);
+
+				addRef(cls.getSuperClass(), refs);
+
+				for (ClassInstance iface : cls.getInterfaces()) {
+					addRef(iface, refs);
+				}
+
+				for (MethodInstance method : cls.getMethods()) {
+					for (ClassInstance ref : method.getClassRefs()) {
+						addRef(ref, refs);
+					}
+				}
+
+				for (FieldInstance field : cls.getFields()) {
+					addRef(field.getType(), refs);
+				}
+			}
+
+			int crossRefs = 0;
+
+			for (ClassInstance ref : refs) {
+				if (ref.isInput()) crossRefs++;
+
+				String id = MinHashSketch.getCanonicalId(ref);
+				if (id != null) anchors.add("->".concat(id));
+			}
+
+			this.nameObfuscated = nameObfuscated;
+			this.crossRefs = crossRefs;
+			this.strings = strings.isEmpty() ? null : MinHashSketch.ofStrings(strings);
+			this.anchors = anchors.isEmpty() ? null : MinHashSketch.ofStrings(anchors);
+		}
+
+		private void addRef(ClassInstance cls, Set<ClassInstance> out) {
+			if (cls == null) return;
+			if (cls.isArray()) cls = cls.getElementClass();
+			if (cls.isPrimitive() || getPackage(cls).equals(name)) return;
+
+			out.add(cls);
+		}
+
+		double compare(Cluster o) {
+			double score = ClassifierUtil.compareCounts(classCount, o.classCount) + ClassifierUtil.compareCounts(crossRefs, o.crossRefs);
+			int weight = 2;
+
+			if (strings != null || o.strings != null) {
+				score += strings != null && o.strings != null ? strings.estimateScore(o.strings, 0) : 0;
+				weight++;
+			}
+
+			if (anchors != null || o.anchors != null) {
+				score += anchors != null && o.anchors != null ? anchorWeight * anchors.estimateScore(o.anchors, 0) : 0;
+				weight += anchorWeight;
+			}
+
+			return score / weight;
+		}
+
+		private static final int anchorWeight = 2;
+
+		final String name;
+		final boolean nameObfuscated;
+		final int classCount;
+		final int crossRefs;
+		final MinHashSketch strings;
+		final MinHashSketch anchors;
+	}
+}
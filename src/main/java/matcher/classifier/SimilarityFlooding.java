@@ -0,0 +1,298 @@
+package matcher.classifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import matcher.CancelToken;
+import matcher.Matcher;
+import matcher.Util;
+import matcher.type.ClassEnvironment;
+import matcher.type.ClassInstance;
+
+/**
+ * Similarity flooding over the class relation graph, spreading the evidence of existing class matches to the pairs of
+ * their unmatched relatives and onwards.
+ *
+ * <p>The graph's nodes are potentially equal class pairs reachable from the matched classes through equally labeled
+ * relations on both sides (hierarchy, nesting and references). Each iteration adds every node's score to its
+ * neighbors, weighted by the inverse number of neighbors sharing the relation, and normalizes the result. The
+ * propagation matrix is stored as primitive arrays in compressed sparse row form, indexed by target node so the
+ * iterations can process node ranges in parallel without synchronization.
+ */
+public final class SimilarityFlooding {
+	public static SimilarityFlooding run(ClassEnvironment env, Predicate<ClassInstance> filter, CancelToken cancelToken) {
+		SimilarityFlooding ret = new SimilarityFlooding(filter);
+
+		for (ClassInstance cls : env.getClassesA()) {
+			if (cls.isReal() && cls.hasMatch() && !cls.isShared()) ret.getNode(cls, cls.getMatch(), true, 0);
+		}
+
+		ret.buildGraph();
+		ret.iterate(cancelToken);
+
+		return ret;
+	}
+
+	private SimilarityFlooding(Predicate<ClassInstance> filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Get the unmatched B side classes with a flooding score of at least minRelScore times the best one for clsA, best
+	 * first.
+	 */
+	public List<RankResult<ClassInstance>> getCandidates(ClassInstance clsA, double minRelScore, int maxCount) {
+		List<Integer> nodes = nodesByA.get(clsA);
+		if (nodes == null) return Collections.emptyList();
+
+		List<RankResult<ClassInstance>> ret = new ArrayList<>(nodes.size());
+
+		for (int node : nodes) {
+			if (scores[node] > 0) ret.add(new RankResult<>(nodeB.get(node), scores[node], Collections.emptyList()));
+		}
+
+		if (ret.isEmpty()) return ret;
+
+		ret.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+		double minScore = ret.get(0).getScore() * minRelScore;
+		int count = 0;
+
+		while (count < ret.size() && count < maxCount && ret.get(count).getScore() >= minScore) {
+			count++;
+		}
+
+		return ret.subList(0, count);
+	}
+
+	/**
+	 * Get the unmatched A side class with the best flooding score for clsB, null if there is none.
+	 */
+	public ClassInstance getBestCounterpart(ClassInstance clsB) {
+		return bestByB.get(clsB);
+	}
+
+	private int getNode(ClassInstance a, ClassInstance b, boolean anchor, int depth) {
+		long key = (long) getIndex(a) << 32 | getIndex(b) & 0xffffffffL;
+		Integer ret = nodeIndex.get(key);
+		if (ret != null) return ret;
+
+		ret = nodeA.size();
+		nodeIndex.put(key, ret);
+		nodeA.add(a);
+		nodeB.add(b);
+		nodeDepth.add(anchor ? -1 : depth);
+
+		if (!anchor) nodesByA.computeIfAbsent(a, ignore -> new ArrayList<>()).add(ret);
+
+		return ret;
+	}
+
+	private int getIndex(ClassInstance cls) {
+		return classIndex.computeIfAbsent(cls, ignore -> classIndex.size());
+	}
+
+	/**
+	 * Expand the graph breadth first from the anchors, collecting the edges by target node.
+	 */
+	private void buildGraph() {
+		IntList edgeSrc = new IntList();
+		IntList edgeDst = new IntList();
+		List<Float> edgeWeight = new ArrayList<>();
+		List<ClassInstance> relativesA = new ArrayList<>();
+		List<ClassInstance> relativesB = new ArrayList<>();
+
+		for (int node = 0; node < nodeA.size(); node++) {
+			int depth = nodeDepth.get(node);
+			if (depth >= maxDepth) continue;
+			if (nodeA.size() >= maxNodes) break;
+
+			for (int relation = 0; relation < relationCount; relation++) {
+				getRelatives(nodeA.get(node), relation, relativesA);
+				getRelatives(nodeB.get(node), relation, relativesB);
+
+				if (relativesA.isEmpty() || relativesB.isEmpty() || relativesA.size() * relativesB.size() > maxFanout) continue;
+
+				int start = edgeDst.size;
+
+				for (ClassInstance a : relativesA) {
+					for (ClassInstance b : relativesB) {
+						if (!ClassifierUtil.checkPotentialEquality(a, b)) continue;
+
+						edgeSrc.add(node);
+						edgeDst.add(getNode(a, b, false, Math.max(depth, 0) + 1));
+					}
+				}
+
+				float weight = 1f / Math.max(1, edgeDst.size - start);
+
+				for (int i = start; i < edgeDst.size; i++) {
+					edgeWeight.add(weight);
+				}
+			}
+		}
+
+		int nodeCount = nodeA.size();
+		rowStart = new int[nodeCount + 1];
+
+		for (int i = 0; i < edgeDst.size; i++) {
+			rowStart[edgeDst.values[i] + 1]++;
+		}
+
+		for (int i = 0; i < nodeCount; i++) {
+			rowStart[i + 1] += rowStart[i];
+		}
+
+		int[] pos = Arrays.copyOf(rowStart, nodeCount);
+		cols = new int[edgeDst.size];
+		weights = new float[edgeDst.size];
+
+		for (int i = 0; i < edgeDst.size; i++) {
+			int idx = pos[edgeDst.values[i]]++;
+			cols[idx] = edgeSrc.values[i];
+			weights[idx] = edgeWeight.get(i);
+		}
+	}
+
+	private void getRelatives(ClassInstance cls, int relation, List<ClassInstance> out) {
+		out.clear();
+
+		for (ClassInstance relative : relatives.computeIfAbsent(cls, SimilarityFlooding::getRelatives)[relation]) {
+			if (filter.test(relative)) out.add(relative);
+		}
+	}
+
+	private static ClassInstance[][] getRelatives(ClassInstance cls) {
+		List<Set<ClassInstance>> sets = new ArrayList<>(relationCount);
+
+		for (int i = 0; i < relationCount; i++) {
+			sets.add(Util.newIdentityHashSet());
+		}
+
+		ClassifierUtil.forEachRelative(cls, (relation, relative) -> sets.get(relation.ordinal()).add(relative));
+
+		ClassInstance[][] ret = new ClassInstance[relationCount][];
+
+		for (int i = 0; i < relationCount; i++) {
+			ret[i] = sets.get(i).toArray(new ClassInstance[0]);
+		}
+
+		return ret;
+	}
+
+	private void iterate(CancelToken cancelToken) {
+		int nodeCount = nodeA.size();
+		float[] cur = new float[nodeCount];
+		float[] next = new float[nodeCount];
+		boolean[] anchor = new boolean[nodeCount];
+
+		for (int i = 0; i < nodeCount; i++) {
+			anchor[i] = nodeDepth.get(i) < 0;
+			if (anchor[i]) cur[i] = 1;
+		}
+
+		List<int[]> chunks = new ArrayList<>();
+
+		for (int start = 0; start < nodeCount; start += chunkSize) {
+			chunks.add(new int[] { start, Math.min(start + chunkSize, nodeCount) });
+		}
+
+		for (int iteration = 0; iteration < maxIterations; iteration++) {
+			if (cancelToken.isStopped()) break;
+
+			float[] src = cur;
+			float[] dst = next;
+
+			Matcher.runInParallel(chunks, chunk -> {
+				for (int node = chunk[0]; node < chunk[1]; node++) {
+					if (anchor[node]) {
+						dst[node] = 1;
+						continue;
+					}
+
+					float sum = src[node];
+
+					for (int i = rowStart[node], max = rowStart[node + 1]; i < max; i++) {
+						sum += weights[i] * src[cols[i]];
+					}
+
+					dst[node] = sum;
+				}
+			}, progress -> { });
+
+			float max = 0;
+
+			for (int i = 0; i < nodeCount; i++) {
+				if (!anchor[i]) max = Math.max(max, dst[i]);
+			}
+
+			float delta = 0;
+
+			for (int i = 0; i < nodeCount; i++) {
+				if (!anchor[i] && max > 0) dst[i] /= max;
+				delta = Math.max(delta, Math.abs(dst[i] - src[i]));
+			}
+
+			cur = dst;
+			next = src;
+
+			if (delta < epsilon) break;
+		}
+
+		scores = cur;
+		Map<ClassInstance, Float> bestScores = new IdentityHashMap<>();
+
+		for (int i = 0; i < nodeCount; i++) {
+			if (anchor[i] || scores[i] <= 0) continue;
+
+			ClassInstance b = nodeB.get(i);
+			Float best = bestScores.get(b);
+
+			if (best == null || scores[i] > best) {
+				bestScores.put(b, scores[i]);
+				bestByB.put(b, nodeA.get(i));
+			} else if (scores[i] == best) {
+				bestByB.put(b, null); // ambiguous
+			}
+		}
+	}
+
+	private static final class IntList {
+		void add(int value) {
+			if (size == values.length) values = Arrays.copyOf(values, size * 2);
+
+			values[size++] = value;
+		}
+
+		int[] values = new int[64];
+		int size;
+	}
+
+	private static final int relationCount = ClassRelation.ALL.length;
+	private static final int maxDepth = 3;
+	private static final int maxFanout = 256;
+	private static final int maxNodes = 1 << 22;
+	private static final int maxIterations = 10;
+	private static final int chunkSize = 4096;
+	private static final float epsilon = 1e-3f;
+
+	private final Predicate<ClassInstance> filter;
+	private final Map<ClassInstance, Integer> classIndex = new IdentityHashMap<>();
+	private final Map<ClassInstance, ClassInstance[][]> relatives = new IdentityHashMap<>();
+	private final Map<Long, Integer> nodeIndex = new HashMap<>();
+	private final List<ClassInstance> nodeA = new ArrayList<>();
+	private final List<ClassInstance> nodeB = new ArrayList<>();
+	private final List<Integer> nodeDepth = new ArrayList<>(); // -1 for anchors
+	private final Map<ClassInstance, List<Integer>> nodesByA = new IdentityHashMap<>();
+	private final Map<ClassInstance, ClassInstance> bestByB = new IdentityHashMap<>();
+	private int[] rowStart;
+	private int[] cols;
+	private float[] weights;
+	private float[] scores;
+}
@@ -0,0 +1,41 @@
+package matcher.classifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import matcher.type.ClassInstance;
+
+/**
+ * Inverted index of the string constants of one side's input classes, mapping each string to the classes using it.
+ */
+public final class StringConstantIndex {
+	public static StringConstantIndex build(Collection<ClassInstance> classes) {
+		StringConstantIndex ret = new StringConstantIndex();
+
+		for (ClassInstance cls : classes) {
+			if (!cls.isInput() || !cls.isReal()) continue;
+
+			for (String str : cls.getStrings()) {
+				ret.classes.computeIfAbsent(str, ignore -> new ArrayList<>(1)).add(cls);
+			}
+		}
+
+		return ret;
+	}
+
+	private StringConstantIndex() { }
+
+	/**
+	 * Get the only class using str, null if there's none or multiple.
+	 */
+	public ClassInstance getUniqueClass(String str) {
+		List<ClassInstance> ret = classes.get(str);
+
+		return ret != null && ret.size() == 1 ? ret.get(0) : null;
+	}
+
+	private final Map<String, List<ClassInstance>> classes = new HashMap<>();
+}
@@ -0,0 +1,326 @@
+package matcher.classifier;
+
+import java.util.List;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import matcher.Util;
+import matcher.type.ClassEnv;
+import matcher.type.ClassInstance;
+import matcher.type.FieldInstance;
+import matcher.type.MemberInstance;
+import matcher.type.MethodInstance;
+
+/**
+ * Name independent 64 bit hash of a class' or member's structure and code.
+ *
+ * <p>References are hashed as the name of the B side counterpart if matched, as their name if not obfuscated and
+ * as their position otherwise, so two classes only differing in obfuscated names and already matched references
+ * hash identically. The hashes of unmatched classes get more distinct as matching progresses.
+ */
+public final class StructuralHash {
+	public static long hash(ClassInstance cls) {
+		ClassNode cn = cls.getMergedAsmNode();
+		StructuralHash h = new StructuralHash(cls);
+
+		h.add(cn.access);
+		h.addCls(cls.getSuperClass());
+		h.add(cls.getInterfaces().size());
+
+		for (String itf : cn.interfaces) {
+			h.addClsName(itf);
+		}
+
+		for (FieldInstance field : cls.getFields()) {
+			if (field.isReal()) h.add(hash(field));
+		}
+
+		for (MethodInstance method : cls.getMethods()) {
+			if (method.isReal()) h.add(hash(method));
+		}
+
+		return h.value;
+	}
+
+	public static long hash(FieldInstance field) {
+		FieldNode fn = field.getAsmNode();
+		StructuralHash h = new StructuralHash(field.getCls());
+
+		h.add(fn.access);
+		h.addDesc(fn.desc);
+		h.addConstant(fn.value);
+
+		return h.value;
+	}
+
+	public static long hash(MethodInstance method) {
+		MethodNode mn = method.getAsmNode();
+		StructuralHash h = new StructuralHash(method.getCls());
+
+		h.add(mn.access);
+		h.addDesc(mn.desc);
+		if (method.getId().startsWith("<")) h.add(method.getName()); // keep <init> and <clinit> apart
+
+		InsnList il = mn.instructions;
+		h.add(il.size());
+
+		for (AbstractInsnNode insn : il) {
+			h.addInsn(insn, il);
+		}
+
+		for (TryCatchBlockNode tcb : mn.tryCatchBlocks) {
+			h.add(il.indexOf(tcb.start));
+			h.add(il.indexOf(tcb.end));
+			h.add(il.indexOf(tcb.handler));
+			h.addClsName(tcb.type);
+		}
+
+		return h.value;
+	}
+
+	private StructuralHash(ClassInstance self) {
+		this.self = self;
+		this.env = self.getEnv();
+	}
+
+	private void addInsn(AbstractInsnNode insn, InsnList il) {
+		int op = insn.getOpcode();
+		if (op < 0) return; // labels, line numbers and frames
+
+		add(op);
+
+		switch (insn.getType()) {
+		case AbstractInsnNode.INT_INSN:
+			add(((IntInsnNode) insn).operand);
+			break;
+		case AbstractInsnNode.VAR_INSN:
+			add(((VarInsnNode) insn).var);
+			break;
+		case AbstractInsnNode.TYPE_INSN:
+			addClsName(((TypeInsnNode) insn).desc);
+			break;
+		case AbstractInsnNode.FIELD_INSN: {
+			FieldInsnNode in = (FieldInsnNode) insn;
+			ClassInstance owner = env.getClsByName(in.owner);
+
+			addMember(owner != null ? owner.resolveField(in.name, in.desc) : null);
+			addDesc(in.desc);
+			break;
+		}
+		case AbstractInsnNode.METHOD_INSN: {
+			MethodInsnNode in = (MethodInsnNode) insn;
+			addMethodRef(in.owner, in.name, in.desc, Util.isCallToInterface(in));
+			break;
+		}
+		case AbstractInsnNode.INVOKE_DYNAMIC_INSN: {
+			InvokeDynamicInsnNode in = (InvokeDynamicInsnNode) insn;
+			addConstant(in.bsm);
+			addDesc(in.desc);
+
+			for (Object arg : in.bsmArgs) {
+				addConstant(arg);
+			}
+
+			break;
+		}
+		case AbstractInsnNode.JUMP_INSN:
+			add(il.indexOf(((JumpInsnNode) insn).label));
+			break;
+		case AbstractInsnNode.LDC_INSN:
+			addConstant(((LdcInsnNode) insn).cst);
+			break;
+		case AbstractInsnNode.IINC_INSN: {
+			IincInsnNode in = (IincInsnNode) insn;
+			add(in.var);
+			add(in.incr);
+			break;
+		}
+		case AbstractInsnNode.TABLESWITCH_INSN: {
+			TableSwitchInsnNode in = (TableSwitchInsnNode) insn;
+			add(in.min);
+			add(in.max);
+			addLabels(in.dflt, in.labels, il);
+			break;
+		}
+		case AbstractInsnNode.LOOKUPSWITCH_INSN: {
+			LookupSwitchInsnNode in = (LookupSwitchInsnNode) insn;
+
+			for (int key : in.keys) {
+				add(key);
+			}
+
+			addLabels(in.dflt, in.labels, il);
+			break;
+		}
+		case AbstractInsnNode.MULTIANEWARRAY_INSN: {
+			MultiANewArrayInsnNode in = (MultiANewArrayInsnNode) insn;
+			addDesc(in.desc);
+			add(in.dims);
+			break;
+		}
+		}
+	}
+
+	private void addLabels(LabelNode dflt, List<LabelNode> labels, InsnList il) {
+		add(il.indexOf(dflt));
+		add(labels.size());
+
+		for (LabelNode label : labels) {
+			add(il.indexOf(label));
+		}
+	}
+
+	private void addMethodRef(String owner, String name, String desc, boolean toInterface) {
+		ClassInstance cls = env.getClsByName(owner);
+
+		addMember(cls != null ? cls.resolveMethod(name, desc, toInterface) : null);
+		addDesc(desc);
+	}
+
+	private void addConstant(Object cst) {
+		if (cst == null) {
+			add(0);
+		} else if (cst instanceof Type) {
+			Type type = (Type) cst;
+
+			add(type.getSort());
+
+			if (type.getSort() == Type.METHOD) {
+				addDesc(type.getDescriptor());
+			} else {
+				addType(type);
+			}
+		} else if (cst instanceof Handle) {
+			Handle handle = (Handle) cst;
+
+			add(handle.getTag());
+
+			if (handle.getTag() <= Opcodes.H_PUTSTATIC) {
+				ClassInstance owner = env.getClsByName(handle.getOwner());
+				addMember(owner != null ? owner.resolveField(handle.getName(), handle.getDesc()) : null);
+				addDesc(handle.getDesc());
+			} else {
+				addMethodRef(handle.getOwner(), handle.getName(), handle.getDesc(), handle.isInterface());
+			}
+		} else {
+			add(cst.getClass().getName());
+			add(cst.toString());
+		}
+	}
+
+	private void addDesc(String desc) {
+		Type type = Type.getType(desc);
+
+		if (type.getSort() == Type.METHOD) {
+			Type[] args = type.getArgumentTypes();
+			add(args.length);
+
+			for (Type arg : args) {
+				addType(arg);
+			}
+
+			addType(type.getReturnType());
+		} else {
+			addType(type);
+		}
+	}
+
+	private void addClsName(String name) {
+		if (name == null) {
+			add("?");
+		} else if (name.startsWith("[")) {
+			addType(Type.getType(name));
+		} else {
+			addCls(env.getClsByName(name));
+		}
+	}
+
+	private void addType(Type type) {
+		if (type.getSort() == Type.ARRAY) { // array classes may only exist on one side
+			addType(type.getElementType());
+			add(type.getDimensions());
+		} else {
+			addCls(env.getClsById(type.getDescriptor()));
+		}
+	}
+
+	private void addCls(ClassInstance cls) {
+		if (cls == null) {
+			add("?");
+		} else if (cls == self) {
+			add("this");
+		} else if (cls.isArray()) {
+			addType(Type.getType(cls.getId()));
+		} else if (cls.getMatch() != null) {
+			add("=");
+			add(isSideA(cls) ? cls.getMatch().getId() : cls.getId());
+		} else if (!cls.isInput() || !cls.isNameObfuscated()) {
+			add(cls.getId());
+		} else {
+			add("?");
+		}
+	}
+
+	private void addMember(MemberInstance<?> member) {
+		if (member == null) {
+			add("?");
+			return;
+		}
+
+		addCls(member.getCls());
+
+		if (member.getMatch() != null) {
+			add("=");
+			add(isSideA(member.getCls()) ? member.getMatch().getId() : member.getId());
+		} else if (!member.getCls().isInput() || !member.isNameObfuscated()) {
+			add(member.getName());
+		} else {
+			add(member.getPosition());
+		}
+	}
+
+	private static boolean isSideA(ClassInstance cls) {
+		return !cls.isShared() && cls.getEnv() == cls.getEnv().getGlobal().getEnvA();
+	}
+
+	private void add(String str) {
+		for (int i = 0, max = str.length(); i < max; i++) {
+			value = (value ^ str.charAt(i)) * prime;
+		}
+
+		value = (value ^ 0xffff) * prime; // terminator so adjacent strings don't run together
+	}
+
+	private void add(long v) {
+		for (int i = 0; i < 64; i += 16) {
+			value = (value ^ (v >>> i & 0xffff)) * prime;
+		}
+	}
+
+	private static final long prime = 0x100000001b3L; // 64 bit FNV-1a
+
+	private final ClassInstance self;
+	private final ClassEnv env;
+	private long value = 0xcbf29ce484222325L;
+}
@@ -22,6 +22,7 @@ public class Config {
 				setVerifyInputFiles(prefs.getBoolean(lastVerifyInputFilesKey, true));
 				setUidConfig(new UidConfig(prefs));
 				setTheme(Theme.getById(prefs.get(themeKey, Theme.getDefault().getId())));
+				setPhaseBudgetMs(prefs.getLong(phaseBudgetKey, 0));
 			}
 		} catch (BackingStoreException e) {
 			// ignored
@@ -39,6 +40,19 @@ public class Config {
 					setTheme(theme);
 				}
 
+				break;
+			case "--cache-dir":
+				setCacheDir(Paths.get(args[++i]));
+				break;
+			case "--phase-budget":
+				String budget = args[++i];
+
+				try {
+					setPhaseBudgetMs(Long.parseLong(budget));
+				} catch (NumberFormatException e) {
+					System.err.println("Startup arg '--phase-budget' couldn't be applied, " + budget + " isn't a number of milliseconds!");
+				}
+
 				break;
 			}
 		}
@@ -66,6 +80,20 @@ public class Config {
 		return theme != null ? theme : Theme.getDefault();
 	}
 
+	/**
+	 * Directory for persistent caches that speed up reopening projects, may be deleted at any time.
+	 */
+	public static Path getCacheDir() {
+		return cacheDir;
+	}
+
+	/**
+	 * Wall-clock limit in milliseconds for each auto matching phase started from the GUI, 0 for no limit.
+	 */
+	public static long getPhaseBudgetMs() {
+		return phaseBudgetMs;
+	}
+
 	public static boolean setProjectConfig(ProjectConfig config) {
 		if (!config.isValid()) return false;
 
@@ -97,6 +125,16 @@ public class Config {
 		}
 	}
 
+	public static void setCacheDir(Path dir) {
+		cacheDir = dir;
+	}
+
+	public static void setPhaseBudgetMs(long value) {
+		if (value >= 0) {
+			phaseBudgetMs = value;
+		}
+	}
+
 	public static void saveTheme() {
 		Preferences root = Preferences.userRoot().node(userPrefFolder);
 
@@ -108,6 +146,17 @@ public class Config {
 		}
 	}
 
+	public static void savePhaseBudget() {
+		Preferences root = Preferences.userRoot().node(userPrefFolder);
+
+		try {
+			root.putLong(phaseBudgetKey, phaseBudgetMs);
+			root.flush();
+		} catch (BackingStoreException e) {
+			// ignored
+		}
+	}
+
 	public static void saveAsLast() {
 		Preferences root = Preferences.userRoot().node(userPrefFolder);
 
@@ -154,10 +203,13 @@ public class Config {
 	private static final String lastInputDirsKey = "last-input-dirs";
 	private static final String lastVerifyInputFilesKey = "last-verify-input-files";
 	private static final String themeKey = "theme";
+	private static final String phaseBudgetKey = "phase-budget-ms";
 
 	private static ProjectConfig projectConfig = ProjectConfig.EMPTY;
 	private static final List<Path> inputDirs = new ArrayList<>();
 	private static boolean verifyInputFiles = true;
 	private static UidConfig uidConfig = new UidConfig();
 	private static Theme theme;
+	private static long phaseBudgetMs;
+	private static Path cacheDir = Paths.get(System.getProperty("user.home"), ".cache", userPrefFolder);
 }
@@ -12,6 +12,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.DoubleConsumer;
 import java.util.stream.Collectors;
@@ -24,6 +25,7 @@ import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.Dialog;
 import javafx.scene.control.Label;
@@ -43,6 +45,7 @@ import javafx.stage.Window;
 
 import net.fabricmc.mappingio.MappingReader;
 
+import matcher.CancelToken;
 import matcher.Matcher;
 import matcher.NameType;
 import matcher.config.Config;
@@ -233,20 +236,8 @@ public class Gui extends Application {
 		ProjectConfig newConfig;
 
 		if (showConfigDialog) {
-			Dialog<ProjectConfig> dialog = new Dialog<>();
-			//dialog.initModality(Modality.APPLICATION_MODAL);
-			dialog.setResizable(true);
-			dialog.setTitle("Project configuration");
-			dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
-
-			Node okButton = dialog.getDialogPane().lookupButton(ButtonType.OK);
-			NewProjectPane content = new NewProjectPane(config, dialog.getOwner(), okButton);
-
-			dialog.getDialogPane().setContent(content);
-			dialog.setResultConverter(button -> button == ButtonType.OK ? content.createConfig() : null);
-
-			newConfig = dialog.showAndWait().orElse(null);
-			if (newConfig == null || !newConfig.isValid()) return CompletableFuture.completedFuture(false);
+			newConfig = requestProjectConfig(config);
+			if (newConfig == null) return CompletableFuture.completedFuture(false);
 		} else {
 			newConfig = config;
 		}
@@ -303,6 +294,69 @@ public class Gui extends Application {
 		return ret;
 	}
 
+	/**
+	 * Re-read the project's inputs, e.g. after a new build replaced them, keeping matches and names of unchanged classes.
+	 */
+	public void reloadProject(ProjectConfig config) {
+		ProjectConfig newConfig = requestProjectConfig(config);
+		if (newConfig == null) return;
+
+		Config.setProjectConfig(newConfig);
+		Config.saveAsLast();
+
+		runProgressTask("Reloading files...",
+				progressReceiver -> matcher.reload(newConfig, progressReceiver),
+				() -> onProjectChange(),
+				Throwable::printStackTrace);
+	}
+
+	/**
+	 * Start the next project in a series, reusing the current side B as the new side A if it stays set up the same.
+	 */
+	public void nextProjectFromSideB(ProjectConfig config) {
+		ProjectConfig proposal = new ProjectConfig.Builder(config.getPathsB(), config.getPathsB())
+				.classPathA(config.getClassPathB())
+				.classPathB(config.getClassPathB())
+				.sharedClassPath(config.getSharedClassPath())
+				.inputsBeforeClassPath(config.hasInputsBeforeClassPath())
+				.mappingsPathA(config.getMappingsPathB())
+				.saveUnmappedMatches(config.isSaveUnmappedMatches())
+				.nonObfuscatedClassPatternA(config.getNonObfuscatedClassPatternB())
+				.nonObfuscatedClassPatternB(config.getNonObfuscatedClassPatternB())
+				.nonObfuscatedMemberPatternA(config.getNonObfuscatedMemberPatternB())
+				.nonObfuscatedMemberPatternB(config.getNonObfuscatedMemberPatternB())
+				.build();
+
+		ProjectConfig newConfig = requestProjectConfig(proposal);
+		if (newConfig == null) return;
+
+		Config.setProjectConfig(newConfig);
+		Config.saveAsLast();
+
+		runProgressTask("Initializing files...",
+				progressReceiver -> matcher.initFromSideB(newConfig, progressReceiver),
+				() -> onProjectChange(),
+				Throwable::printStackTrace);
+	}
+
+	private ProjectConfig requestProjectConfig(ProjectConfig config) {
+		Dialog<ProjectConfig> dialog = new Dialog<>();
+		//dialog.initModality(Modality.APPLICATION_MODAL);
+		dialog.setResizable(true);
+		dialog.setTitle("Project configuration");
+		dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+
+		Node okButton = dialog.getDialogPane().lookupButton(ButtonType.OK);
+		NewProjectPane content = new NewProjectPane(config, dialog.getOwner(), okButton);
+
+		dialog.getDialogPane().setContent(content);
+		dialog.setResultConverter(button -> button == ButtonType.OK ? content.createConfig() : null);
+
+		ProjectConfig ret = dialog.showAndWait().orElse(null);
+
+		return ret != null && ret.isValid() ? ret : null;
+	}
+
 	public ClassEnvironment getEnv() {
 		return env;
 	}
@@ -503,6 +557,14 @@ public class Gui extends Application {
 	}
 
 	public void runProgressTask(String labelText, Consumer<DoubleConsumer> task, Runnable onSuccess, Consumer<Throwable> onError) {
+		runProgressTask(labelText, (progressReceiver, cancelToken) -> task.accept(progressReceiver), null, onSuccess, onError);
+	}
+
+	public void runCancellableProgressTask(String labelText, BiConsumer<DoubleConsumer, CancelToken> task, Runnable onSuccess, Consumer<Throwable> onError) {
+		runProgressTask(labelText, task, new CancelToken(Config.getPhaseBudgetMs()), onSuccess, onError);
+	}
+
+	private void runProgressTask(String labelText, BiConsumer<DoubleConsumer, CancelToken> task, CancelToken cancelToken, Runnable onSuccess, Consumer<Throwable> onError) {
 		Stage stage = new Stage(StageStyle.UTILITY);
 		stage.initOwner(this.scene.getWindow());
 		VBox pane = new VBox(GuiConstants.padding);
@@ -521,12 +583,22 @@ public class Gui extends Application {
 		progress.setPrefWidth(400);
 		pane.getChildren().add(progress);
 
+		if (cancelToken != null) {
+			Button cancelButton = new Button("Cancel");
+			cancelButton.setOnAction(event -> {
+				cancelToken.cancel();
+				cancelButton.setDisable(true);
+				cancelButton.setText("Cancelling...");
+			});
+			pane.getChildren().add(cancelButton);
+		}
+
 		stage.show();
 
 		Task<Void> jfxTask = new Task<Void>() {
 			@Override
 			protected Void call() throws Exception {
-				task.accept(cProgress -> Platform.runLater(() -> progress.setProgress(cProgress)));
+				task.accept(cProgress -> Platform.runLater(() -> progress.setProgress(cProgress)), cancelToken);
 
 				return null;
 			}
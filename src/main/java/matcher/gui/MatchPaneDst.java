@@ -3,6 +3,7 @@ package matcher.gui;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
@@ -679,6 +680,10 @@ public class MatchPaneDst extends SplitPane implements IFwdGuiComponent, ISelect
 		}
 
 		void onSelect(Set<MatchType> matchChangeTypes) {
+			onSelect(matchChangeTypes, false);
+		}
+
+		private void onSelect(Set<MatchType> matchChangeTypes, boolean isRetry) {
 			Matchable<?> newSrcSelection = getMatchableSrcSelection();
 			if (newSrcSelection == oldSrcSelection && matchChangeTypes == null) return;
 
@@ -728,11 +733,16 @@ public class MatchPaneDst extends SplitPane implements IFwdGuiComponent, ISelect
 			}
 
 			final int cTaskId = ++taskId;
+			final long matchEpoch = env.getMatchEpoch();
+			Matcher matcher = gui.getMatcher();
 
-			// update matches list
-			Gui.runAsyncTask(ranker).whenComplete((res, exc) -> {
+			// update matches list, queued behind any running auto matching to not rank against its intermediate state
+			Gui.runAsyncTask(() -> matcher.runWithStableMatches(ranker)).whenComplete((res, exc) -> {
 				if (exc != null) {
 					exc.printStackTrace();
+				} else if (taskId == cTaskId && !isRetry && env.getMatchEpoch() != matchEpoch) {
+					// matches changed concurrently (e.g. manual matching), retry once and otherwise accept slightly stale results
+					onSelect(matchChangeTypes != null ? matchChangeTypes : EnumSet.noneOf(MatchType.class), true);
 				} else if (taskId == cTaskId) {
 					assert rankResults.isEmpty();
 					rankResults.addAll(res);
@@ -35,6 +35,7 @@ import matcher.gui.menu.LoadMappingsPane.MappingsLoadSettings;
 import matcher.gui.menu.LoadProjectPane.ProjectLoadSettings;
 import matcher.gui.menu.SaveMappingsPane.MappingsSaveSettings;
 import matcher.mapping.Mappings;
+import matcher.serdes.MatchChain;
 import matcher.serdes.MatchesIo;
 import matcher.type.ClassEnvironment;
 import matcher.type.MatchType;
@@ -57,6 +58,14 @@ public class FileMenu extends Menu {
 		getItems().add(menuItem);
 		menuItem.setOnAction(event -> loadProject());
 
+		menuItem = new MenuItem("Reload inputs");
+		getItems().add(menuItem);
+		menuItem.setOnAction(event -> gui.reloadProject(Config.getProjectConfig()));
+
+		menuItem = new MenuItem("Next project from side B");
+		getItems().add(menuItem);
+		menuItem.setOnAction(event -> gui.nextProjectFromSideB(Config.getProjectConfig()));
+
 		getItems().add(new SeparatorMenuItem());
 
 		menuItem = new MenuItem("Load mappings");
@@ -88,6 +97,10 @@ public class FileMenu extends Menu {
 		getItems().add(menuItem);
 		menuItem.setOnAction(event -> loadMatches());
 
+		menuItem = new MenuItem("Load chained matches");
+		getItems().add(menuItem);
+		menuItem.setOnAction(event -> loadChainedMatches());
+
 		menuItem = new MenuItem("Save matches");
 		getItems().add(menuItem);
 		menuItem.setOnAction(event -> saveMatches());
@@ -343,6 +356,31 @@ public class FileMenu extends Menu {
 		gui.onMatchChange(EnumSet.allOf(MatchType.class));
 	}
 
+	/**
+	 * Compose the matches of consecutive versions between the project's inputs and auto match the remaining gaps.
+	 */
+	private void loadChainedMatches() {
+		List<SelectedFile> res = Gui.requestFiles("Select matches files", gui.getScene().getWindow(), getMatchesLoadExtensionFilters());
+		if (res.isEmpty()) return;
+
+		gui.runCancellableProgressTask(
+				"Matching through chained matches...",
+				(progressReceiver, cancelToken) -> {
+					List<MatchChain> steps = new ArrayList<>(res.size());
+
+					for (SelectedFile file : res) {
+						steps.add(MatchChain.read(file.path));
+					}
+
+					gui.getMatcher().runAutoMatch(() -> {
+						MatchChain.compose(MatchChain.sort(steps)).apply(gui.getMatcher());
+						gui.getMatcher().autoMatchAll(progressReceiver, cancelToken);
+					});
+				},
+				() -> gui.onMatchChange(EnumSet.allOf(MatchType.class)),
+				Throwable::printStackTrace);
+	}
+
 	private static List<ExtensionFilter> getMatchesLoadExtensionFilters() {
 		return Arrays.asList(new FileChooser.ExtensionFilter("Matches", "*.match"));
 	}
@@ -1,14 +1,28 @@
 package matcher.gui.menu;
 
 import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.Predicate;
 
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.RadioMenuItem;
 import javafx.scene.control.SeparatorMenuItem;
+import javafx.scene.control.ToggleGroup;
 
+import matcher.CancelToken;
 import matcher.Matcher.MatchingStatus;
+import matcher.Util;
+import matcher.classifier.ClassClassifier;
+import matcher.classifier.ClassifierUtil;
+import matcher.classifier.PackageClusters;
+import matcher.config.Config;
 import matcher.gui.Gui;
+import matcher.gui.GuiUtil;
+import matcher.type.ClassInstance;
 import matcher.type.MatchType;
 
 public class MatchingMenu extends Menu {
@@ -27,6 +41,10 @@ public class MatchingMenu extends Menu {
 
 		getItems().add(new SeparatorMenuItem());
 
+		menuItem = new MenuItem("Auto exact match");
+		getItems().add(menuItem);
+		menuItem.setOnAction(event -> autoMatchExact());
+
 		menuItem = new MenuItem("Auto class match");
 		getItems().add(menuItem);
 		menuItem.setOnAction(event -> autoMatchClasses());
@@ -49,59 +67,185 @@ public class MatchingMenu extends Menu {
 
 		getItems().add(new SeparatorMenuItem());
 
+		menuItem = new MenuItem("Auto match selected class");
+		getItems().add(menuItem);
+		menuItem.setOnAction(event -> autoMatchSelectedClass());
+
+		menuItem = new MenuItem("Auto match selected package");
+		getItems().add(menuItem);
+		menuItem.setOnAction(event -> autoMatchSelectedPackage());
+
+		menuItem = new MenuItem("Auto match selected class's references");
+		getItems().add(menuItem);
+		menuItem.setOnAction(event -> autoMatchSelectedReferences());
+
+		getItems().add(new SeparatorMenuItem());
+
+		GuiUtil.addCheckMenuItem(this, "Partition classes by package",
+				gui.getMatcher().isPartitionClassesByPackage(),
+				value -> gui.getMatcher().setPartitionClassesByPackage(value));
+
+		GuiUtil.addCheckMenuItem(this, "Approximate large set scores",
+				ClassClassifier.isApproximateSetScores(),
+				ClassClassifier::setApproximateSetScores);
+
+		Menu menu = new Menu("Time limit per phase");
+		ToggleGroup phaseBudgetToggleGroup = new ToggleGroup();
+
+		for (long budgetMs : phaseBudgetsMs) {
+			RadioMenuItem radioMenuItem = new RadioMenuItem(budgetMs == 0 ? "None" : budgetMs / 1000 + " s");
+			radioMenuItem.setToggleGroup(phaseBudgetToggleGroup);
+			menu.getItems().add(radioMenuItem);
+
+			if (budgetMs == Config.getPhaseBudgetMs()) {
+				phaseBudgetToggleGroup.selectToggle(radioMenuItem);
+			}
+
+			radioMenuItem.setOnAction(event -> {
+				Config.setPhaseBudgetMs(budgetMs);
+				Config.savePhaseBudget();
+			});
+		}
+
+		getItems().add(menu);
+		getItems().add(new SeparatorMenuItem());
+
 		menuItem = new MenuItem("Status");
 		getItems().add(menuItem);
 		menuItem.setOnAction(event -> showMatchingStatus());
 	}
 
 	public void autoMatchAll() {
-		gui.runProgressTask(
+		runAutoMatch(
 				"Auto matching...",
 				gui.getMatcher()::autoMatchAll,
-				() -> gui.onMatchChange(EnumSet.allOf(MatchType.class)),
-				Throwable::printStackTrace);
+				EnumSet.allOf(MatchType.class));
+	}
+
+	public void autoMatchExact() {
+		runAutoMatch(
+				"Auto matching identical classes...",
+				gui.getMatcher()::autoMatchExact,
+				EnumSet.allOf(MatchType.class));
 	}
 
 	public void autoMatchClasses() {
-		gui.runProgressTask(
+		runAutoMatch(
 				"Auto matching classes...",
 				gui.getMatcher()::autoMatchClasses,
-				() -> gui.onMatchChange(EnumSet.allOf(MatchType.class)),
-				Throwable::printStackTrace);
+				EnumSet.allOf(MatchType.class));
 	}
 
 	public void autoMatchMethods() {
-		gui.runProgressTask(
+		runAutoMatch(
 				"Auto matching methods...",
 				gui.getMatcher()::autoMatchMethods,
-				() -> gui.onMatchChange(EnumSet.of(MatchType.Method)),
-				Throwable::printStackTrace);
+				EnumSet.of(MatchType.Method));
 	}
 
 	public void autoMatchFields() {
-		gui.runProgressTask(
+		runAutoMatch(
 				"Auto matching fields...",
 				gui.getMatcher()::autoMatchFields,
-				() -> gui.onMatchChange(EnumSet.of(MatchType.Field)),
-				Throwable::printStackTrace);
+				EnumSet.of(MatchType.Field));
 	}
 
 	public void autoMatchArgs() {
-		gui.runProgressTask(
+		runAutoMatch(
 				"Auto matching method args...",
 				gui.getMatcher()::autoMatchMethodArgs,
-				() -> gui.onMatchChange(EnumSet.of(MatchType.MethodVar)),
-				Throwable::printStackTrace);
+				EnumSet.of(MatchType.MethodVar));
 	}
 
 	public void autoMatchVars() {
-		gui.runProgressTask(
+		runAutoMatch(
 				"Auto matching method vars...",
 				gui.getMatcher()::autoMatchMethodVars,
-				() -> gui.onMatchChange(EnumSet.of(MatchType.MethodVar)),
+				EnumSet.of(MatchType.MethodVar));
+	}
+
+	/**
+	 * Auto match the selected class and its inner classes, against its match's inner classes if it's matched already.
+	 */
+	public void autoMatchSelectedClass() {
+		ClassInstance cls = getSelectedClass();
+		if (cls == null) return;
+
+		ClassInstance match = cls.getMatch();
+
+		autoMatchScoped("Auto matching selected class...",
+				other -> isNestedIn(other, cls),
+				match != null ? other -> isNestedIn(other, match) : other -> true);
+	}
+
+	/**
+	 * Auto match the selected class's package, against its match's package if it's matched already.
+	 */
+	public void autoMatchSelectedPackage() {
+		ClassInstance cls = getSelectedClass();
+		if (cls == null) return;
+
+		String pkg = PackageClusters.getPackage(cls);
+		String matchPkg = cls.getMatch() != null ? PackageClusters.getPackage(cls.getMatch()) : null;
+
+		autoMatchScoped("Auto matching selected package...",
+				other -> PackageClusters.getPackage(other).equals(pkg),
+				matchPkg != null ? other -> PackageClusters.getPackage(other).equals(matchPkg) : other -> true);
+	}
+
+	/**
+	 * Auto match the selected class and the classes it's directly related to through hierarchy, nesting or references.
+	 */
+	public void autoMatchSelectedReferences() {
+		ClassInstance cls = getSelectedClass();
+		if (cls == null) return;
+
+		Set<ClassInstance> scope = getRelatedClasses(cls);
+
+		autoMatchScoped("Auto matching selected class's references...", scope::contains, other -> true);
+	}
+
+	private ClassInstance getSelectedClass() {
+		ClassInstance ret = gui.getSrcPane().getSelectedClass();
+
+		if (ret == null) {
+			gui.showAlert(AlertType.INFORMATION, "Scoped auto match", "No class selected", "Select a class on the left side first.");
+		}
+
+		return ret;
+	}
+
+	private void autoMatchScoped(String labelText, Predicate<ClassInstance> srcFilter, Predicate<ClassInstance> dstFilter) {
+		runAutoMatch(
+				labelText,
+				(progress, cancelToken) -> gui.getMatcher().autoMatchAll(srcFilter, dstFilter, progress, cancelToken),
+				EnumSet.allOf(MatchType.class));
+	}
+
+	private void runAutoMatch(String labelText, BiConsumer<DoubleConsumer, CancelToken> task, Set<MatchType> changeTypes) {
+		gui.runCancellableProgressTask(
+				labelText,
+				(progress, cancelToken) -> gui.getMatcher().runAutoMatch(() -> task.accept(progress, cancelToken)),
+				() -> gui.onMatchChange(changeTypes),
 				Throwable::printStackTrace);
 	}
 
+	private static boolean isNestedIn(ClassInstance cls, ClassInstance outer) {
+		for (ClassInstance c = cls; c != null; c = c.getOuterClass()) {
+			if (c == outer) return true;
+		}
+
+		return false;
+	}
+
+	private static Set<ClassInstance> getRelatedClasses(ClassInstance cls) {
+		Set<ClassInstance> ret = Util.newIdentityHashSet();
+		ret.add(cls);
+		ClassifierUtil.forEachRelative(cls, (relation, relative) -> ret.add(relative));
+
+		return ret;
+	}
+
 	public void showMatchingStatus() {
 		MatchingStatus status = gui.getMatcher().getStatus(true);
 
@@ -115,5 +259,7 @@ public class MatchingMenu extends Menu {
 						));
 	}
 
+	private static final long[] phaseBudgetsMs = { 0, 10_000, 30_000, 60_000, 300_000 };
+
 	private final Gui gui;
 }
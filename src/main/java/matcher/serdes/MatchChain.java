@@ -0,0 +1,327 @@
+package matcher.serdes;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import matcher.Matcher;
+import matcher.type.ClassEnvironment;
+import matcher.type.ClassInstance;
+import matcher.type.FieldInstance;
+import matcher.type.InputFile;
+import matcher.type.MemberInstance;
+import matcher.type.MethodInstance;
+import matcher.type.MethodVarInstance;
+
+/**
+ * Id level matches of a matches file, composable with the matches of following versions without loading any of them.
+ *
+ * <p>Matching v1 against v2 and v2 against v3 yields candidate v1 to v3 matches for everything matched in both
+ * steps, which can then be applied to a project comparing v1 and v3 directly. Unmatchable markers are specific to
+ * each version pair and aren't carried over.
+ */
+public final class MatchChain {
+	public static MatchChain read(Path path) {
+		MatchChain ret = new MatchChain();
+		MatchesIo.read(path, new ChainReader(ret));
+
+		return ret;
+	}
+
+	/**
+	 * Order the matches of consecutive version pairs by linking each one's b inputs to the next one's a inputs.
+	 *
+	 * <p>The order is kept if the inputs don't form a single chain, e.g. for old matches files without input hashes.
+	 */
+	public static List<MatchChain> sort(List<MatchChain> steps) {
+		if (steps.size() < 2) return steps;
+
+		MatchChain first = null;
+
+		for (MatchChain step : steps) {
+			boolean hasPredecessor = false;
+
+			for (MatchChain other : steps) {
+				if (other != step && other.inputsB.equals(step.inputsA)) {
+					hasPredecessor = true;
+					break;
+				}
+			}
+
+			if (!hasPredecessor) {
+				if (first != null) return steps; // ambiguous start
+				first = step;
+			}
+		}
+
+		if (first == null) return steps;
+
+		List<MatchChain> ret = new ArrayList<>(steps.size());
+		ret.add(first);
+
+		while (ret.size() < steps.size()) {
+			MatchChain last = ret.get(ret.size() - 1);
+			MatchChain next = null;
+
+			for (MatchChain step : steps) {
+				if (!ret.contains(step) && step.inputsA.equals(last.inputsB)) {
+					if (next != null) return steps;
+					next = step;
+				}
+			}
+
+			if (next == null) return steps;
+
+			ret.add(next);
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Compose the matches in order, keeping only what's matched through all of them.
+	 */
+	public static MatchChain compose(List<MatchChain> steps) {
+		if (steps.isEmpty()) throw new IllegalArgumentException("no matches to compose");
+
+		MatchChain ret = steps.get(0);
+
+		for (int i = 1; i < steps.size(); i++) {
+			ret = ret.then(steps.get(i));
+		}
+
+		return ret;
+	}
+
+	private MatchChain() { }
+
+	/**
+	 * Compose these matches with the matches of the following version pair.
+	 */
+	public MatchChain then(MatchChain next) {
+		MatchChain ret = new MatchChain();
+		ret.inputsA.addAll(inputsA);
+		ret.inputsB.addAll(next.inputsB);
+
+		for (Map.Entry<String, ClassEntry> entry : classes.entrySet()) {
+			ClassEntry cls = entry.getValue();
+			ClassEntry nextCls = next.classes.get(cls.target);
+			if (nextCls == null) continue;
+
+			ClassEntry composed = new ClassEntry(nextCls.target);
+			composeMembers(cls.methods, nextCls.methods, composed.methods);
+			composeMembers(cls.fields, nextCls.fields, composed.fields);
+			ret.classes.put(entry.getKey(), composed);
+		}
+
+		return ret;
+	}
+
+	private static void composeMembers(Map<String, MemberEntry> members, Map<String, MemberEntry> nextMembers, Map<String, MemberEntry> out) {
+		for (Map.Entry<String, MemberEntry> entry : members.entrySet()) {
+			MemberEntry member = entry.getValue();
+			MemberEntry nextMember = nextMembers.get(member.target);
+			if (nextMember == null) continue;
+
+			MemberEntry composed = new MemberEntry(nextMember.target);
+			composeVars(member.args, nextMember.args, composed.args);
+			composeVars(member.vars, nextMember.vars, composed.vars);
+			out.put(entry.getKey(), composed);
+		}
+	}
+
+	private static void composeVars(Map<Integer, Integer> vars, Map<Integer, Integer> nextVars, Map<Integer, Integer> out) {
+		for (Map.Entry<Integer, Integer> entry : vars.entrySet()) {
+			Integer target = nextVars.get(entry.getValue());
+			if (target != null) out.put(entry.getKey(), target);
+		}
+	}
+
+	public int getClassCount() {
+		return classes.size();
+	}
+
+	/**
+	 * Match everything still unmatched in matcher's environment that these matches cover, returning the number of
+	 * newly matched classes.
+	 *
+	 * <p>Existing matches take precedence, the gaps are left to the auto matcher.
+	 */
+	public int apply(Matcher matcher) {
+		ClassEnvironment env = matcher.getEnv();
+		int ret = 0;
+
+		for (Map.Entry<String, ClassEntry> entry : classes.entrySet()) {
+			ClassInstance a = env.getLocalClsByIdA(entry.getKey());
+			ClassInstance b = env.getLocalClsByIdB(entry.getValue().target);
+
+			if (a == null || b == null) {
+				Matcher.LOGGER.debug("Unknown a/b class {}/{}", entry.getKey(), entry.getValue().target);
+				continue;
+			}
+
+			if (a.hasMatch() || b.hasMatch()) {
+				if (a.getMatch() != b) continue;
+			} else if (!a.isMatchable() || !b.isMatchable()) {
+				continue;
+			} else {
+				matcher.match(a, b);
+				ret++;
+			}
+
+			ClassEntry cls = entry.getValue();
+
+			for (Map.Entry<String, MemberEntry> methodEntry : cls.methods.entrySet()) {
+				MethodInstance methodA = a.getMethod(methodEntry.getKey());
+				MethodInstance methodB = b.getMethod(methodEntry.getValue().target);
+				if (!applyMember(matcher, methodA, methodB)) continue;
+
+				applyVars(matcher, methodEntry.getValue().args, methodA.getArgs(), methodB.getArgs());
+				applyVars(matcher, methodEntry.getValue().vars, methodA.getVars(), methodB.getVars());
+			}
+
+			for (Map.Entry<String, MemberEntry> fieldEntry : cls.fields.entrySet()) {
+				FieldInstance fieldA = a.getField(fieldEntry.getKey());
+				FieldInstance fieldB = b.getField(fieldEntry.getValue().target);
+				applyMember(matcher, fieldA, fieldB);
+			}
+		}
+
+		Matcher.LOGGER.info("Applied {} chained class matches ({} composed)", ret, classes.size());
+
+		return ret;
+	}
+
+	/**
+	 * Match the members if possible, returning whether they are matched to each other afterwards.
+	 */
+	private static boolean applyMember(Matcher matcher, MemberInstance<?> a, MemberInstance<?> b) {
+		if (a == null || b == null) return false;
+		if (a.hasMatch() || b.hasMatch()) return a.getMatch() == b;
+		if (!a.isMatchable() || !b.isMatchable()) return false;
+
+		matcher.match(a, b);
+
+		return a.getMatch() == b;
+	}
+
+	private static void applyVars(Matcher matcher, Map<Integer, Integer> indices, MethodVarInstance[] varsA, MethodVarInstance[] varsB) {
+		for (Map.Entry<Integer, Integer> entry : indices.entrySet()) {
+			int idxA = entry.getKey();
+			int idxB = entry.getValue();
+			if (idxA < 0 || idxA >= varsA.length || idxB < 0 || idxB >= varsB.length) continue;
+
+			MethodVarInstance a = varsA[idxA];
+			MethodVarInstance b = varsB[idxB];
+
+			if (!a.hasMatch() && !b.hasMatch() && a.isMatchable() && b.isMatchable()) {
+				matcher.match(a, b);
+			}
+		}
+	}
+
+	/**
+	 * Visitor collecting the ids of the read matches, ignoring unmatchable markers.
+	 */
+	private static final class ChainReader implements MatchesVisitor {
+		ChainReader(MatchChain chain) {
+			this.chain = chain;
+		}
+
+		@Override
+		public void visitHeader(List<InputFile> inputFilesA, List<InputFile> inputFilesB,
+				List<InputFile> cpFiles,
+				List<InputFile> cpFilesA, List<InputFile> cpFilesB,
+				String nonObfuscatedClassPatternA, String nonObfuscatedClassPatternB, String nonObfuscatedMemberPatternA, String nonObfuscatedMemberPatternB) {
+			for (InputFile file : inputFilesA) {
+				chain.inputsA.add(getInputKey(file));
+			}
+
+			for (InputFile file : inputFilesB) {
+				chain.inputsB.add(getInputKey(file));
+			}
+		}
+
+		private static String getInputKey(InputFile file) {
+			// size, hash algorithm and hash identify the file where available, otherwise only the file name does
+			if (file.hash == null) return file.fileName;
+
+			return file.size+"\t"+file.hashType.name()+"\t"+Base64.getEncoder().encodeToString(file.hash);
+		}
+
+		@Override
+		public void visitClass(String idA, String idB) {
+			currentClass = new ClassEntry(idB);
+			currentMethod = null;
+			chain.classes.put(idA, currentClass);
+		}
+
+		@Override
+		public void visitClassUnmatchable(char side, String id) {
+			currentClass = null;
+			currentMethod = null;
+		}
+
+		@Override
+		public void visitMember(boolean isMethod, String idA, String idB) {
+			currentMethod = null;
+			if (currentClass == null) return;
+
+			MemberEntry entry = new MemberEntry(idB);
+
+			if (isMethod) {
+				currentClass.methods.put(idA, entry);
+				currentMethod = entry;
+			} else {
+				currentClass.fields.put(idA, entry);
+			}
+		}
+
+		@Override
+		public void visitMemberUnmatchable(boolean isMethod, char side, String id) {
+			currentMethod = null;
+		}
+
+		@Override
+		public void visitVar(boolean isArg, int idxA, int idxB) {
+			if (currentMethod == null) return;
+
+			Map<Integer, Integer> vars = isArg ? currentMethod.args : currentMethod.vars;
+			vars.put(idxA, idxB);
+		}
+
+		private final MatchChain chain;
+		private ClassEntry currentClass;
+		private MemberEntry currentMethod;
+	}
+
+	private static final class ClassEntry {
+		ClassEntry(String target) {
+			this.target = target;
+		}
+
+		final String target;
+		final Map<String, MemberEntry> methods = new HashMap<>();
+		final Map<String, MemberEntry> fields = new HashMap<>();
+	}
+
+	private static final class MemberEntry {
+		MemberEntry(String target) {
+			this.target = target;
+		}
+
+		final String target;
+		final Map<Integer, Integer> args = new HashMap<>();
+		final Map<Integer, Integer> vars = new HashMap<>();
+	}
+
+	private final Set<String> inputsA = new HashSet<>();
+	private final Set<String> inputsB = new HashSet<>();
+	private final Map<String, ClassEntry> classes = new LinkedHashMap<>();
+}
@@ -29,8 +29,13 @@ import matcher.type.MethodVarInstance;
 
 public class MatchesIo {
 	public static void read(Path path, List<Path> inputDirs, boolean verifyInputs, Matcher matcher, DoubleConsumer progressReceiver) {
-		ClassEnvironment env = matcher.getEnv();
+		read(path, new MatchApplier(inputDirs, verifyInputs, matcher, progressReceiver));
+	}
 
+	/**
+	 * Parse the matches file at path, passing its contents to visitor.
+	 */
+	public static void read(Path path, MatchesVisitor visitor) {
 		try (BufferedReader reader = Files.newBufferedReader(path)) {
 			ParserState state = ParserState.START;
 			List<InputFile> cpFiles = new ArrayList<>();
@@ -42,8 +47,6 @@ public class MatchesIo {
 			String nonObfuscatedClassPatternB = "";
 			String nonObfuscatedMemberPatternA = "";
 			String nonObfuscatedMemberPatternB = "";
-			ClassInstance currentClass = null;
-			MethodInstance currentMethod = null;
 			String line;
 
 			while ((line = reader.readLine()) != null) {
@@ -91,9 +94,7 @@ public class MatchesIo {
 						if (sizeEnd < 0) { // v1
 							fileStart = indent;
 						} else {
-							if (verifyInputs) {
-								size = Long.parseLong(line.substring(indent, sizeEnd));
-							}
+							size = Long.parseLong(line.substring(indent, sizeEnd));
 
 							int hashOrAlgEnd = line.indexOf('\t', sizeEnd + 1);
 							int v3HashEnd = line.indexOf('\t', hashOrAlgEnd + 1);
@@ -109,9 +110,7 @@ public class MatchesIo {
 								hashType = HashType.valueOf(line.substring(sizeEnd + 1, hashOrAlgEnd));
 							}
 
-							if (verifyInputs) {
-								hash = Base64.getDecoder().decode(line.substring(hashStart, fileStart - 1));
-							}
+							hash = Base64.getDecoder().decode(line.substring(hashStart, fileStart - 1));
 						}
 
 						inputFiles.add(new InputFile(line.substring(fileStart), size, hash, hashType));
@@ -150,181 +149,40 @@ public class MatchesIo {
 					if (state != ParserState.CONTENT) {
 						state = ParserState.CONTENT;
 
-						if (inputDirs != null) {
-							matcher.initFromMatches(inputDirs, inputFilesA, inputFilesB, cpFiles, cpFilesA, cpFilesB,
-									nonObfuscatedClassPatternA, nonObfuscatedClassPatternB, nonObfuscatedMemberPatternA, nonObfuscatedMemberPatternB,
-									progressReceiver);
-							inputDirs = null;
-						}
+						visitor.visitHeader(inputFilesA, inputFilesB, cpFiles, cpFilesA, cpFilesB,
+								nonObfuscatedClassPatternA, nonObfuscatedClassPatternB, nonObfuscatedMemberPatternA, nonObfuscatedMemberPatternB);
 					}
 
 					if (line.startsWith("c\t")) { // class
 						int pos = line.indexOf('\t', 2);
 						if (pos == -1 || pos == 2 || pos + 1 == line.length()) throw new IOException("invalid matches file");
-						String idA = line.substring(2, pos);
-						String idB = line.substring(pos + 1);
-						currentClass = env.getLocalClsByIdA(idA);
-						currentMethod = null;
-						ClassInstance target;
-
-						if (currentClass == null) {
-							Matcher.LOGGER.warn("Unknown a class {}", idA);
-						} else if ((target = env.getLocalClsByIdB(idB)) == null) {
-							Matcher.LOGGER.warn("Unknown b class {}", idA);
-							currentClass = null;
-						} else if (!currentClass.isMatchable() || !target.isMatchable()) {
-							Matcher.LOGGER.warn("Unmatchable a/b class {}/{}", idA, idB);
-							currentClass = null;
-						} else {
-							currentClass.setMatchable(true);
-							target.setMatchable(true);
-							matcher.match(currentClass, target);
-						}
+
+						visitor.visitClass(line.substring(2, pos), line.substring(pos + 1));
 					} else if (line.startsWith("cu\t")) { // class unmatchable
 						char side;
 						if (line.length() < 6 || (side = line.charAt(3)) != 'a' && side != 'b' || line.charAt(4) != '\t') throw new IOException("invalid matches file");
 
-						String id = line.substring(5);
-						ClassInstance cls = side == 'a' ? env.getLocalClsByIdA(id) : env.getLocalClsByIdB(id);
-						currentClass = null;
-						currentMethod = null;
-
-						if (cls == null) {
-							Matcher.LOGGER.warn("Unknown {} class {}", side, id);
-						} else {
-							if (cls.hasMatch()) matcher.unmatch(cls);
-							cls.setMatchable(false);
-						}
+						visitor.visitClassUnmatchable(side, line.substring(5));
 					} else if (line.startsWith("\tm\t") || line.startsWith("\tf\t")) { // method or field
-						currentMethod = null;
-						if (currentClass == null) continue;
-
 						int pos = line.indexOf('\t', 3);
 						if (pos == -1 || pos == 3 || pos + 1 == line.length()) throw new IOException("invalid matches file");
-						String idA = line.substring(3, pos);
-						String idB = line.substring(pos + 1);
-
-						if (line.charAt(1) == 'm') { // method
-							MethodInstance a = currentMethod = currentClass.getMethod(idA);
-							MethodInstance b;
-
-							if (a == null) {
-								Matcher.LOGGER.warn("Unknown a method {} in class {}", idA, currentClass);
-							} else if ((b = currentClass.getMatch().getMethod(idB)) == null) {
-								Matcher.LOGGER.warn("Unknown b method {} in class {}", idB, currentClass.getMatch());
-							} else if (!a.isMatchable() || !b.isMatchable()) {
-								Matcher.LOGGER.warn("Unmatchable a/b method {}/{}", idA, idB);
-								currentMethod = null;
-							} else {
-								a.setMatchable(true);
-								b.setMatchable(true);
-								matcher.match(a, b);
-							}
-						} else { // field
-							FieldInstance a = currentClass.getField(idA);
-							FieldInstance b;
-
-							if (a == null) {
-								Matcher.LOGGER.warn("Unknown a field {} in class {}", idA, currentClass);
-							} else if ((b = currentClass.getMatch().getField(idB)) == null) {
-								Matcher.LOGGER.warn("Unknown b field {} in class {}", idB, currentClass.getMatch());
-							} else if (!a.isMatchable() || !b.isMatchable()) {
-								Matcher.LOGGER.warn("Unmatchable a/b field {}/{}", idA, idB);
-							} else {
-								a.setMatchable(true);
-								b.setMatchable(true);
-								matcher.match(a, b);
-							}
-						}
-					} else if (line.startsWith("\tmu\t") || line.startsWith("\tfu\t")) { // method or field unmatchable
-						currentMethod = null;
-						if (currentClass == null) continue;
 
+						visitor.visitMember(line.charAt(1) == 'm', line.substring(3, pos), line.substring(pos + 1));
+					} else if (line.startsWith("\tmu\t") || line.startsWith("\tfu\t")) { // method or field unmatchable
 						char side;
 						if (line.length() < 7 || (side = line.charAt(4)) != 'a' && side != 'b' || line.charAt(5) != '\t') throw new IOException("invalid matches file");
 
-						String id = line.substring(6);
-						ClassInstance cls = side == 'a' ? currentClass : currentClass.getMatch();
-						assert cls != null; // currentClass must have been matched before, so shouldn't be null
-						MemberInstance<?> member = line.charAt(1) == 'm' ? cls.getMethod(id) : cls.getField(id);
-
-						if (member == null) {
-							Matcher.LOGGER.warn("Unknown member {} in class {}", id, cls);
-						} else {
-							if (member.hasMatch()) matcher.unmatch(member);
-
-							if (!member.setMatchable(false)) {
-								Matcher.LOGGER.warn("Can't mark {} as unmatchable, already matched?", member);
-							}
-						}
+						visitor.visitMemberUnmatchable(line.charAt(1) == 'm', side, line.substring(6));
 					} else if (line.startsWith("\t\tma\t") || line.startsWith("\t\tmv\t")) { // method arg or method var
-						if (currentMethod == null || !currentMethod.hasMatch()) continue;
-
 						int pos = line.indexOf('\t', 5);
 						if (pos == -1 || pos == 5 || pos + 1 == line.length()) throw new IOException("invalid matches file");
 
-						int idxA = Integer.parseInt(line.substring(5, pos));
-						int idxB = Integer.parseInt(line.substring(pos + 1));
-						MethodInstance matchedMethod = currentMethod.getMatch();
-
-						MethodVarInstance[] varsA, varsB;
-						String type;
-
-						if (line.charAt(3) == 'a') {
-							type = "arg";
-							varsA = currentMethod.getArgs();
-							varsB = matchedMethod.getArgs();
-						} else {
-							type = "var";
-							varsA = currentMethod.getVars();
-							varsB = matchedMethod.getVars();
-						}
-
-						if (idxA < 0 || idxA >= varsA.length) {
-							Matcher.LOGGER.warn("Unknown a method {} {} in method {}", type, idxA, currentMethod);
-						} else if (idxB < 0 || idxB >= varsB.length) {
-							Matcher.LOGGER.warn("Unknown b method {} {} in method {}", type, idxB, matchedMethod);
-						} else if (!varsA[idxA].isMatchable() || !varsB[idxB].isMatchable()) {
-							Matcher.LOGGER.warn("Unmatchable a/b method {} {}/{} in method {}/{}",
-									type, idxA, idxB, currentMethod, matchedMethod);
-							currentMethod = null;
-						} else {
-							varsA[idxA].setMatchable(true);
-							varsB[idxB].setMatchable(true);
-							matcher.match(varsA[idxA], varsB[idxB]);
-						}
+						visitor.visitVar(line.charAt(3) == 'a', Integer.parseInt(line.substring(5, pos)), Integer.parseInt(line.substring(pos + 1)));
 					} else if (line.startsWith("\t\tmau\t") || line.startsWith("\t\tmvu\t")) { // method arg or method var unmatchable
-						if (currentMethod == null) continue;
-
 						char side;
 						if (line.length() < 9 || (side = line.charAt(6)) != 'a' && side != 'b' || line.charAt(7) != '\t') throw new IOException("invalid matches file");
 
-						MethodInstance method = side == 'a' ? currentMethod : currentMethod.getMatch();
-						if (method == null) continue;
-
-						int idx = Integer.parseInt(line.substring(8));
-
-						MethodVarInstance[] vars;
-						String type;
-
-						if (line.charAt(3) == 'a') {
-							type = "arg";
-							vars = method.getArgs();
-						} else {
-							type = "var";
-							vars = method.getVars();
-						}
-
-						if (idx < 0 || idx >= vars.length) {
-							Matcher.LOGGER.warn("Unknown a method {} {} in method {}", type, idx, method);
-							continue;
-						} else {
-							MethodVarInstance var = vars[idx];
-
-							if (var.hasMatch()) matcher.unmatch(var);
-
-							var.setMatchable(false);
-						}
+						visitor.visitVarUnmatchable(line.charAt(3) == 'a', side, Integer.parseInt(line.substring(8)));
 					}
 				}
 			}
@@ -332,6 +190,8 @@ public class MatchesIo {
 			if (state != ParserState.CONTENT) throw new IOException("invalid matches file");
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
+		} catch (NumberFormatException e) {
+			throw new UncheckedIOException(new IOException("invalid matches file", e));
 		}
 	}
 
@@ -554,6 +414,190 @@ public class MatchesIo {
 		out.write('\n');
 	}
 
+	/**
+	 * Visitor applying the read matches to a matcher, initializing its project from the header if inputDirs is set.
+	 */
+	private static final class MatchApplier implements MatchesVisitor {
+		MatchApplier(List<Path> inputDirs, boolean verifyInputs, Matcher matcher, DoubleConsumer progressReceiver) {
+			this.inputDirs = inputDirs;
+			this.verifyInputs = verifyInputs;
+			this.matcher = matcher;
+			this.env = matcher.getEnv();
+			this.progressReceiver = progressReceiver;
+		}
+
+		@Override
+		public void visitHeader(List<InputFile> inputFilesA, List<InputFile> inputFilesB,
+				List<InputFile> cpFiles,
+				List<InputFile> cpFilesA, List<InputFile> cpFilesB,
+				String nonObfuscatedClassPatternA, String nonObfuscatedClassPatternB, String nonObfuscatedMemberPatternA, String nonObfuscatedMemberPatternB) throws IOException {
+			if (inputDirs == null) return;
+
+			matcher.initFromMatches(inputDirs, getInputFiles(inputFilesA), getInputFiles(inputFilesB), getInputFiles(cpFiles), getInputFiles(cpFilesA), getInputFiles(cpFilesB),
+					nonObfuscatedClassPatternA, nonObfuscatedClassPatternB, nonObfuscatedMemberPatternA, nonObfuscatedMemberPatternB,
+					progressReceiver);
+		}
+
+		private List<InputFile> getInputFiles(List<InputFile> files) {
+			if (verifyInputs) return files;
+
+			List<InputFile> ret = new ArrayList<>(files.size());
+
+			for (InputFile file : files) {
+				ret.add(new InputFile(file.fileName, InputFile.unknownSize, null, file.hashType));
+			}
+
+			return ret;
+		}
+
+		@Override
+		public void visitClass(String idA, String idB) {
+			currentClass = env.getLocalClsByIdA(idA);
+			currentMethod = null;
+			ClassInstance target;
+
+			if (currentClass == null) {
+				Matcher.LOGGER.warn("Unknown a class {}", idA);
+			} else if ((target = env.getLocalClsByIdB(idB)) == null) {
+				Matcher.LOGGER.warn("Unknown b class {}", idA);
+				currentClass = null;
+			} else if (!currentClass.isMatchable() || !target.isMatchable()) {
+				Matcher.LOGGER.warn("Unmatchable a/b class {}/{}", idA, idB);
+				currentClass = null;
+			} else {
+				currentClass.setMatchable(true);
+				target.setMatchable(true);
+				matcher.match(currentClass, target);
+			}
+		}
+
+		@Override
+		public void visitClassUnmatchable(char side, String id) {
+			ClassInstance cls = side == 'a' ? env.getLocalClsByIdA(id) : env.getLocalClsByIdB(id);
+			currentClass = null;
+			currentMethod = null;
+
+			if (cls == null) {
+				Matcher.LOGGER.warn("Unknown {} class {}", side, id);
+			} else {
+				if (cls.hasMatch()) matcher.unmatch(cls);
+				cls.setMatchable(false);
+			}
+		}
+
+		@Override
+		public void visitMember(boolean isMethod, String idA, String idB) {
+			currentMethod = null;
+			if (currentClass == null) return;
+
+			if (isMethod) {
+				MethodInstance a = currentMethod = currentClass.getMethod(idA);
+				MethodInstance b;
+
+				if (a == null) {
+					Matcher.LOGGER.warn("Unknown a method {} in class {}", idA, currentClass);
+				} else if ((b = currentClass.getMatch().getMethod(idB)) == null) {
+					Matcher.LOGGER.warn("Unknown b method {} in class {}", idB, currentClass.getMatch());
+				} else if (!a.isMatchable() || !b.isMatchable()) {
+					Matcher.LOGGER.warn("Unmatchable a/b method {}/{}", idA, idB);
+					currentMethod = null;
+				} else {
+					a.setMatchable(true);
+					b.setMatchable(true);
+					matcher.match(a, b);
+				}
+			} else {
+				FieldInstance a = currentClass.getField(idA);
+				FieldInstance b;
+
+				if (a == null) {
+					Matcher.LOGGER.warn("Unknown a field {} in class {}", idA, currentClass);
+				} else if ((b = currentClass.getMatch().getField(idB)) == null) {
+					Matcher.LOGGER.warn("Unknown b field {} in class {}", idB, currentClass.getMatch());
+				} else if (!a.isMatchable() || !b.isMatchable()) {
+					Matcher.LOGGER.warn("Unmatchable a/b field {}/{}", idA, idB);
+				} else {
+					a.setMatchable(true);
+					b.setMatchable(true);
+					matcher.match(a, b);
+				}
+			}
+		}
+
+		@Override
+		public void visitMemberUnmatchable(boolean isMethod, char side, String id) {
+			currentMethod = null;
+			if (currentClass == null) return;
+
+			ClassInstance cls = side == 'a' ? currentClass : currentClass.getMatch();
+			assert cls != null; // currentClass must have been matched before, so shouldn't be null
+			MemberInstance<?> member = isMethod ? cls.getMethod(id) : cls.getField(id);
+
+			if (member == null) {
+				Matcher.LOGGER.warn("Unknown member {} in class {}", id, cls);
+			} else {
+				if (member.hasMatch()) matcher.unmatch(member);
+
+				if (!member.setMatchable(false)) {
+					Matcher.LOGGER.warn("Can't mark {} as unmatchable, already matched?", member);
+				}
+			}
+		}
+
+		@Override
+		public void visitVar(boolean isArg, int idxA, int idxB) {
+			if (currentMethod == null || !currentMethod.hasMatch()) return;
+
+			MethodInstance matchedMethod = currentMethod.getMatch();
+			String type = isArg ? "arg" : "var";
+			MethodVarInstance[] varsA = isArg ? currentMethod.getArgs() : currentMethod.getVars();
+			MethodVarInstance[] varsB = isArg ? matchedMethod.getArgs() : matchedMethod.getVars();
+
+			if (idxA < 0 || idxA >= varsA.length) {
+				Matcher.LOGGER.warn("Unknown a method {} {} in method {}", type, idxA, currentMethod);
+			} else if (idxB < 0 || idxB >= varsB.length) {
+				Matcher.LOGGER.warn("Unknown b method {} {} in method {}", type, idxB, matchedMethod);
+			} else if (!varsA[idxA].isMatchable() || !varsB[idxB].isMatchable()) {
+				Matcher.LOGGER.warn("Unmatchable a/b method {} {}/{} in method {}/{}",
+						type, idxA, idxB, currentMethod, matchedMethod);
+				currentMethod = null;
+			} else {
+				varsA[idxA].setMatchable(true);
+				varsB[idxB].setMatchable(true);
+				matcher.match(varsA[idxA], varsB[idxB]);
+			}
+		}
+
+		@Override
+		public void visitVarUnmatchable(boolean isArg, char side, int idx) {
+			if (currentMethod == null) return;
+
+			MethodInstance method = side == 'a' ? currentMethod : currentMethod.getMatch();
+			if (method == null) return;
+
+			String type = isArg ? "arg" : "var";
+			MethodVarInstance[] vars = isArg ? method.getArgs() : method.getVars();
+
+			if (idx < 0 || idx >= vars.length) {
+				Matcher.LOGGER.warn("Unknown a method {} {} in method {}", type, idx, method);
+			} else {
+				MethodVarInstance var = vars[idx];
+
+				if (var.hasMatch()) matcher.unmatch(var);
+
+				var.setMatchable(false);
+			}
+		}
+
+		private final List<Path> inputDirs;
+		private final boolean verifyInputs;
+		private final Matcher matcher;
+		private final ClassEnvironment env;
+		private final DoubleConsumer progressReceiver;
+		private ClassInstance currentClass;
+		private MethodInstance currentMethod;
+	}
+
 	private enum ParserState {
 		START, HEADER, FILES_A, FILES_B, CP_FILES, CP_FILES_A, CP_FILES_B, CONTENT;
 	}
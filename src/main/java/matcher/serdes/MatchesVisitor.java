@@ -0,0 +1,26 @@
+package matcher.serdes;
+
+import java.io.IOException;
+import java.util.List;
+
+import matcher.type.InputFile;
+
+/**
+ * Receiver for the contents of a matches file as parsed by {@link MatchesIo#read(java.nio.file.Path, MatchesVisitor)}.
+ *
+ * <p>The header is visited first, followed by the entries in file order. Member entries belong to the last visited
+ * class, var entries to the last visited method. Sides are 'a' or 'b', vars are identified by their index.
+ */
+public interface MatchesVisitor {
+	void visitHeader(List<InputFile> inputFilesA, List<InputFile> inputFilesB,
+			List<InputFile> cpFiles,
+			List<InputFile> cpFilesA, List<InputFile> cpFilesB,
+			String nonObfuscatedClassPatternA, String nonObfuscatedClassPatternB, String nonObfuscatedMemberPatternA, String nonObfuscatedMemberPatternB) throws IOException;
+
+	default void visitClass(String idA, String idB) { }
+	default void visitClassUnmatchable(char side, String id) { }
+	default void visitMember(boolean isMethod, String idA, String idB) { }
+	default void visitMemberUnmatchable(boolean isMethod, char side, String id) { }
+	default void visitVar(boolean isArg, int idxA, int idxB) { }
+	default void visitVarUnmatchable(boolean isArg, char side, int idx) { }
+}
@@ -6,14 +6,15 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
@@ -52,12 +53,16 @@ import matcher.NameType;
 import matcher.Util;
 
 class Analysis {
-	static void analyzeMethod(MethodInstance method, CommonClasses common) {
+	static MethodVarInstance[] analyzeMethod(MethodInstance method, CommonClasses common) {
 		MethodNode asmNode = method.getAsmNode();
-		if (asmNode == null || (asmNode.access & Opcodes.ACC_ABSTRACT) != 0 || asmNode.instructions.size() == 0) return;
+		if (asmNode == null || (asmNode.access & Opcodes.ACC_ABSTRACT) != 0 || asmNode.instructions.size() == 0) return null;
 
-		Matcher.LOGGER.debug(method.getDisplayName(NameType.MAPPED_PLAIN, true));
-		dump(asmNode);
+		boolean trace = Matcher.LOGGER.isTraceEnabled();
+
+		if (trace) {
+			Matcher.LOGGER.trace(method.getDisplayName(NameType.MAPPED_PLAIN, true));
+			dump(asmNode);
+		}
 
 		StateRecorder rec = new StateRecorder(method, common);
 		InsnList il = asmNode.instructions;
@@ -65,19 +70,16 @@ class Analysis {
 		Map<AbstractInsnNode, int[]> exitPoints = new IdentityHashMap<>();
 		exitPoints.put(null, new int[] { 0 });
 
-		Queue<QueueElement> queue = new ArrayDeque<>();
-		queue.add(new QueueElement(0, rec.getState()));
-		Set<QueueElement> queued = new HashSet<>();
-		queued.add(queue.peek());
-
-		boolean first = true;
-		QueueElement element;
+		// basic block entries with a changed merged entry state, processed in instruction order
+		BitSet pending = new BitSet(il.size());
+		pending.set(0);
+		int start;
 
-		while ((element = queue.poll()) != null || queueTryCatchBlocks(method, rec, queue, queued) && (element = queue.poll()) != null) {
-			if (!rec.jump(element.dstIndex, element.srcState) && !first) continue;
-			first = false;
+		while ((start = pending.nextSetBit(0)) != -1 || queueTryCatchBlocks(asmNode, rec, pending) && (start = pending.nextSetBit(0)) != -1) {
+			pending.clear(start);
+			rec.load(start);
 
-			insnLoop: for (int idx = element.dstIndex; idx < il.size(); idx++) {
+			insnLoop: for (int idx = start; idx < il.size(); idx++) {
 				assert rec.idx == idx;
 
 				AbstractInsnNode ain = il.get(idx);
@@ -142,8 +144,8 @@ class Analysis {
 					break;
 				case Opcodes.AALOAD: {
 					rec.pop(); // idx
-					Variable array = rec.pop();
-					rec.push(array.type.getElementClassShallow(true), rec.getNextVarId(VarSource.ArrayElement));
+					long array = rec.pop();
+					rec.push(rec.getElementCls(rec.typeOf(array)), rec.getNextVarId(VarSource.ArrayElement));
 					break;
 				}
 				case Opcodes.IASTORE:
@@ -170,23 +172,23 @@ class Analysis {
 					rec.push(rec.peek());
 					break;
 				case Opcodes.DUP_X1: {
-					Variable a = rec.pop();
-					Variable b = rec.pop();
+					long a = rec.pop();
+					long b = rec.pop();
 					rec.push(a);
 					rec.push(b);
 					rec.push(a);
 					break;
 				}
 				case Opcodes.DUP_X2: {
-					Variable a = rec.pop();
+					long a = rec.pop();
 
 					if (rec.isTopDoubleSlot()) {
-						Variable b = rec.popDouble();
+						long b = rec.popDouble();
 						rec.push(a);
 						rec.push(b);
 					} else {
-						Variable b = rec.pop();
-						Variable c = rec.pop();
+						long b = rec.pop();
+						long c = rec.pop();
 						rec.push(a);
 						rec.push(c);
 						rec.push(b);
@@ -199,8 +201,8 @@ class Analysis {
 					if (rec.isTopDoubleSlot()) {
 						rec.push(rec.peekDouble());
 					} else {
-						Variable a = rec.pop();
-						Variable b = rec.peek();
+						long a = rec.pop();
+						long b = rec.peek();
 						rec.push(a);
 						rec.push(b);
 						rec.push(a);
@@ -209,15 +211,15 @@ class Analysis {
 					break;
 				case Opcodes.DUP2_X1:
 					if (rec.isTopDoubleSlot()) {
-						Variable a = rec.popDouble();
-						Variable b = rec.pop();
+						long a = rec.popDouble();
+						long b = rec.pop();
 						rec.push(a);
 						rec.push(b);
 						rec.push(a);
 					} else {
-						Variable a = rec.pop();
-						Variable b = rec.pop();
-						Variable c = rec.pop();
+						long a = rec.pop();
+						long b = rec.pop();
+						long c = rec.pop();
 						rec.push(b);
 						rec.push(a);
 						rec.push(c);
@@ -228,15 +230,15 @@ class Analysis {
 					break;
 				case Opcodes.DUP2_X2:
 					if (rec.isTopDoubleSlot()) {
-						Variable a = rec.popDouble();
+						long a = rec.popDouble();
 
 						if (rec.isTopDoubleSlot()) {
-							Variable b = rec.popDouble();
+							long b = rec.popDouble();
 							rec.push(a);
 							rec.push(b);
 						} else {
-							Variable b = rec.pop();
-							Variable c = rec.pop();
+							long b = rec.pop();
+							long c = rec.pop();
 							rec.push(a);
 							rec.push(c);
 							rec.push(b);
@@ -244,17 +246,17 @@ class Analysis {
 
 						rec.push(a);
 					} else {
-						Variable a = rec.pop();
-						Variable b = rec.pop();
+						long a = rec.pop();
+						long b = rec.pop();
 
 						if (rec.isTopDoubleSlot()) {
-							Variable c = rec.popDouble();
+							long c = rec.popDouble();
 							rec.push(b);
 							rec.push(a);
 							rec.push(c);
 						} else {
-							Variable c = rec.pop();
-							Variable d = rec.pop();
+							long c = rec.pop();
+							long d = rec.pop();
 							rec.push(b);
 							rec.push(a);
 							rec.push(d);
@@ -267,8 +269,8 @@ class Analysis {
 
 					break;
 				case Opcodes.SWAP: {
-					Variable a = rec.pop();
-					Variable b = rec.pop();
+					long a = rec.pop();
+					long b = rec.pop();
 					rec.push(a);
 					rec.push(b);
 					break;
@@ -290,8 +292,8 @@ class Analysis {
 				case Opcodes.IOR:
 				case Opcodes.IXOR: {
 					rec.pop();
-					Variable arg1 = rec.pop();
-					rec.push(arg1.type, rec.getNextVarId(VarSource.Computed));
+					long arg1 = rec.pop();
+					rec.push(rec.typeOf(arg1), rec.getNextVarId(VarSource.Computed));
 					break;
 				}
 				case Opcodes.LADD:
@@ -308,25 +310,25 @@ class Analysis {
 				case Opcodes.LOR:
 				case Opcodes.LXOR: {
 					rec.popDouble();
-					Variable arg1 = rec.popDouble();
-					rec.push(arg1.type, rec.getNextVarId(VarSource.Computed));
+					long arg1 = rec.popDouble();
+					rec.push(rec.typeOf(arg1), rec.getNextVarId(VarSource.Computed));
 					break;
 				}
 				case Opcodes.LSHL:
 				case Opcodes.LSHR:
 				case Opcodes.LUSHR: {
 					rec.pop();
-					Variable var = rec.popDouble();
-					rec.push(var.type, rec.getNextVarId(VarSource.Computed));
+					long var = rec.popDouble();
+					rec.push(rec.typeOf(var), rec.getNextVarId(VarSource.Computed));
 					break;
 				}
 				case Opcodes.INEG:
 				case Opcodes.FNEG:
-					rec.push(rec.pop().type, rec.getNextVarId(VarSource.Computed));
+					rec.push(rec.typeOf(rec.pop()), rec.getNextVarId(VarSource.Computed));
 					break;
 				case Opcodes.LNEG:
 				case Opcodes.DNEG:
-					rec.push(rec.popDouble().type, rec.getNextVarId(VarSource.Computed));
+					rec.push(rec.typeOf(rec.popDouble()), rec.getNextVarId(VarSource.Computed));
 					break;
 				case Opcodes.I2L:
 				case Opcodes.F2L:
@@ -401,13 +403,13 @@ class Analysis {
 					rec.push(common.INT, rec.getNextVarId(VarSource.Computed));
 					break;
 				case Opcodes.ATHROW: {
-					Variable ex = rec.pop();
+					long ex = rec.pop();
 					rec.clearStack();
-					rec.push(ex.type, rec.getNextVarId(VarSource.IntException)); // same object, but new scope
+					rec.push(rec.typeOf(ex), rec.getNextVarId(VarSource.IntException)); // same object, but new scope
 					LabelNode handler = null;
 
 					for (TryCatchBlockNode n : asmNode.tryCatchBlocks) {
-						if (il.indexOf(n.start) <= idx && il.indexOf(n.end) > idx && (n.type == null || method.getEnv().getClsByName(n.type).isAssignableFrom(ex.type))) {
+						if (il.indexOf(n.start) <= idx && il.indexOf(n.end) > idx && (n.type == null || rec.getCls(ClassInstance.getId(n.type)).isAssignableFrom(rec.typeOf(ex)))) {
 							handler = n.handler;
 							break;
 						}
@@ -416,7 +418,7 @@ class Analysis {
 					if (handler != null) {
 						int dstIdx = il.indexOf(handler);
 						if (!exitPoints.containsKey(ain)) exitPoints.put(ain, new int[] { dstIdx });
-						rec.jump(dstIdx);
+						if (!rec.jump(dstIdx)) break insnLoop;
 						idx = dstIdx;
 					} else {
 						if (!exitPoints.containsKey(ain)) exitPoints.put(ain, null);
@@ -440,22 +442,7 @@ class Analysis {
 					break;
 				case Opcodes.NEWARRAY: {
 					rec.pop();
-					String arrayType;
-
-					switch (((IntInsnNode) ain).operand) {
-					case Opcodes.T_BOOLEAN: arrayType = "[Z"; break;
-					case Opcodes.T_CHAR: arrayType = "[C"; break;
-					case Opcodes.T_FLOAT: arrayType = "[F"; break;
-					case Opcodes.T_DOUBLE: arrayType = "[D"; break;
-					case Opcodes.T_BYTE: arrayType = "[B"; break;
-					case Opcodes.T_SHORT: arrayType = "[S"; break;
-					case Opcodes.T_INT: arrayType = "[I"; break;
-					case Opcodes.T_LONG: arrayType = "[J"; break;
-					default:
-						throw new UnsupportedOperationException("unknown NEWARRAY operand: "+((IntInsnNode) ain).operand);
-					}
-
-					rec.push(method.getEnv().getCreateClassInstance(arrayType), rec.getNextVarId(VarSource.New));
+					rec.push(rec.getCls(getNewArrayDesc(((IntInsnNode) ain).operand)), rec.getNextVarId(VarSource.New));
 					break;
 				}
 
@@ -484,25 +471,15 @@ class Analysis {
 
 				// TypeInsnNode
 				case Opcodes.NEW:
-					rec.push(method.getEnv().getCreateClassInstance(ClassInstance.getId(((TypeInsnNode) ain).desc)), rec.getNextVarId(VarSource.New));
+					rec.push(rec.getCls(ClassInstance.getId(((TypeInsnNode) ain).desc)), rec.getNextVarId(VarSource.New));
 					break;
-				case Opcodes.ANEWARRAY: {
-					String desc = ((TypeInsnNode) ain).desc;
-
-					if (desc.startsWith("[")) {
-						desc = "["+desc;
-					} else {
-						assert !desc.startsWith("L");
-						desc = "[L"+desc+";";
-					}
-
+				case Opcodes.ANEWARRAY:
 					rec.pop();
-					rec.push(method.getEnv().getCreateClassInstance(desc), rec.getNextVarId(VarSource.New));
+					rec.push(rec.getCls(getANewArrayDesc(((TypeInsnNode) ain).desc)), rec.getNextVarId(VarSource.New));
 					break;
-				}
 				case Opcodes.CHECKCAST:
 					rec.pop();
-					rec.push(method.getEnv().getCreateClassInstance(ClassInstance.getId(((TypeInsnNode) ain).desc)), rec.getNextVarId(VarSource.Cast)); // TODO: ignore if widening cast?
+					rec.push(rec.getCls(ClassInstance.getId(((TypeInsnNode) ain).desc)), rec.getNextVarId(VarSource.Cast)); // TODO: ignore if widening cast?
 					break;
 				case Opcodes.INSTANCEOF: {
 					rec.pop();
@@ -516,11 +493,11 @@ class Analysis {
 				case Opcodes.GETFIELD:
 				case Opcodes.PUTFIELD: {
 					FieldInsnNode in = (FieldInsnNode) ain;
-					FieldInstance field = method.getEnv().getClsByName(in.owner).resolveField(in.name, in.desc);
+					ClassInstance type = rec.getCls(in.desc);
 					boolean isWrite = (op == Opcodes.PUTFIELD || op == Opcodes.PUTSTATIC);
 
 					if (isWrite) { // put*
-						if (field.getType().getSlotSize() == 1) {
+						if (type.getSlotSize() == 1) {
 							rec.pop();
 						} else {
 							rec.popDouble();
@@ -531,7 +508,7 @@ class Analysis {
 						rec.pop();
 					}
 
-					if (!isWrite) rec.push(field.getType(), rec.getNextVarId(VarSource.Field)); // get*
+					if (!isWrite) rec.push(type, rec.getNextVarId(VarSource.Field)); // get*
 
 					break;
 				}
@@ -542,36 +519,14 @@ class Analysis {
 				case Opcodes.INVOKESTATIC:
 				case Opcodes.INVOKEINTERFACE: {
 					MethodInsnNode in = (MethodInsnNode) ain;
-					handleMethodInvocation(method.getEnv(), in.owner, in.name, in.desc, in.itf, op == Opcodes.INVOKESTATIC, rec);
+					handleMethodInvocation(in.desc, op == Opcodes.INVOKESTATIC, rec);
 					break;
 				}
 
 				// InvokeDynamicInsnNode:
 				case Opcodes.INVOKEDYNAMIC: {
 					InvokeDynamicInsnNode in = (InvokeDynamicInsnNode) ain;
-
-					int pos = in.desc.lastIndexOf(')');
-					if (pos == -1 || pos == in.desc.length() - 1) throw new RuntimeException("invalid invokedynamic desc");
-
-					if (pos != 1) { // not just ()*
-						Type[] args = Type.getArgumentTypes(in.desc);
-
-						for (int i = args.length - 1; i >= 0; i--) {
-							ClassInstance argType = method.getEnv().getCreateClassInstance(args[i].getDescriptor());
-
-							if (argType.getSlotSize() == 1) {
-								rec.pop();
-							} else {
-								rec.popDouble();
-							}
-						}
-					}
-
-					if (pos != in.desc.length() - 2 || in.desc.charAt(pos + 1) != 'V') { // not *)V
-						ClassInstance retType = method.getEnv().getCreateClassInstance(in.desc.substring(pos + 1));
-						rec.push(retType, rec.getNextVarId(VarSource.MethodRet));
-					}
-
+					handleMethodInvocation(in.desc, true, rec);
 					break;
 				}
 
@@ -608,8 +563,7 @@ class Analysis {
 						} else {
 							if (!exitPoints.containsKey(ain)) exitPoints.put(ain, new int[] { dstIdx, idx + 1 });
 
-							QueueElement e = new QueueElement(dstIdx, rec.getState());
-							if (queued.add(e)) queue.add(e);
+							if (rec.mergeInto(dstIdx)) pending.set(dstIdx);
 						}
 					} else { // no-op jump
 						if (!exitPoints.containsKey(ain)) exitPoints.put(ain, new int[] { dstIdx });
@@ -642,10 +596,10 @@ class Analysis {
 						switch (type.getSort()) {
 						case Type.OBJECT:
 						case Type.ARRAY:
-							rec.push(method.getEnv().getCreateClassInstance("Ljava/lang/Class;"), rec.getNextVarId(VarSource.Constant));
+							rec.push(rec.getCls("Ljava/lang/Class;"), rec.getNextVarId(VarSource.Constant));
 							break;
 						case Type.METHOD:
-							rec.push(method.getEnv().getCreateClassInstance("Ljava/lang/invoke/MethodType;"), rec.getNextVarId(VarSource.Constant));
+							rec.push(rec.getCls("Ljava/lang/invoke/MethodType;"), rec.getNextVarId(VarSource.Constant));
 							break;
 						default:
 							throw new UnsupportedOperationException("unsupported type sort: "+type.getSort());
@@ -677,11 +631,9 @@ class Analysis {
 						exitPoints.put(ain, dsts.stream().mapToInt(il::indexOf).toArray());
 					}
 
-					ExecState state = rec.getState();
-
 					for (LabelNode label : in.labels) {
-						QueueElement e = new QueueElement(il.indexOf(label), state);
-						if (queued.add(e)) queue.add(e);
+						int dstIdx = il.indexOf(label);
+						if (rec.mergeInto(dstIdx)) pending.set(dstIdx);
 					}
 
 					int dstIdx = il.indexOf(in.dflt);
@@ -703,11 +655,9 @@ class Analysis {
 						exitPoints.put(ain, dsts.stream().mapToInt(il::indexOf).toArray());
 					}
 
-					ExecState state = rec.getState();
-
 					for (LabelNode label : in.labels) {
-						QueueElement e = new QueueElement(il.indexOf(label), state);
-						if (queued.add(e)) queue.add(e);
+						int dstIdx = il.indexOf(label);
+						if (rec.mergeInto(dstIdx)) pending.set(dstIdx);
 					}
 
 					int dstIdx = il.indexOf(in.dflt);
@@ -719,7 +669,7 @@ class Analysis {
 				// MultiANewArrayInsnNode
 				case Opcodes.MULTIANEWARRAY: {
 					MultiANewArrayInsnNode in = (MultiANewArrayInsnNode) ain;
-					ClassInstance cls = method.getEnv().getCreateClassInstance(in.desc);
+					ClassInstance cls = rec.getCls(in.desc);
 					assert in.dims == cls.getArrayDimensions();
 
 					for (int i = 0; i < in.dims; i++) {
@@ -737,23 +687,164 @@ class Analysis {
 			}
 		}
 
-		rec.dump(il);
+		if (trace) rec.dump(il);
 
 		BitSet entryPoints = getEntryPoints(asmNode, exitPoints);
 		applyTryCatchExits(asmNode, entryPoints, exitPoints);
 		addDirectExits(il, entryPoints, exitPoints);
 		purgeLocals(il, rec, entryPoints, exitPoints);
 
-		rec.dump(il);
+		if (trace) rec.dump(il);
+
+		return createLocalVariables(method, il, rec, entryPoints, exitPoints, trace ? asmNode.localVariables : null);
+	}
+
+	/**
+	 * Select the input methods without local variable table for analyzeMethods and create the classes their analysis may look up.
+	 *
+	 * <p>Class creation isn't thread safe, the analysis itself only looks up existing classes.
+	 */
+	static List<MethodInstance> prepareMethods(Collection<ClassInstance> classes) {
+		List<MethodInstance> ret = new ArrayList<>();
+
+		for (ClassInstance cls : classes) {
+			if (!cls.isReal() || !cls.isInput()) continue;
+
+			for (MethodInstance method : cls.getMethods()) {
+				MethodNode asmNode = method.getAsmNode();
+
+				if (asmNode != null
+						&& method.vars == MethodInstance.emptyVars // no local variable table
+						&& asmNode.instructions.size() > 0) {
+					resolveClasses(method);
+					ret.add(method);
+				}
+			}
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Analyze the prepared methods in parallel and use the reconstructed local variables as their vars.
+	 */
+	static void analyzeMethods(List<MethodInstance> methods, CommonClasses common) {
+		AtomicInteger failed = new AtomicInteger();
+
+		Matcher.runInParallel(methods, method -> {
+			try {
+				MethodVarInstance[] vars = analyzeMethod(method, common);
+				if (vars != null) method.vars = vars;
+			} catch (RuntimeException e) {
+				failed.incrementAndGet();
+				Matcher.LOGGER.debug("Analyzing {} failed: {}", method, e.toString());
+			}
+		}, method -> method.getAsmNode().instructions.size(), progress -> { }, null);
 
-		createLocalVariables(il, rec, entryPoints, exitPoints, asmNode.localVariables);
+		if (failed.get() > 0) {
+			Matcher.LOGGER.warn("Analysis failed for {} of {} methods", failed.get(), methods.size());
+		}
 	}
 
-	private static void handleMethodInvocation(ClassEnv env, String owner, String name, String desc, boolean itf, boolean isStatic, StateRecorder rec) {
-		MethodInstance target = env.getClsByName(owner).resolveMethod(name, desc, itf);
+	private static void resolveClasses(MethodInstance method) {
+		ClassEnv env = method.getEnv();
+		MethodNode asmNode = method.getAsmNode();
+
+		resolveClass("Ljava/lang/Object;", env);
+		resolveClass("[Ljava/lang/Object;", env); // common super class of reference arrays
+		resolveClass("Ljava/lang/Throwable;", env);
+
+		for (MethodVarInstance arg : method.getArgs()) {
+			resolveClass(arg.getType().getId(), env);
+		}
+
+		for (Iterator<AbstractInsnNode> it = asmNode.instructions.iterator(); it.hasNext(); ) {
+			AbstractInsnNode ain = it.next();
+
+			switch (ain.getType()) {
+			case AbstractInsnNode.INT_INSN:
+				if (ain.getOpcode() == Opcodes.NEWARRAY) resolveClass(getNewArrayDesc(((IntInsnNode) ain).operand), env);
+				break;
+			case AbstractInsnNode.TYPE_INSN: {
+				TypeInsnNode in = (TypeInsnNode) ain;
+
+				if (in.getOpcode() == Opcodes.ANEWARRAY) {
+					resolveClass(getANewArrayDesc(in.desc), env);
+				} else {
+					resolveClass(ClassInstance.getId(in.desc), env);
+				}
+
+				break;
+			}
+			case AbstractInsnNode.FIELD_INSN:
+				resolveClass(((FieldInsnNode) ain).desc, env);
+				break;
+			case AbstractInsnNode.METHOD_INSN:
+				resolveClass(Type.getReturnType(((MethodInsnNode) ain).desc).getDescriptor(), env);
+				break;
+			case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+				resolveClass(Type.getReturnType(((InvokeDynamicInsnNode) ain).desc).getDescriptor(), env);
+				break;
+			case AbstractInsnNode.LDC_INSN: {
+				Object cst = ((LdcInsnNode) ain).cst;
+
+				if (cst instanceof Type) {
+					resolveClass(((Type) cst).getSort() == Type.METHOD ? "Ljava/lang/invoke/MethodType;" : "Ljava/lang/Class;", env);
+				}
 
-		for (int i = target.args.length - 1; i >= 0; i--) {
-			if (target.args[i].getType().getSlotSize() == 1) {
+				break;
+			}
+			case AbstractInsnNode.MULTIANEWARRAY_INSN:
+				resolveClass(((MultiANewArrayInsnNode) ain).desc, env);
+				break;
+			}
+		}
+
+		for (TryCatchBlockNode n : asmNode.tryCatchBlocks) {
+			if (n.type != null) resolveClass(ClassInstance.getId(n.type), env);
+		}
+	}
+
+	private static void resolveClass(String id, ClassEnv env) {
+		env.getCreateClassInstance(id);
+
+		// AALOAD steps through every array dimension
+		while (id.startsWith("[")) {
+			id = id.substring(1);
+			env.getCreateClassInstance(id);
+		}
+	}
+
+	private static String getNewArrayDesc(int operand) {
+		switch (operand) {
+		case Opcodes.T_BOOLEAN: return "[Z";
+		case Opcodes.T_CHAR: return "[C";
+		case Opcodes.T_FLOAT: return "[F";
+		case Opcodes.T_DOUBLE: return "[D";
+		case Opcodes.T_BYTE: return "[B";
+		case Opcodes.T_SHORT: return "[S";
+		case Opcodes.T_INT: return "[I";
+		case Opcodes.T_LONG: return "[J";
+		default:
+			throw new UnsupportedOperationException("unknown NEWARRAY operand: "+operand);
+		}
+	}
+
+	private static String getANewArrayDesc(String elementDesc) {
+		if (elementDesc.startsWith("[")) {
+			return "["+elementDesc;
+		} else {
+			assert !elementDesc.startsWith("L");
+			return "[L"+elementDesc+";";
+		}
+	}
+
+	private static void handleMethodInvocation(String desc, boolean isStatic, StateRecorder rec) {
+		// use the call site's desc, it may differ from the target method's for signature polymorphic methods
+		Type[] args = Type.getArgumentTypes(desc);
+
+		for (int i = args.length - 1; i >= 0; i--) {
+			if (args[i].getSize() == 1) {
 				rec.pop();
 			} else {
 				rec.popDouble();
@@ -762,45 +853,37 @@ class Analysis {
 
 		if (!isStatic) rec.pop();
 
-		if (target.getRetType() != rec.common.VOID) {
-			rec.push(target.getRetType(), rec.getNextVarId(VarSource.MethodRet));
+		Type retType = Type.getReturnType(desc);
+
+		if (retType.getSort() != Type.VOID) {
+			rec.push(rec.getCls(retType.getDescriptor()), rec.getNextVarId(VarSource.MethodRet));
 		}
 	}
 
-	private static boolean queueTryCatchBlocks(MethodInstance method, StateRecorder rec, Queue<QueueElement> queue, Set<QueueElement> queued) {
-		if (method.getAsmNode().tryCatchBlocks.isEmpty()) return false;
+	private static boolean queueTryCatchBlocks(MethodNode asmNode, StateRecorder rec, BitSet pending) {
+		if (asmNode.tryCatchBlocks.isEmpty()) return false;
 
-		InsnList il = method.getAsmNode().instructions;
-		Set<ExecState> states = new HashSet<>();
+		InsnList il = asmNode.instructions;
 		boolean ret = false;
 
-		for (TryCatchBlockNode n : method.getAsmNode().tryCatchBlocks) {
-			ClassInstance type = n.type != null ? method.getEnv().getCreateClassInstance(ClassInstance.getId(n.type)) : method.getEnv().getCreateClassInstance("Ljava/lang/Throwable;");
-			ClassInstance[] stack = new ClassInstance[] { type };
-			int[] stackVarIds = new int[] { rec.getNextVarId(VarSource.ExtException) };
+		for (TryCatchBlockNode n : asmNode.tryCatchBlocks) {
+			ClassInstance type = n.type != null ? rec.getCls(ClassInstance.getId(n.type)) : rec.getCls("Ljava/lang/Throwable;");
+			int varId = rec.getNextVarId(VarSource.ExtException);
+			int dstIdx = il.indexOf(n.handler);
+			int[] prevLocals = null;
 
 			for (int idx = il.indexOf(n.start), max = il.indexOf(n.end); idx < max; idx++) {
 				ExecState state = rec.getState(idx);
+				if (state == null || state.locals == prevLocals) continue; // unreachable or shared with the previous instruction
 
-				if (state != null) {
-					states.add(new ExecState(Arrays.copyOf(state.locals, state.locals.length), Arrays.copyOf(state.localVarIds, state.locals.length), stack, stackVarIds));
-				}
-			}
-
-			if (states.isEmpty()) continue;
-
-			int dstIndex = il.indexOf(n.handler);
+				prevLocals = state.locals;
+				rec.loadHandlerEntry(state, type, varId);
 
-			for (ExecState state : states) {
-				QueueElement e = new QueueElement(dstIndex, state);
-
-				if (queued.add(e)) {
-					queue.add(e);
+				if (rec.mergeInto(dstIdx)) {
+					pending.set(dstIdx);
 					ret = true;
 				}
 			}
-
-			states.clear();
 		}
 
 		return ret;
@@ -818,30 +901,6 @@ class Analysis {
 		}
 	}
 
-	private static class QueueElement {
-		QueueElement(int dstIndex, ExecState srcState) {
-			this.dstIndex = dstIndex;
-			this.srcState = srcState;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (!(obj instanceof QueueElement)) return false;
-
-			QueueElement o = (QueueElement) obj;
-
-			return dstIndex == o.dstIndex && srcState.equals(o.srcState);
-		}
-
-		@Override
-		public int hashCode() {
-			return dstIndex ^ srcState.hashCode();
-		}
-
-		final int dstIndex;
-		final ExecState srcState;
-	}
-
 	private static BitSet getEntryPoints(MethodNode asmNode, Map<AbstractInsnNode, int[]> exitPoints) {
 		InsnList il = asmNode.instructions;
 		BitSet entryPoints = new BitSet(il.size());
@@ -977,12 +1036,12 @@ class Analysis {
 				if (!localsUsed.isEmpty()) { // not all used (xor -> 1 = not used)
 					changed = true;
 					int newLocalsSize = localsUsed.previousClearBit(state.locals.length - 1) + 1;
-					ClassInstance[] newLocals = newLocalsSize == 0 ? ExecState.empty : Arrays.copyOf(state.locals, newLocalsSize);
-					int[] newLocalVarIds = newLocalsSize == 0 ? ExecState.emptyIds : Arrays.copyOf(state.localVarIds, newLocalsSize);
+					int[] newLocals = newLocalsSize == 0 ? ExecState.empty : Arrays.copyOf(state.locals, newLocalsSize);
+					int[] newLocalVarIds = newLocalsSize == 0 ? ExecState.empty : Arrays.copyOf(state.localVarIds, newLocalsSize);
 					int idx = -1;
 
 					while ((idx = localsUsed.nextSetBit(idx + 1)) != -1 && idx < newLocalsSize) {
-						newLocals[idx] = null;
+						newLocals[idx] = ExecState.noType;
 						newLocalVarIds[idx] = 0;
 					}
 
@@ -1015,8 +1074,8 @@ class Analysis {
 						boolean foundMismatch = false;
 
 						for (int i = 0; i < state.locals.length; i++) {
-							if ((state.locals[i] != null) != localsSupplied.get(i)) {
-								if (state.locals[i] == null) {
+							if ((state.locals[i] != ExecState.noType) != localsSupplied.get(i)) {
+								if (state.locals[i] == ExecState.noType) {
 									throw new IllegalStateException("missing local "+i);
 								}
 
@@ -1029,12 +1088,12 @@ class Analysis {
 							changed = true;
 
 							int newLocalsSize = localsSupplied.previousSetBit(state.locals.length - 1) + 1;
-							ClassInstance[] newLocals = newLocalsSize == 0 ? ExecState.empty : Arrays.copyOf(state.locals, newLocalsSize);
-							int[] newLocalVarIds = newLocalsSize == 0 ? ExecState.emptyIds : Arrays.copyOf(state.localVarIds, newLocalsSize);
+							int[] newLocals = newLocalsSize == 0 ? ExecState.empty : Arrays.copyOf(state.locals, newLocalsSize);
+							int[] newLocalVarIds = newLocalsSize == 0 ? ExecState.empty : Arrays.copyOf(state.localVarIds, newLocalsSize);
 
 							for (int i = 0; i < newLocals.length - 1; i++) {
 								if (!localsSupplied.get(i)) {
-									newLocals[i] = null;
+									newLocals[i] = ExecState.noType;
 									newLocalVarIds[i] = 0;
 								}
 							}
@@ -1055,15 +1114,17 @@ class Analysis {
 	}
 
 	private static void markAvailableLocals(ExecState state, BitSet out) {
-		ClassInstance[] locals = state.locals;
+		if (state == null) return; // unreachable
+
+		int[] locals = state.locals;
 
 		for (int i = 0; i < locals.length; i++) {
-			if (locals[i] != null) out.set(i);
+			if (locals[i] != ExecState.noType) out.set(i);
 		}
 	}
 
-	private static List<LocalVariableNode> createLocalVariables(InsnList il, StateRecorder rec, BitSet entryPoints, Map<AbstractInsnNode, int[]> exitPoints, List<LocalVariableNode> orig) {
-		if (rec.locals.length == 0) return Collections.emptyList();
+	private static MethodVarInstance[] createLocalVariables(MethodInstance method, InsnList il, StateRecorder rec, BitSet entryPoints, Map<AbstractInsnNode, int[]> exitPoints, List<LocalVariableNode> orig) {
+		if (rec.locals.length == 0) return MethodInstance.emptyVars;
 
 		int[] lvToVar = new int[rec.locals.length];
 		int[] varToLv = new int[rec.locals.length];
@@ -1087,10 +1148,14 @@ class Analysis {
 			do {
 				ExecState state = rec.getState(idx);
 
-				for (int lvi = 0; lvi < state.locals.length; lvi++) {
-					ClassInstance vt = state.locals[lvi];
+				if (state == null) { // unreachable instruction
+					Arrays.fill(lvToVar, -1);
+				}
+
+				for (int lvi = 0; state != null && lvi < state.locals.length; lvi++) {
+					int vt = state.locals[lvi];
 
-					if (vt == null || vt == rec.common.TOP) {
+					if (vt == ExecState.noType || vt == ExecState.topType) {
 						lvToVar[lvi] = -1; // var left scope
 						continue;
 					}
@@ -1126,10 +1191,10 @@ class Analysis {
 						if (exits.length == 1) {
 							if (exits[0] == idx) cont = true;
 						} else {
-							ClassInstance[] locals = rec.getState(exits[0]).locals;
+							int[] locals = rec.getLocals(exits[0]);
 
 							for (int i = 1; i < exits.length; i++) {
-								if (!Arrays.equals(locals, rec.getState(exits[i]).locals)) {
+								if (!Arrays.equals(locals, rec.getLocals(exits[i]))) {
 									cont = false;
 									break;
 								} else if (exits[i] == idx) {
@@ -1144,13 +1209,9 @@ class Analysis {
 
 		lvToVar = null;
 
-		Matcher.LOGGER.debug("Local vars raw:");
-
-		for (int i = 0; i < varCount; i++) {
-			ExecState state = rec.getState(startIndices[i]);
-
-			Matcher.LOGGER.debug("  {}: LV {} @ {} - {}: {}\t\t({})",
-					i, varToLv[i], startIndices[i], endIndices[i], state.locals[varToLv[i]].toString(), rec.varSources[state.localVarIds[varToLv[i]] - 1].name());
+		if (Matcher.LOGGER.isTraceEnabled()) {
+			Matcher.LOGGER.trace("Local vars raw:");
+			dumpLocalVariables(rec, varCount, varToLv, startIndices, endIndices);
 		}
 
 		// merge variables if they are adjacent and reachable without interruption, TODO: this currently only merges blocks that are reachable by the preceding block, the other way is also possible
@@ -1168,7 +1229,7 @@ class Analysis {
 				final int lvi = varToLv[vi];
 				final int dstStart = startIndices[vi];
 				final int dstEnd = endIndices[vi];
-				ClassInstance type = rec.getState(startIndices[vi]).locals[lvi];
+				int type = rec.getState(startIndices[vi]).locals[lvi];
 				int vi2 = -1;
 
 				// find adjacent compatible variable that isn't within the same linear control flow block
@@ -1178,13 +1239,13 @@ class Analysis {
 						int end = endIndices[i];
 
 						if (i < vi && vi2 == -1) {
-							ClassInstance[] locals;
+							int[] locals;
 							int exit = exits.nextSetBit(start);
 							assert exit != -1;
 
 							if (end >= exit
 									&& rec.getState(start).locals[lvi] == type
-									&& (locals = rec.getState(exit).locals).length > lvi && locals[lvi] == type
+									&& (locals = rec.getLocals(exit)).length > lvi && locals[lvi] == type
 									&& exit < exits.nextSetBit(dstStart)) {
 								vi2 = i;
 							} else {
@@ -1236,7 +1297,7 @@ class Analysis {
 								assert nextExit != -1;
 
 								if (nextSet == -1 || nextSet > nextExit) {
-									ClassInstance[] locals = rec.getState(dst).locals;
+									int[] locals = rec.getLocals(dst);
 
 									if (locals.length > lvi && locals[lvi] == type) {
 										processed.set(dst, nextExit + 1);
@@ -1255,16 +1316,12 @@ class Analysis {
 			}
 		}
 
-		Matcher.LOGGER.debug("Local vars:");
-
-		for (int i = 0; i < varCount; i++) {
-			ExecState state = rec.getState(startIndices[i]);
-
-			Matcher.LOGGER.debug("  {}: LV {} @ {} - {}: {}\t\t({})",
-					i, varToLv[i], startIndices[i], endIndices[i], state.locals[varToLv[i]].toString(), rec.varSources[state.localVarIds[varToLv[i]] - 1].name());
+		if (Matcher.LOGGER.isTraceEnabled()) {
+			Matcher.LOGGER.trace("Local vars:");
+			dumpLocalVariables(rec, varCount, varToLv, startIndices, endIndices);
 		}
 
-		if (orig != null) {
+		if (orig != null) { // compare with the existing LVT for debugging
 			boolean mismatch = orig.size() != varCount;
 
 			if (!mismatch) {
@@ -1272,7 +1329,7 @@ class Analysis {
 					LocalVariableNode lvn = orig.get(i);
 
 					if (lvn.index != varToLv[i]
-							|| !lvn.desc.equals(rec.getState(startIndices[i]).locals[varToLv[i]].getId())
+							|| !lvn.desc.equals(rec.getType(rec.getState(startIndices[i]).locals[varToLv[i]]).getId())
 							|| (il.indexOf(lvn.start) > startIndices[i])
 							|| il.indexOf(lvn.end) <= endIndices[i]) {
 						mismatch = true;
@@ -1282,20 +1339,73 @@ class Analysis {
 			}
 
 			if (!mismatch) {
-				Matcher.LOGGER.debug("Existing vars matched!");
+				Matcher.LOGGER.trace("Existing vars matched!");
 			} else {
-				Matcher.LOGGER.debug("Existing vars mismatch:");
+				Matcher.LOGGER.trace("Existing vars mismatch:");
 
 				for (int i = 0; i < orig.size(); i++) {
 					LocalVariableNode lvn = orig.get(i);
 
-					Matcher.LOGGER.debug("  {}: LV {} @ {} - {}: {}",
+					Matcher.LOGGER.trace("  {}: LV {} @ {} - {}: {}",
 							i, lvn.index, il.indexOf(lvn.start), il.indexOf(lvn.end) - 1, lvn.desc);
 				}
 			}
 		}
 
-		return null;
+		return createVarInstances(method, il, rec, varCount, varToLv, startIndices, endIndices);
+	}
+
+	/**
+	 * Create the method vars for the reconstructed variables that aren't args, ordered by start and slot.
+	 */
+	private static MethodVarInstance[] createVarInstances(MethodInstance method, InsnList il, StateRecorder rec,
+			int varCount, int[] varToLv, int[] startIndices, int[] endIndices) {
+		int argSlots = method.isStatic() ? 0 : 1;
+
+		for (MethodVarInstance arg : method.getArgs()) {
+			argSlots += arg.getType().getSlotSize();
+		}
+
+		List<Integer> vars = new ArrayList<>(varCount);
+
+		for (int vi = 0; vi < varCount; vi++) {
+			if (startIndices[vi] != 0 || varToLv[vi] >= argSlots) vars.add(vi);
+		}
+
+		if (vars.isEmpty()) return MethodInstance.emptyVars;
+
+		vars.sort(Comparator.<Integer>comparingInt(vi -> startIndices[vi]).thenComparingInt(vi -> varToLv[vi]));
+		MethodVarInstance[] ret = new MethodVarInstance[vars.size()];
+
+		for (int i = 0; i < ret.length; i++) {
+			int vi = vars.get(i);
+			int lvi = varToLv[vi];
+			int startInsn = startIndices[vi];
+			ClassInstance type = normalizeVarType(rec.getType(rec.getState(startInsn).locals[lvi]), rec.common);
+			if (type == rec.common.NULL) type = rec.getCls("Ljava/lang/Object;"); // only ever assigned null
+
+			int startOpIdx = 0;
+
+			for (AbstractInsnNode ain = il.get(startInsn); (ain = ain.getPrevious()) != null; ) {
+				if (ain.getOpcode() >= 0) startOpIdx++;
+			}
+
+			// the end is exclusive like the end label of a local variable table entry
+			ret[i] = new MethodVarInstance(method, false, i, lvi, -1,
+					type, startInsn, endIndices[vi] + 1, startOpIdx,
+					null, true);
+		}
+
+		return ret;
+	}
+
+	private static void dumpLocalVariables(StateRecorder rec, int varCount, int[] varToLv, int[] startIndices, int[] endIndices) {
+		for (int i = 0; i < varCount; i++) {
+			ExecState state = rec.getState(startIndices[i]);
+
+			Matcher.LOGGER.trace("  {}: LV {} @ {} - {}: {}\t\t({})",
+					i, varToLv[i], startIndices[i], endIndices[i], rec.getType(state.locals[varToLv[i]]).toString(), rec.varSources[state.localVarIds[varToLv[i]] - 1].name());
+		}
 	}
 
 	public static class CommonClasses {
@@ -1331,55 +1441,99 @@ class Analysis {
 		StateRecorder(MethodInstance method, CommonClasses common) {
 			MethodNode asmNode = method.getAsmNode();
 
-			locals = new ClassInstance[asmNode.maxLocals];
+			this.states = new ExecState[asmNode.instructions.size()];
+			this.common = common;
+			this.env = method.getEnv();
+
+			locals = new int[asmNode.maxLocals];
 			localVarIds = new int[locals.length];
-			stack = new ClassInstance[asmNode.maxStack];
+			stack = new int[asmNode.maxStack];
 			stackVarIds = new int[stack.length];
 
+			int top = typeId(common.TOP);
+			assert top == ExecState.topType;
+
 			if (!method.isStatic()) {
-				localVarIds[localsSize] = getNextVarId(VarSource.Arg);
-				locals[localsSize++] = method.getCls();
+				set(localsSize, method.getCls(), getNextVarId(VarSource.Arg));
 			}
 
 			for (MethodVarInstance arg : method.getArgs()) {
-				localVarIds[localsSize] = getNextVarId(VarSource.Arg);
-				locals[localsSize++] = arg.getType();
-				if (arg.getType().getSlotSize() == 2) locals[localsSize++] = common.TOP;
+				set(localsSize, arg.getType(), getNextVarId(VarSource.Arg));
 			}
 
-			this.states = new ExecState[asmNode.instructions.size()];
-			this.common = common;
+			updateState(false);
+		}
+
+		ClassInstance getCls(String id) {
+			ClassInstance ret = env.getClsById(id);
+			if (ret == null) throw new IllegalStateException("class "+id+" wasn't resolved before the analysis");
+
+			return ret;
+		}
 
-			updateState();
+		ClassInstance getElementCls(ClassInstance array) {
+			ClassInstance ret = array.getElementClassShallow(false);
+			if (ret == null) throw new IllegalStateException("element class of "+array+" wasn't resolved before the analysis");
+
+			return ret;
+		}
+
+		int typeId(ClassInstance cls) {
+			if (cls == null) return ExecState.noType;
+
+			Integer ret = typeIds.get(cls);
+			if (ret != null) return ret;
+
+			if (typeCount == types.length) types = Arrays.copyOf(types, types.length * 2);
+			types[typeCount] = cls;
+			typeIds.put(cls, typeCount);
+
+			return typeCount++;
 		}
 
-		void push(Variable var) {
-			push(var.type, var.id);
+		ClassInstance getType(int typeId) {
+			return types[typeId];
+		}
+
+		ClassInstance typeOf(long var) {
+			return types[(int) (var >>> 32)];
+		}
+
+		private boolean isDoubleSlot(int typeId) {
+			return typeId > ExecState.topType && types[typeId].getSlotSize() == 2;
+		}
+
+		private static long toVar(int typeId, int varId) {
+			return (long) typeId << 32 | varId & 0xffffffffL;
+		}
+
+		void push(long var) {
+			pushType((int) (var >>> 32), (int) var);
 		}
 
 		void push(ClassInstance cls, int varId) {
+			pushType(typeId(cls), varId);
+		}
+
+		private void pushType(int typeId, int varId) {
 			stackVarIds[stackSize] = varId;
-			stack[stackSize++] = cls;
+			stack[stackSize++] = typeId;
 
-			if (cls.getSlotSize() == 2) {
+			if (isDoubleSlot(typeId)) {
 				stackVarIds[stackSize] = 0;
-				stack[stackSize++] = common.TOP;
+				stack[stackSize++] = ExecState.topType;
 			}
 		}
 
-		Variable pop() {
+		long pop() {
 			if (stackSize < 1) {
 				throw new IllegalStateException("pop from empty stack");
 			}
 
-			ClassInstance ret = stack[--stackSize];
-			stack[stackSize] = null;
-			int id = stackVarIds[stackSize];
-			stackVarIds[stackSize] = 0;
-
-			if (ret != null && ret.getSlotSize() == 2) throw new IllegalStateException("pop for double element");
+			int ret = stack[--stackSize];
+			if (isDoubleSlot(ret)) throw new IllegalStateException("pop for double element");
 
-			return new Variable(ret, id);
+			return toVar(ret, stackVarIds[stackSize]);
 		}
 
 		void pop2() {
@@ -1387,92 +1541,84 @@ class Analysis {
 				throw new IllegalStateException("pop2 from empty/single slot stack");
 			}
 
-			stack[--stackSize] = null;
-			stackVarIds[stackSize] = 0;
-
-			stack[--stackSize] = null;
-			stackVarIds[stackSize] = 0;
+			stackSize -= 2;
 		}
 
-		Variable popDouble() {
+		long popDouble() {
 			if (stackSize < 2) {
 				throw new IllegalStateException("pop2 from empty/single slot stack");
 			}
 
-			stack[--stackSize] = null;
-			stackVarIds[stackSize] = 0;
-
-			ClassInstance ret = stack[--stackSize];
-			stack[stackSize] = null;
-			int id = stackVarIds[stackSize];
-			stackVarIds[stackSize] = 0;
+			stackSize -= 2;
+			int ret = stack[stackSize];
 
-			if (ret == null || ret.getSlotSize() != 2) {
+			if (!isDoubleSlot(ret)) {
 				throw new IllegalStateException("pop2Double for single element");
 			}
 
-			return new Variable(ret, id);
+			return toVar(ret, stackVarIds[stackSize]);
 		}
 
-		Variable peek() {
+		long peek() {
 			if (stackSize < 1) {
 				throw new IllegalStateException("peek at empty stack");
 			}
 
-			return new Variable(stack[stackSize - 1], stackVarIds[stackSize - 1]);
+			return toVar(stack[stackSize - 1], stackVarIds[stackSize - 1]);
 		}
 
-		Variable peekDouble() {
+		long peekDouble() {
 			if (stackSize < 2) {
 				throw new IllegalStateException("peekDouble at empty/single slot stack");
 			}
 
-			ClassInstance ret = stack[stackSize - 2];
+			int ret = stack[stackSize - 2];
 
-			if (ret == null || ret.getSlotSize() != 2) {
+			if (!isDoubleSlot(ret)) {
 				throw new IllegalStateException("peekDouble for single element");
 			}
 
-			return new Variable(ret, stackVarIds[stackSize - 2]);
+			return toVar(ret, stackVarIds[stackSize - 2]);
 		}
 
 		void clearStack() {
-			while (stackSize > 0) {
-				stack[--stackSize] = null;
-				stackVarIds[stackSize] = 0;
-			}
+			stackSize = 0;
 		}
 
 		boolean isTopDoubleSlot() {
-			if (stackSize < 2) return false;
-
-			ClassInstance cls = stack[stackSize - 2];
-
-			return cls != null && cls.getSlotSize() == 2;
+			return stackSize >= 2 && isDoubleSlot(stack[stackSize - 2]);
 		}
 
 		ClassInstance get(int lvtIdx) {
-			ClassInstance ret = locals[lvtIdx];
-			if (ret == null) throw new IllegalStateException("unassigned local var requested");
+			if (lvtIdx >= localsSize || locals[lvtIdx] == ExecState.noType) throw new IllegalStateException("unassigned local var requested");
 
-			return ret;
+			return types[locals[lvtIdx]];
 		}
 
 		int getId(int lvtIdx) {
 			return localVarIds[lvtIdx];
 		}
 
-		void set(int lvtIdx, Variable var) {
-			set(lvtIdx, var.type, var.id);
+		void set(int lvtIdx, long var) {
+			setType(lvtIdx, (int) (var >>> 32), (int) var);
 		}
 
 		void set(int lvtIdx, ClassInstance value, int varId) {
-			locals[lvtIdx] = value;
+			setType(lvtIdx, typeId(value), varId);
+		}
+
+		private void setType(int lvtIdx, int typeId, int varId) {
+			if (lvtIdx >= localsSize) { // the slots in between may hold leftovers from a previously loaded state
+				Arrays.fill(locals, localsSize, lvtIdx, ExecState.noType);
+				Arrays.fill(localVarIds, localsSize, lvtIdx, 0);
+				localsSize = lvtIdx + 1;
+			}
+
+			locals[lvtIdx] = typeId;
 			localVarIds[lvtIdx] = varId;
-			if (lvtIdx >= localsSize) localsSize = lvtIdx + 1;
 
-			if (value != null && value.getSlotSize() == 2) {
-				locals[lvtIdx + 1] = common.TOP;
+			if (isDoubleSlot(typeId)) {
+				locals[lvtIdx + 1] = ExecState.topType;
 				localVarIds[lvtIdx + 1] = 0;
 				if (lvtIdx + 1 >= localsSize) localsSize = lvtIdx + 2;
 			}
@@ -1481,95 +1627,142 @@ class Analysis {
 		boolean next() {
 			idx++;
 
-			return updateState();
+			return updateState(true);
 		}
 
 		boolean jump(int dstIdx) {
 			idx = dstIdx;
 
-			return updateState();
+			return updateState(true);
 		}
 
-		boolean jump(int dstIdx, ExecState srcState) {
-			System.arraycopy(srcState.locals, 0, locals, 0, srcState.locals.length);
-			System.arraycopy(srcState.localVarIds, 0, localVarIds, 0, srcState.locals.length);
-			System.arraycopy(srcState.stack, 0, stack, 0, srcState.stack.length);
-			System.arraycopy(srcState.stackVarIds, 0, stackVarIds, 0, srcState.stack.length);
-			localsSize = srcState.locals.length;
-			stackSize = srcState.stack.length;
-			this.idx = dstIdx;
+		/**
+		 * Merge the current state into the state at dstIdx while staying at the current instruction.
+		 */
+		boolean mergeInto(int dstIdx) {
+			int prevIdx = idx;
+			idx = dstIdx;
+			boolean ret = updateState(false);
+			idx = prevIdx;
 
-			return updateState();
+			return ret;
 		}
 
-		private boolean updateState() {
-			ExecState oldState = states[idx];
+		void load(int idx) {
+			this.idx = idx;
+			load(states[idx]);
+		}
 
-			if (oldState == null
-					|| oldState.stack.length != stackSize
-					|| oldState.locals.length > localsSize
-					|| !compareVars(oldState.locals, locals, Math.min(oldState.locals.length, localsSize))
-					|| !compareVars(oldState.stack, stack, stackSize)) {
-				if (oldState != null) {
-					ExecState newState = mergeStates(states[idx]);
-
-					if (newState.equals(oldState)) {
-						assert false;
-						return false;
-					}
+		/**
+		 * Load the locals of state with only the caught exception on the stack, as seen by an exception handler.
+		 */
+		void loadHandlerEntry(ExecState state, ClassInstance exception, int varId) {
+			load(state);
+			stackSize = 0;
+			push(exception, varId);
+		}
 
-					states[idx] = newState;
-				} else {
-					states[idx] = new ExecState(locals, localVarIds, localsSize, stack, stackVarIds, stackSize);
-				}
+		private void load(ExecState state) {
+			System.arraycopy(state.locals, 0, locals, 0, state.locals.length);
+			System.arraycopy(state.localVarIds, 0, localVarIds, 0, state.locals.length);
+			System.arraycopy(state.stack, 0, stack, 0, state.stack.length);
+			System.arraycopy(state.stackVarIds, 0, stackVarIds, 0, state.stack.length);
+			localsSize = state.locals.length;
+			stackSize = state.stack.length;
+			lastState = state;
+		}
+
+		private boolean updateState(boolean reload) {
+			ExecState oldState = states[idx];
+
+			if (oldState == null) {
+				states[idx] = createState();
 
 				return true;
-			} else {
+			} else if (oldState.stack.length == stackSize
+					&& oldState.locals.length <= localsSize
+					&& compareVars(oldState.locals, locals, oldState.locals.length)
+					&& compareVars(oldState.stack, stack, stackSize)) { // already covered by the recorded state
 				return false;
 			}
-		}
 
-		private boolean compareVars(ClassInstance[] typesA, ClassInstance[] typesB, int size) {
-			for (int i = 0; i < size; i++) {
-				ClassInstance a = typesA[i];
-				ClassInstance b = typesB[i];
-				ClassInstance commonCls = getCommonSuperClass(a, b);
+			ExecState newState = mergeStates(oldState);
 
-				if (commonCls != a) return false;
+			if (newState.equals(oldState)) {
+				assert false;
+				return false;
 			}
 
+			states[idx] = newState;
+			if (reload) load(newState); // continue with the merged state like the block worklist does
+
 			return true;
 		}
 
-		public ExecState getState() {
-			return new ExecState(locals, localVarIds, localsSize, stack, stackVarIds, stackSize);
+		/**
+		 * Snapshot the current state, sharing the arrays of the last state where they didn't change.
+		 */
+		private ExecState createState() {
+			ExecState prev = lastState;
+			boolean sameLocals = prev != null && isSame(prev.locals, locals, localsSize) && isSame(prev.localVarIds, localVarIds, localsSize);
+			boolean sameStack = prev != null && isSame(prev.stack, stack, stackSize) && isSame(prev.stackVarIds, stackVarIds, stackSize);
+			if (sameLocals && sameStack) return prev;
+
+			return lastState = new ExecState(sameLocals ? prev.locals : copy(locals, localsSize),
+					sameLocals ? prev.localVarIds : copy(localVarIds, localsSize),
+					sameStack ? prev.stack : copy(stack, stackSize),
+					sameStack ? prev.stackVarIds : copy(stackVarIds, stackSize));
+		}
+
+		private static boolean isSame(int[] recorded, int[] current, int size) {
+			return recorded.length == size && Arrays.equals(recorded, 0, size, current, 0, size);
+		}
+
+		private static int[] copy(int[] values, int size) {
+			return size != 0 ? Arrays.copyOf(values, size) : ExecState.empty;
+		}
+
+		private boolean compareVars(int[] typesA, int[] typesB, int size) {
+			for (int i = 0; i < size; i++) {
+				int a = typesA[i];
+
+				if (a != typesB[i] && getCommonSuperType(a, typesB[i]) != a) return false;
+			}
+
+			return true;
 		}
 
 		public ExecState getState(int idx) {
 			return states[idx];
 		}
 
+		int[] getLocals(int idx) {
+			ExecState state = states[idx];
+
+			return state != null ? state.locals : ExecState.empty; // no state if unreachable
+		}
+
 		public void setState(int idx, ExecState state) {
 			states[idx] = state;
 		}
 
 		private ExecState mergeStates(ExecState oldState) {
 			int lastUsed = -1;
-			ClassInstance[] newLocals = null;
+			int[] newLocals = null;
 			int[] newLocalVarIds = null;
 
 			for (int i = 0, max = Math.min(oldState.locals.length, localsSize); i < max; i++) {
-				ClassInstance a = oldState.locals[i];
-				ClassInstance b = locals[i];
-				ClassInstance commonCls = getCommonSuperClass(a, b);
+				int a = oldState.locals[i];
+				int b = locals[i];
+				int commonType = getCommonSuperType(a, b);
 
-				if (commonCls != a) {
+				if (commonType != a) {
 					if (newLocals == null) newLocals = Arrays.copyOf(oldState.locals, max);
 
-					newLocals[i] = commonCls;
+					newLocals[i] = commonType;
 				}
 
-				if (commonCls != null) {
+				if (commonType != ExecState.noType) {
 					lastUsed = i;
 				} else if (oldState.localVarIds[i] != 0) {
 					if (newLocalVarIds == null) newLocalVarIds = Arrays.copyOf(oldState.localVarIds, max);
@@ -1595,21 +1788,21 @@ class Analysis {
 				throw new IllegalStateException("mismatched stack sizes");
 			}
 
-			ClassInstance[] newStack = null;
+			int[] newStack = null;
 
 			for (int i = 0; i < stackSize; i++) {
-				ClassInstance a = oldState.stack[i];
-				ClassInstance b = stack[i];
-				ClassInstance commonCls = getCommonSuperClass(a, b);
+				int a = oldState.stack[i];
+				int b = stack[i];
+				int commonType = getCommonSuperType(a, b);
 
-				if (commonCls == null) {
-					throw new IllegalStateException("incompatible stack types: "+a+" "+b);
+				if (commonType == ExecState.noType) {
+					throw new IllegalStateException("incompatible stack types: "+types[a]+" "+types[b]);
 				}
 
-				if (commonCls != a) {
+				if (commonType != a) {
 					if (newStack == null) newStack = Arrays.copyOf(oldState.stack, stackSize);
 
-					newStack[i] = commonCls;
+					newStack[i] = commonType;
 				}
 
 				if (stackVarIds[i] != oldState.stackVarIds[i]) {
@@ -1622,6 +1815,16 @@ class Analysis {
 			return new ExecState(newLocals, newLocalVarIds, newStack, oldState.stackVarIds);
 		}
 
+		private int getCommonSuperType(int a, int b) {
+			if (a == b) {
+				return a;
+			} else if (a == ExecState.noType || b == ExecState.noType) {
+				return ExecState.noType;
+			} else {
+				return typeId(getCommonSuperClass(types[a], types[b]));
+			}
+		}
+
 		private ClassInstance getCommonSuperClass(ClassInstance a, ClassInstance b) {
 			if (a == b) {
 				return a;
@@ -1641,11 +1844,35 @@ class Analysis {
 				} else {
 					return null;
 				}
+			} else if (a.isArray() && b.isArray()) {
+				return getCommonArrayClass(a, b);
 			} else {
 				return a.getCommonSuperClass(b);
 			}
 		}
 
+		/**
+		 * Determine the common super class of two distinct arrays, keeping it an array so element loads still work.
+		 */
+		private ClassInstance getCommonArrayClass(ClassInstance a, ClassInstance b) {
+			ClassInstance elementA = a.getElementClass();
+			ClassInstance elementB = b.getElementClass();
+			int dims = a.getArrayDimensions();
+
+			if (dims == b.getArrayDimensions() && !elementA.isPrimitive() && !elementB.isPrimitive()) {
+				ClassInstance element = elementA.getCommonSuperClass(elementB);
+				ClassInstance ret = element != null ? env.getClsById("[".repeat(dims)+element.getId()) : null;
+				if (ret != null) return ret;
+			}
+
+			// any array with reference components is an Object[]
+			if ((a.getArrayDimensions() > 1 || !elementA.isPrimitive()) && (b.getArrayDimensions() > 1 || !elementB.isPrimitive())) {
+				return getCls("[Ljava/lang/Object;");
+			} else {
+				return getCls("Ljava/lang/Object;");
+			}
+		}
+
 		private void recordVarIdMap(int srcId, int dstId) {
 			assert srcId != dstId;
 
@@ -1861,34 +2088,34 @@ class Analysis {
 				sb.append('\n');
 			}
 
-			Matcher.LOGGER.debug(sb.toString());
+			Matcher.LOGGER.trace(sb.toString());
 		}
 
-		private void dumpVars(ClassInstance[] types, int[] ids, StringBuilder sb) {
+		private void dumpVars(int[] types, int[] ids, StringBuilder sb) {
 			sb.append('[');
 
 			for (int i = 0; i < types.length; i++) {
 				if (i != 0) sb.append(", ");
 
-				ClassInstance type = types[i];
+				int type = types[i];
 				int id = ids[i];
 
 				if (id == 0) {
-					if (type == common.TOP) {
+					if (type == ExecState.topType) {
 						sb.append("TOP");
 					} else {
-						assert type == null;
+						assert type == ExecState.noType;
 						sb.append("X");
 					}
 				} else {
-					assert type != null;
-					assert type != common.TOP;
+					assert type != ExecState.noType;
+					assert type != ExecState.topType;
 
 					sb.append(getMappedVarId(id));
 					sb.append(':');
 
-					if (type != common.NULL) {
-						sb.append(type.toString());
+					if (getType(type) != common.NULL) {
+						sb.append(getType(type).toString());
 					} else {
 						sb.append("null");
 					}
@@ -1896,46 +2123,33 @@ class Analysis {
 			}
 
 			sb.append(']');
-			Matcher.LOGGER.debug(sb.toString());
 		}
 
 		final ExecState[] states; // state at the start of every instruction index
-		final ClassInstance[] locals;
+		final int[] locals; // type ids, see typeId
 		final int[] localVarIds;
 		int localsSize;
-		final ClassInstance[] stack;
+		final int[] stack;
 		final int[] stackVarIds;
 		int stackSize;
 		int idx;
+		private ExecState lastState; // most recently created or loaded state
 		final CommonClasses common;
+		final ClassEnv env;
+		private ClassInstance[] types = new ClassInstance[16]; // by type id, 0 is ExecState.noType
+		private int typeCount = 1;
+		private final Map<ClassInstance, Integer> typeIds = new IdentityHashMap<>();
 		private int nextVarId;
 		VarSource[] varSources = new VarSource[10];
 		int[] varIdMap = new int[10];
 	}
 
-	private static class Variable {
-		Variable(ClassInstance type, int id) {
-			this.type = type;
-			this.id = id;
-		}
-
-		final ClassInstance type;
-		final int id;
-	}
-
 	private enum VarSource {
 		Constant, Arg, Merge, ExtException, IntException, ArrayElement, Cast, Computed, New, Field, MethodRet;
 	}
 
 	private static class ExecState {
-		ExecState(ClassInstance[] locals, int[] localVarIds, int localsSize, ClassInstance[] stack, int[] stackVarIds, int stackSize) {
-			this((localsSize != 0 ? Arrays.copyOf(locals, localsSize) : empty),
-					(localsSize != 0 ? Arrays.copyOf(localVarIds, localsSize) : emptyIds),
-					(stackSize != 0 ? Arrays.copyOf(stack, stackSize) : empty),
-					(stackSize != 0 ? Arrays.copyOf(stackVarIds, stackSize) : emptyIds));
-		}
-
-		ExecState(ClassInstance[] locals, int[] localVarIds, ClassInstance[] stack, int[] stackVarIds) {
+		ExecState(int[] locals, int[] localVarIds, int[] stack, int[] stackVarIds) {
 			if (locals == null) throw new NullPointerException("null locals");
 			if (localVarIds == null) throw new NullPointerException("null local var ids");
 			if (stack == null) throw new NullPointerException("null stack");
@@ -1962,58 +2176,91 @@ class Analysis {
 			return Arrays.hashCode(locals) ^ Arrays.hashCode(stack);
 		}
 
-		private static final ClassInstance[] empty = new ClassInstance[0];
-		private static final int[] emptyIds = new int[0];
+		static final int noType = 0; // unassigned local
+		static final int topType = 1; // 2nd slot of a long or double
+		static final int[] empty = new int[0];
 
-		final ClassInstance[] locals;
+		final int[] locals; // type ids of the recording StateRecorder
 		final int[] localVarIds;
-		final ClassInstance[] stack;
+		final int[] stack;
 		final int[] stackVarIds;
 	}
 
-	static void checkInitializer(FieldInstance field, ClassFeatureExtractor context) {
-		if (field.getType().isPrimitive()) return;
-
-		MethodInstance method = field.writeRefs.iterator().next();
-		MethodNode asmNode = method.getAsmNode();
-		InsnList il = asmNode.instructions;
-		AbstractInsnNode fieldWrite = null;
-
-		//dump(method.asmNode);
-		//Matcher.LOGGER.debug("\n------------------------\n");
+	/**
+	 * Extract the initializer of every non-primitive field written exclusively by method, sharing one analysis pass.
+	 */
+	static void extractInitializers(MethodInstance method) {
+		synchronized (method) {
+			List<FieldInstance> fields = new ArrayList<>();
 
-		for (Iterator<AbstractInsnNode> it = il.iterator(); it.hasNext(); ) {
-			AbstractInsnNode aInsn = it.next();
+			for (FieldInstance field : method.fieldWriteRefs) {
+				if (!field.initializerExtracted && isInitializerCandidate(field) && field.writeRefs.contains(method)) {
+					fields.add(field);
+				}
+			}
 
-			if (aInsn.getOpcode() == Opcodes.PUTFIELD || aInsn.getOpcode() == Opcodes.PUTSTATIC) {
-				FieldInsnNode in = (FieldInsnNode) aInsn;
-				ClassInstance cls;
+			if (fields.isEmpty()) return;
 
-				if (in.name.equals(field.origName)
-						&& in.desc.equals(field.getDesc())
-						&& (in.owner.equals(field.cls.getName()) || (cls = context.getLocalClsByName(in.owner)) != null && cls.resolveField(in.name, in.desc) == field)) {
-					fieldWrite = in;
-					break;
+			MethodNode asmNode = method.getAsmNode();
+			InsnList il = asmNode.instructions;
+			ClassEnv env = method.cls.getEnv();
+			AbstractInsnNode[] fieldWrites = new AbstractInsnNode[fields.size()];
+			int missingWrites = fieldWrites.length;
+
+			//dump(method.asmNode);
+			//Matcher.LOGGER.debug("\n------------------------\n");
+
+			for (Iterator<AbstractInsnNode> it = il.iterator(); it.hasNext() && missingWrites > 0; ) {
+				AbstractInsnNode aInsn = it.next();
+
+				if (aInsn.getOpcode() == Opcodes.PUTFIELD || aInsn.getOpcode() == Opcodes.PUTSTATIC) {
+					FieldInsnNode in = (FieldInsnNode) aInsn;
+
+					for (int i = 0; i < fieldWrites.length; i++) {
+						FieldInstance field = fields.get(i);
+						ClassInstance cls;
+
+						if (fieldWrites[i] == null
+								&& in.name.equals(field.origName)
+								&& in.desc.equals(field.getDesc())
+								&& (in.owner.equals(field.cls.getName()) || (cls = env.getLocalClsByName(in.owner)) != null && cls.resolveField(in.name, in.desc) == field)) {
+							fieldWrites[i] = in;
+							missingWrites--;
+							break;
+						}
+					}
 				}
 			}
-		}
 
-		if (fieldWrite == null) {
-			dump(asmNode);
-			throw new IllegalStateException("can't find field write insn for "+field+" in "+method);
-		}
+			if (missingWrites > 0) {
+				dump(asmNode);
+				throw new IllegalStateException("can't find field write insn for "+fields.get(Arrays.asList(fieldWrites).indexOf(null))+" in "+method);
+			}
+
+			Interpreter<SourceValue> interpreter = new SourceInterpreter();
+			Analyzer<SourceValue> analyzer = new Analyzer<>(interpreter);
+			Frame<SourceValue>[] frames;
 
-		Interpreter<SourceValue> interpreter = new SourceInterpreter();
-		Analyzer<SourceValue> analyzer = new Analyzer<>(interpreter);
-		Frame<SourceValue>[] frames;
+			try {
+				frames = analyzer.analyze(method.cls.getName(), asmNode);
+				if (frames.length != asmNode.instructions.size()) throw new RuntimeException("invalid frame count");
+			} catch (AnalyzerException e) {
+				throw new RuntimeException(e);
+			}
 
-		try {
-			frames = analyzer.analyze(method.cls.getName(), asmNode);
-			if (frames.length != asmNode.instructions.size()) throw new RuntimeException("invalid frame count");
-		} catch (AnalyzerException e) {
-			throw new RuntimeException(e);
+			for (int i = 0; i < fieldWrites.length; i++) {
+				FieldInstance field = fields.get(i);
+				field.initializer = traceInitializer(il, frames, fieldWrites[i]);
+				field.initializerExtracted = true;
+			}
 		}
+	}
+
+	static boolean isInitializerCandidate(FieldInstance field) {
+		return field.writeRefs.size() == 1 && !field.getType().isPrimitive();
+	}
 
+	private static List<AbstractInsnNode> traceInitializer(InsnList il, Frame<SourceValue>[] frames, AbstractInsnNode fieldWrite) {
 		BitSet tracedPositions = new BitSet(il.size());
 		Queue<AbstractInsnNode> positionsToTrace = new ArrayDeque<>();
 
@@ -2093,7 +2340,7 @@ class Analysis {
 			pos++;
 		}
 
-		field.initializer = initIl;
+		return initIl;
 
 		/*		int pos = fieldWritePos;
 
@@ -2392,7 +2639,7 @@ class Analysis {
 			textifier.print(pw);
 		}
 
-		Matcher.LOGGER.debug(writer.toString());
+		Matcher.LOGGER.trace(writer.toString());
 	}
 
 	private static void dump(Iterable<AbstractInsnNode> il) {
@@ -2410,6 +2657,6 @@ class Analysis {
 			textifier.print(pw);
 		}
 
-		Matcher.LOGGER.debug(writer.toString());
+		Matcher.LOGGER.trace(writer.toString());
 	}
 }
@@ -18,11 +18,13 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.DoubleConsumer;
 import java.util.regex.Pattern;
 
@@ -38,12 +40,17 @@ import matcher.NameType;
 import matcher.Util;
 import matcher.classifier.ClassifierUtil;
 import matcher.classifier.MatchingCache;
+import matcher.classifier.MethodFingerprintIndex;
+import matcher.classifier.StringConstantIndex;
 import matcher.config.ProjectConfig;
 import matcher.srcprocess.Decompiler;
-import matcher.type.Signature.ClassSignature;
 
 public final class ClassEnvironment implements ClassEnv {
 	public void init(ProjectConfig config, DoubleConsumer progressReceiver) {
+		init(config, progressReceiver, true);
+	}
+
+	private void init(ProjectConfig config, DoubleConsumer progressReceiver, boolean useSnapshot) {
 		final double cpInitCost = 0.05;
 		final double classReadCost = 0.2;
 		double progress = 0;
@@ -54,7 +61,11 @@ public final class ClassEnvironment implements ClassEnv {
 		nonObfuscatedMemberPatternA = config.getNonObfuscatedMemberPatternA().isEmpty() ? null : Pattern.compile(config.getNonObfuscatedMemberPatternA());
 		nonObfuscatedMemberPatternB = config.getNonObfuscatedMemberPatternB().isEmpty() ? null : Pattern.compile(config.getNonObfuscatedMemberPatternB());
 
+		boolean snapshotFailed = false;
+
 		try {
+			hashArchives(config);
+
 			for (int i = 0; i < 2; i++) {
 				if ((i == 0) != inputsBeforeClassPath) {
 					// class path indexing
@@ -74,41 +85,331 @@ public final class ClassEnvironment implements ClassEnv {
 				progressReceiver.accept(progress);
 			}
 
-			// synchronous feature extraction
-			extractorA.process(nonObfuscatedMemberPatternA);
-			progressReceiver.accept(0.8);
+			// synchronous feature extraction, replaying or recording the results of a previous run with the same inputs
+			String snapshotKey = useSnapshot ? ExtractionSnapshot.getKey(this, config) : null;
+			ExtractionSnapshot snapshot = snapshotKey != null ? ExtractionSnapshot.load(snapshotKey) : null;
+			boolean replay = snapshot != null && snapshot.isComplete();
+
+			try {
+				extractorA.process(nonObfuscatedMemberPatternA, snapshot != null ? snapshot.sideA : null);
+				progressReceiver.accept(0.8);
 
-			extractorB.process(nonObfuscatedMemberPatternB);
-			progressReceiver.accept(0.98);
+				extractorB.process(nonObfuscatedMemberPatternB, snapshot != null ? snapshot.sideB : null);
+				progressReceiver.accept(0.98);
+			} catch (RuntimeException e) {
+				if (!replay) throw e;
+
+				Matcher.LOGGER.warn("Replaying the extraction snapshot failed, extracting from scratch", e);
+				snapshot.delete();
+				snapshotFailed = true;
+			}
+
+			if (snapshot != null && !replay) snapshot.save();
 		} catch (InterruptedException | ExecutionException | IOException e) {
 			throw new RuntimeException(e);
 		} finally {
 			classPathIndex.clear();
 			openFileSystems.forEach(Util::closeSilently);
 			openFileSystems.clear();
+			classPathFileSystems.clear();
+			ClassPathCache.saveJdkClasses();
+			ClassPathCache.saveFileHashes();
+		}
+
+		if (snapshotFailed) {
+			reset();
+			init(config, progressReceiver, false);
+			return;
+		}
+
+		progressReceiver.accept(1);
+	}
+
+	/**
+	 * Initialize for config with the current side B becoming the new side A, so only the new side B is processed.
+	 *
+	 * <p>The retained classes lose their matches and unmatchable markers and get the temporary names of side A. Returns
+	 * false without changing anything if config's side A doesn't have the current side B's inputs, class path and
+	 * patterns, or the shared class path changed.
+	 */
+	public boolean initFromSideB(ProjectConfig config, DoubleConsumer progressReceiver) {
+		hashArchives(config);
+
+		if (!isSameSetup(extractorB, nonObfuscatedClassPatternB, nonObfuscatedMemberPatternB,
+				config.getNonObfuscatedClassPatternA(), config.getNonObfuscatedMemberPatternA(),
+				config.getPathsA(), config.getClassPathA(), config)) {
+			return false;
+		}
+
+		ClassFeatureExtractor oldA = extractorA;
+		detachShared(oldA);
+		clearMatchState(extractorB, true);
+
+		extractorA = extractorB;
+		extractorB = new ClassFeatureExtractor(this);
+		oldA.reset();
+		clearCaches();
+
+		nonObfuscatedClassPatternA = nonObfuscatedClassPatternB;
+		nonObfuscatedMemberPatternA = nonObfuscatedMemberPatternB;
+		nonObfuscatedClassPatternB = config.getNonObfuscatedClassPatternB().isEmpty() ? null : Pattern.compile(config.getNonObfuscatedClassPatternB());
+		nonObfuscatedMemberPatternB = config.getNonObfuscatedMemberPatternB().isEmpty() ? null : Pattern.compile(config.getNonObfuscatedMemberPatternB());
+
+		extractorA.reassignTmpNames();
+		progressReceiver.accept(0.1);
+
+		processSide(extractorB, config.getPathsB(), config.getClassPathB(), nonObfuscatedClassPatternB, nonObfuscatedMemberPatternB,
+				config.getSharedClassPath(), progressReceiver);
+
+		return true;
+	}
+
+	/**
+	 * Re-read config's inputs, keeping every side whose inputs, class path and patterns didn't change as is.
+	 *
+	 * <p>A kept side loses its matches if the other side gets processed again, but keeps its names and unmatchable
+	 * markers. If neither side can be kept, e.g. because the shared class path changed, this initializes from scratch.
+	 *
+	 * @return false if nothing changed and the environment was left untouched
+	 */
+	public boolean reload(ProjectConfig config, DoubleConsumer progressReceiver) {
+		hashArchives(config);
+
+		boolean keepA = isSameSetup(extractorA, nonObfuscatedClassPatternA, nonObfuscatedMemberPatternA,
+				config.getNonObfuscatedClassPatternA(), config.getNonObfuscatedMemberPatternA(),
+				config.getPathsA(), config.getClassPathA(), config);
+		boolean keepB = isSameSetup(extractorB, nonObfuscatedClassPatternB, nonObfuscatedMemberPatternB,
+				config.getNonObfuscatedClassPatternB(), config.getNonObfuscatedMemberPatternB(),
+				config.getPathsB(), config.getClassPathB(), config);
+
+		if (keepA && keepB) {
+			Matcher.LOGGER.info("Inputs unchanged, nothing to reload");
+			progressReceiver.accept(1);
+			return false;
+		} else if (!keepA && !keepB) {
+			reset();
+			init(config, progressReceiver);
+			return true;
+		}
+
+		ClassFeatureExtractor old = keepA ? extractorB : extractorA;
+		ClassFeatureExtractor side = new ClassFeatureExtractor(this);
+		detachShared(old);
+		clearMatchState(keepA ? extractorA : extractorB, false);
+		old.reset();
+		clearCaches();
+		progressReceiver.accept(0.1);
+
+		if (keepA) {
+			extractorB = side;
+			nonObfuscatedClassPatternB = config.getNonObfuscatedClassPatternB().isEmpty() ? null : Pattern.compile(config.getNonObfuscatedClassPatternB());
+			nonObfuscatedMemberPatternB = config.getNonObfuscatedMemberPatternB().isEmpty() ? null : Pattern.compile(config.getNonObfuscatedMemberPatternB());
+
+			processSide(side, config.getPathsB(), config.getClassPathB(), nonObfuscatedClassPatternB, nonObfuscatedMemberPatternB,
+					config.getSharedClassPath(), progressReceiver);
+		} else {
+			extractorA = side;
+			nonObfuscatedClassPatternA = config.getNonObfuscatedClassPatternA().isEmpty() ? null : Pattern.compile(config.getNonObfuscatedClassPatternA());
+			nonObfuscatedMemberPatternA = config.getNonObfuscatedMemberPatternA().isEmpty() ? null : Pattern.compile(config.getNonObfuscatedMemberPatternA());
+
+			processSide(side, config.getPathsA(), config.getClassPathA(), nonObfuscatedClassPatternA, nonObfuscatedMemberPatternA,
+					config.getSharedClassPath(), progressReceiver);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Hash all archives up front, the InputFile instances created while reading pick the results up from the cache.
+	 */
+	private static void hashArchives(ProjectConfig config) {
+		List<Path> archives = new ArrayList<>(config.getPathsA());
+		archives.addAll(config.getPathsB());
+		archives.addAll(config.getSharedClassPath());
+		archives.addAll(config.getClassPathA());
+		archives.addAll(config.getClassPathB());
+		ClassPathCache.hashFiles(archives, InputFile.HashType.SHA256);
+	}
+
+	/**
+	 * Check whether side was read from the given inputs, class path and patterns, with config's shared class path.
+	 */
+	private boolean isSameSetup(ClassFeatureExtractor side, Pattern classPattern, Pattern memberPattern,
+			String newClassPattern, String newMemberPattern, List<Path> paths, List<Path> classPath, ProjectConfig config) {
+		return !side.getInputFiles().isEmpty()
+				&& inputsBeforeClassPath == config.hasInputsBeforeClassPath()
+				&& getPatternString(classPattern).equals(newClassPattern)
+				&& getPatternString(memberPattern).equals(newMemberPattern)
+				&& isSameFiles(side.getInputFiles(), new LinkedHashSet<>(paths))
+				&& isSameFiles(side.getClassPathFiles(), classPath)
+				&& isSameFiles(cpFiles, config.getSharedClassPath());
+	}
+
+	/**
+	 * Read and process a fresh side while the other side and the shared classes stay in place.
+	 */
+	private void processSide(ClassFeatureExtractor side, List<Path> paths, List<Path> classPath,
+			Pattern nonObfuscatedClassPattern, Pattern nonObfuscatedMemberPattern, List<Path> sharedClassPath,
+			DoubleConsumer progressReceiver) {
+		cpFiles.clear();
+
+		try {
+			if (inputsBeforeClassPath) {
+				side.processInputs(paths, nonObfuscatedClassPattern);
+				initClassPath(sharedClassPath, true);
+				side.processClassPath(classPath, true);
+			} else {
+				initClassPath(sharedClassPath, false);
+				side.processClassPath(classPath, false);
+				side.processInputs(paths, nonObfuscatedClassPattern);
+			}
+
+			progressReceiver.accept(0.3);
+
+			side.process(nonObfuscatedMemberPattern);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			classPathIndex.clear();
+			openFileSystems.forEach(Util::closeSilently);
+			openFileSystems.clear();
+			classPathFileSystems.clear();
+			ClassPathCache.saveJdkClasses();
+			ClassPathCache.saveFileHashes();
 		}
 
 		progressReceiver.accept(1);
 	}
 
+	private void clearCaches() {
+		cache.clear();
+
+		synchronized (this) {
+			methodIndexA = null;
+			methodIndexB = null;
+			stringIndexA = null;
+			stringIndexB = null;
+		}
+	}
+
+	private static String getPatternString(Pattern pattern) {
+		return pattern != null ? pattern.pattern() : "";
+	}
+
+	private static boolean isSameFiles(Collection<InputFile> files, Collection<Path> paths) {
+		if (files.size() != paths.size()) return false;
+
+		Iterator<Path> it = paths.iterator();
+
+		for (InputFile file : files) {
+			if (!file.equals(it.next())) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Remove all references to the classes and members of side from the shared classes, which outlive it.
+	 */
+	private void detachShared(ClassFeatureExtractor side) {
+		for (ClassInstance cls : sharedClasses.values()) {
+			cls.innerClasses.removeIf(c -> c.getEnv() == side);
+			cls.childClasses.removeIf(c -> c.getEnv() == side);
+			cls.implementers.removeIf(c -> c.getEnv() == side);
+			cls.methodTypeRefs.removeIf(m -> m.getCls().getEnv() == side);
+			cls.fieldTypeRefs.removeIf(f -> f.getCls().getEnv() == side);
+
+			for (MethodInstance method : cls.getMethods()) {
+				method.refsIn.removeIf(m -> m.getCls().getEnv() == side);
+
+				if (method.hierarchyData != null && method.hierarchyData.hasMultipleMembers()) {
+					method.hierarchyData.getMembers().removeIf(m -> m.getCls().getEnv() == side);
+				}
+			}
+
+			for (FieldInstance field : cls.getFields()) {
+				field.readRefs.removeIf(m -> m.getCls().getEnv() == side);
+				field.writeRefs.removeIf(m -> m.getCls().getEnv() == side);
+			}
+		}
+	}
+
+	/**
+	 * Reset the matches and optionally the matchable state of side's classes and members without touching the other side.
+	 */
+	private void clearMatchState(ClassFeatureExtractor side, boolean resetMatchable) {
+		for (ClassInstance cls : side.getClasses()) {
+			if (cls.getMatch() != null) cls.setMatch(null);
+			if (resetMatchable) cls.setMatchable(true);
+
+			for (MethodInstance method : cls.getMethods()) {
+				clearMatchState(method, resetMatchable);
+
+				for (MethodVarInstance arg : method.args) {
+					clearMatchState(arg, resetMatchable);
+				}
+
+				if (method.vars != null) { // not gathered yet otherwise
+					for (MethodVarInstance var : method.vars) {
+						clearMatchState(var, resetMatchable);
+					}
+				}
+			}
+
+			for (FieldInstance field : cls.getFields()) {
+				clearMatchState(field, resetMatchable);
+			}
+		}
+
+		onMatchChange(); // members are cleared directly, bypassing setMatch
+	}
+
+	private static void clearMatchState(MemberInstance<?> member, boolean resetMatchable) {
+		if (member.hierarchyData == null) return;
+
+		member.matchedInstance = null;
+		member.hierarchyData.matchedHierarchy = null;
+		if (resetMatchable) member.hierarchyData.matchable = true;
+	}
+
+	private static void clearMatchState(MethodVarInstance var, boolean resetMatchable) {
+		if (var.getMatch() != null) var.setMatch(null);
+		if (resetMatchable) var.setMatchable(true);
+	}
+
 	private void initClassPath(Collection<Path> sharedClassPath, boolean checkExisting) throws IOException {
 		for (Path archive : sharedClassPath) {
 			cpFiles.add(new InputFile(archive));
 
-			FileSystem fs = Util.iterateJar(archive, false, file -> {
-				String name = file.toAbsolutePath().toString();
-				if (!name.startsWith("/") || !name.endsWith(".class") || name.startsWith("//")) throw new RuntimeException("invalid path: "+archive+" ("+name+")");
-				name = name.substring(1, name.length() - ".class".length());
-
+			for (String name : ClassPathCache.getClassNames(archive)) {
 				if (!checkExisting || extractorA.getLocalClsByName(name) == null || extractorB.getLocalClsByName(name) == null) {
-					classPathIndex.putIfAbsent(name, file);
+					classPathIndex.putIfAbsent(name, archive);
 
 					/*ClassNode cn = readClass(file);
 					addSharedCls(new ClassInstance(ClassInstance.getId(cn.name), file.toUri(), cn));*/
 				}
-			});
+			}
+		}
+	}
+
+	/**
+	 * Resolve a class from a class path archive, opening the archive on first use.
+	 */
+	Path getClassPathFile(Path archive, String name) {
+		synchronized (classPathFileSystems) {
+			FileSystem fs = classPathFileSystems.get(archive);
+
+			if (fs == null) {
+				try {
+					fs = Util.getJarFileSystem(archive, openFileSystems::add);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
 
-			if (fs != null) openFileSystems.add(fs);
+				classPathFileSystems.put(archive, fs);
+			}
+
+			return fs.getPath("/".concat(name).concat(".class"));
 		}
 	}
 
@@ -118,7 +419,7 @@ public final class ClassEnvironment implements ClassEnv {
 		classPathIndex.clear();
 		extractorA.reset();
 		extractorB.reset();
-		cache.clear();
+		clearCaches();
 	}
 
 	public void addOpenFileSystem(FileSystem fs) {
@@ -169,6 +470,14 @@ public final class ClassEnvironment implements ClassEnv {
 		return extractorB;
 	}
 
+	ClassFeatureExtractor getExtractorA() {
+		return extractorA;
+	}
+
+	ClassFeatureExtractor getExtractorB() {
+		return extractorB;
+	}
+
 	@Override
 	public Collection<ClassInstance> getClasses() {
 		return new AbstractCollection<ClassInstance>() {
@@ -257,7 +566,13 @@ public final class ClassEnvironment implements ClassEnv {
 	}
 
 	public Path getSharedClassLocation(String name) {
-		return classPathIndex.get(name);
+		Path archive = classPathIndex.get(name);
+
+		return archive != null ? getClassPathFile(archive, name) : null;
+	}
+
+	boolean hasSharedClassLocation(String name) {
+		return classPathIndex.containsKey(name);
 	}
 
 	public Collection<ClassInstance> getClassesA() {
@@ -371,18 +686,35 @@ public final class ClassEnvironment implements ClassEnv {
 
 			String name = ClassInstance.getName(id);
 			Path file = getSharedClassLocation(name);
+			ClassNode cn = null;
+			URI origin = null;
 
 			if (file == null) {
-				URL url = ClassLoader.getSystemResource(name+".class");
+				ClassPathCache.JdkClass jdkCls = ClassPathCache.getJdkClass(name);
 
-				if (url != null) {
-					file = getPath(url);
+				if (jdkCls != null) {
+					cn = jdkCls.read();
+					origin = jdkCls.origin;
+				} else {
+					URL url = ClassLoader.getSystemResource(name+".class");
+
+					if (url != null) {
+						file = getPath(url);
+					}
 				}
 			}
 
 			if (file != null) {
-				ClassNode cn = readClass(file, true);
-				ClassInstance cls = new ClassInstance(ClassInstance.getId(cn.name), getContainingUri(file.toUri(), cn.name), this, cn);
+				cn = readClass(file, true);
+				origin = getContainingUri(file.toUri(), cn.name);
+
+				if (origin.getScheme().equals("jrt")) { // runtime class, cache a member-only copy
+					ClassPathCache.putJdkClass(name, origin, cn);
+				}
+			}
+
+			if (cn != null) {
+				ClassInstance cls = new ClassInstance(ClassInstance.getId(cn.name), origin, this, cn);
 				if (!cls.getId().equals(id)) throw new RuntimeException("mismatched cls id "+id+" for "+file+", expected "+name);
 
 				ClassInstance ret = addSharedCls(cls);
@@ -493,8 +825,9 @@ public final class ClassEnvironment implements ClassEnv {
 		Set<String> strings = cls.strings;
 
 		for (ClassNode cn : cls.getAsmNodes()) {
-			if (cls.isInput() && cls.getSignature() == null && cn.signature != null) {
-				cls.setSignature(ClassSignature.parse(cn.signature, cls.getEnv()));
+			if (cls.isInput() && !cls.hasSignature() && cn.signature != null) {
+				cls.setSignature(cn.signature);
+				Signature.resolveClasses(cn.signature, cls.getEnv());
 			}
 
 			boolean isEnum = (cn.access & Opcodes.ACC_ENUM) != 0;
@@ -615,19 +948,72 @@ public final class ClassEnvironment implements ClassEnv {
 		return cache;
 	}
 
+	/**
+	 * Get the method code index of the A side inputs, built on first use.
+	 */
+	public synchronized MethodFingerprintIndex getMethodIndexA() {
+		if (methodIndexA == null) methodIndexA = MethodFingerprintIndex.build(extractorA.getClasses());
+
+		return methodIndexA;
+	}
+
+	/**
+	 * Get the method code index of the B side inputs, built on first use.
+	 */
+	public synchronized MethodFingerprintIndex getMethodIndexB() {
+		if (methodIndexB == null) methodIndexB = MethodFingerprintIndex.build(extractorB.getClasses());
+
+		return methodIndexB;
+	}
+
+	/**
+	 * Get the string constant index of the A side inputs, built on first use.
+	 */
+	public synchronized StringConstantIndex getStringIndexA() {
+		if (stringIndexA == null) stringIndexA = StringConstantIndex.build(extractorA.getClasses());
+
+		return stringIndexA;
+	}
+
+	/**
+	 * Get the string constant index of the B side inputs, built on first use.
+	 */
+	public synchronized StringConstantIndex getStringIndexB() {
+		if (stringIndexB == null) stringIndexB = StringConstantIndex.build(extractorB.getClasses());
+
+		return stringIndexB;
+	}
+
+	/**
+	 * Get the match epoch, which increases with every match change.
+	 */
+	public long getMatchEpoch() {
+		return matchEpoch.get();
+	}
+
+	void onMatchChange() {
+		matchEpoch.incrementAndGet();
+	}
+
 	private final List<InputFile> cpFiles = new ArrayList<>();
 	private final Map<String, ClassInstance> sharedClasses = new HashMap<>();
 	private final List<FileSystem> openFileSystems = new ArrayList<>();
-	private final Map<String, Path> classPathIndex = new HashMap<>();
-	private final ClassFeatureExtractor extractorA = new ClassFeatureExtractor(this);
-	private final ClassFeatureExtractor extractorB = new ClassFeatureExtractor(this);
+	private final Map<String, Path> classPathIndex = new HashMap<>(); // class name -> archive
+	private final Map<Path, FileSystem> classPathFileSystems = new HashMap<>();
+	private ClassFeatureExtractor extractorA = new ClassFeatureExtractor(this);
+	private ClassFeatureExtractor extractorB = new ClassFeatureExtractor(this);
 	private final MatchingCache cache = new MatchingCache();
+	private final AtomicLong matchEpoch = new AtomicLong();
 
 	private boolean inputsBeforeClassPath;
 	private Pattern nonObfuscatedClassPatternA;
 	private Pattern nonObfuscatedClassPatternB;
 	private Pattern nonObfuscatedMemberPatternA;
 	private Pattern nonObfuscatedMemberPatternB;
+	private MethodFingerprintIndex methodIndexA;
+	private MethodFingerprintIndex methodIndexB;
+	private StringConstantIndex stringIndexA;
+	private StringConstantIndex stringIndexB;
 
 	public boolean assumeBothOrNoneObfuscated = false;
 
@@ -1,7 +1,9 @@
 package matcher.type;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
-import java.nio.file.FileSystem;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -9,6 +11,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -18,6 +21,7 @@ import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
@@ -52,15 +56,17 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 				String name = cls.getName();
 
 				if (env.getSharedClsById(id) != null) return;
-				if (env.getSharedClassLocation(name) != null) return;
+				if (env.hasSharedClassLocation(name)) return;
 				if (classPathIndex.containsKey(name)) return;
 
 				ClassInstance prev = classes.get(id);
 
 				if (prev == null) {
 					classes.put(id, cls);
+					inputFingerprints.put(id, getFingerprint(file));
 				} else if (prev.isInput()) {
 					mergeClasses(cls, prev);
+					inputFingerprints.merge(id, getFingerprint(file), (a, b) -> a * 31 + b);
 				}
 			});
 		}
@@ -70,20 +76,38 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 		for (Path archive : classPath) {
 			cpFiles.add(new InputFile(archive));
 
-			FileSystem fs = Util.iterateJar(archive, false, file -> {
-				String name = file.toAbsolutePath().toString();
-				if (!name.startsWith("/") || !name.endsWith(".class") || name.startsWith("//")) throw new RuntimeException("invalid path: "+archive+" ("+name+")");
-				name = name.substring(1, name.length() - ".class".length());
-
-				if (!checkExisting || getLocalClsByName(name) == null && env.getSharedClassLocation(name) == null && env.getLocalClsByName(name) == null) {
-					classPathIndex.putIfAbsent(name, file);
+			for (String name : ClassPathCache.getClassNames(archive)) {
+				if (!checkExisting || getLocalClsByName(name) == null && !env.hasSharedClassLocation(name) && env.getLocalClsByName(name) == null) {
+					classPathIndex.putIfAbsent(name, archive);
 
 					/*ClassNode cn = readClass(file);
 					addSharedCls(new ClassInstance(ClassInstance.getId(cn.name), file.toUri(), cn));*/
 				}
-			});
+			}
+		}
+	}
 
-			if (fs != null) env.addOpenFileSystem(fs);
+	/**
+	 * Fingerprint a class file by its archive entry's CRC and size to detect unchanged classes across reloads.
+	 */
+	private static long getFingerprint(Path file) {
+		try {
+			long crc, size;
+
+			try {
+				crc = (Long) Files.getAttribute(file, "zip:crc");
+				size = Files.size(file);
+			} catch (UnsupportedOperationException | IllegalArgumentException e) { // not in a zip file system
+				byte[] data = Files.readAllBytes(file);
+				CRC32 checksum = new CRC32();
+				checksum.update(data);
+				crc = checksum.getValue();
+				size = data.length;
+			}
+
+			return size << 32 | crc;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
 	}
 
@@ -104,6 +128,13 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 	}
 
 	public void process(Pattern nonObfuscatedMemberPattern) {
+		process(nonObfuscatedMemberPattern, null);
+	}
+
+	/**
+	 * Process all classes, replaying passes 2-4 from a complete snapshot or recording them into an incomplete one.
+	 */
+	void process(Pattern nonObfuscatedMemberPattern, ExtractionSnapshot.Side snapshot) {
 		assert initStep == 0;
 
 		ClassInstance clo = getCreateClassInstance("Ljava/lang/Object;");
@@ -116,38 +147,57 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 			if (cls.isReal()) ClassEnvironment.processClassA(cls, nonObfuscatedMemberPattern);
 		}
 
-		initStep++;
-		initialClasses.clear();
-		initialClasses.addAll(classes.values());
-		assert initialClasses.size() == new HashSet<>(initialClasses).size();
+		CommonClasses common;
 
-		for (ClassInstance cls : initialClasses) {
-			if (cls.isReal()) processClassB(cls);
-		}
+		if (snapshot != null && snapshot.isComplete()) {
+			initialClasses = replaySnapshot(snapshot);
+			common = new CommonClasses(this);
+			initStep = 4;
+		} else {
+			snapshotRecord = snapshot;
 
-		processPending(null);
+			try {
+				initStep++;
+				initialClasses.clear();
+				initialClasses.addAll(classes.values());
+				assert initialClasses.size() == new HashSet<>(initialClasses).size();
 
-		initStep++;
-		initialClasses.clear();
-		initialClasses.addAll(classes.values());
+				for (ClassInstance cls : initialClasses) {
+					if (cls.isReal()) processClassB(cls);
+				}
 
-		for (ClassInstance cls : initialClasses) {
-			if (cls.isReal()) processClassC(cls);
-		}
+				processPending(null);
 
-		processPending(null);
+				initStep++;
+				initialClasses.clear();
+				initialClasses.addAll(classes.values());
 
-		initStep++;
-		initialClasses.clear();
-		initialClasses.addAll(classes.values());
+				processClassesC(initialClasses, snapshotRecord);
 
-		CommonClasses common = new CommonClasses(this);
+				processPending(null);
 
-		for (ClassInstance cls : initialClasses) {
-			if (cls.isReal()) processClassD(cls, common);
+				initStep++;
+				initialClasses.clear();
+				initialClasses.addAll(classes.values());
+
+				common = new CommonClasses(this);
+
+				for (ClassInstance cls : initialClasses) {
+					if (cls.isReal()) processClassD(cls, common);
+				}
+
+				processPending(common);
+
+				if (snapshot != null) snapshot.recordResults(classes.values(), initialClasses);
+			} finally {
+				snapshotRecord = null;
+			}
 		}
 
+		// reconstruct the local variables missing a local variable table, the analysis needs all classes it looks up upfront
+		List<MethodInstance> analyzedMethods = Analysis.prepareMethods(initialClasses);
 		processPending(common);
+		Analysis.analyzeMethods(analyzedMethods, common);
 
 		initStep++;
 
@@ -163,6 +213,140 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 		}
 
 		initStep++;
+
+		// the class path file systems get closed after processing, later lookups can't load from it
+		classPathIndex.clear();
+	}
+
+	/**
+	 * Recreate the results of passes 2-4 from a snapshot recorded for the same inputs.
+	 *
+	 * @return the input classes in the order of the recorded run
+	 */
+	private List<ClassInstance> replaySnapshot(ExtractionSnapshot.Side snapshot) {
+		for (ExtractionSnapshot.Creation c : snapshot.creations) {
+			if (c.kind == ExtractionSnapshot.Creation.CLASS) {
+				getCreateClassInstance(c.owner, c.flag);
+				continue;
+			}
+
+			ClassInstance owner = getSnapshotCls(c.owner);
+
+			if (c.kind == ExtractionSnapshot.Creation.METHOD) {
+				if (owner.getMethod(MethodInstance.getId(c.name, c.desc)) == null) owner.addMethod(new MethodInstance(owner, c.name, c.desc, c.flag));
+			} else if (owner.getField(FieldInstance.getId(c.name, c.desc)) == null) {
+				owner.addField(new FieldInstance(owner, c.name, c.desc, c.flag));
+			}
+		}
+
+		for (ExtractionSnapshot.HierarchyPass pass : snapshot.hierarchyPasses) {
+			for (ExtractionSnapshot.MemberRef ref : pass.singletons) {
+				MethodInstance method = getSnapshotMethod(ref);
+				if (method.hierarchyData == null) method.hierarchyData = new MemberHierarchyData<>(Collections.singleton(method), method.nameObfuscatedLocal);
+			}
+
+			MethodHierarchyGroups groups = new MethodHierarchyGroups();
+
+			for (List<ExtractionSnapshot.MemberRef> group : pass.groups) {
+				MethodInstance first = null;
+
+				for (ExtractionSnapshot.MemberRef ref : group) {
+					MethodInstance method = getSnapshotMethod(ref);
+					groups.add(method);
+
+					if (first == null) {
+						first = method;
+					} else {
+						groups.union(first, method);
+					}
+				}
+			}
+
+			groups.apply();
+		}
+
+		MethodType[] methodTypes = MethodType.values();
+
+		for (ExtractionSnapshot.MethodResult res : snapshot.methodResults) {
+			MethodInstance method = getSnapshotMethod(res.method);
+
+			for (ExtractionSnapshot.MemberRef ref : res.refsOut) {
+				MethodInstance dst = getSnapshotMethod(ref);
+				dst.refsIn.add(method);
+				method.refsOut.add(dst);
+			}
+
+			for (ExtractionSnapshot.MemberRef ref : res.fieldReadRefs) {
+				FieldInstance dst = getSnapshotField(ref);
+				dst.readRefs.add(method);
+				method.fieldReadRefs.add(dst);
+			}
+
+			for (ExtractionSnapshot.MemberRef ref : res.fieldWriteRefs) {
+				FieldInstance dst = getSnapshotField(ref);
+				dst.writeRefs.add(method);
+				method.fieldWriteRefs.add(dst);
+			}
+
+			for (String id : res.classRefs) {
+				ClassInstance dst = getSnapshotCls(id);
+				dst.methodTypeRefs.add(method);
+				method.classRefs.add(dst);
+			}
+
+			for (ExtractionSnapshot.MemberRef ref : res.parents) {
+				MethodInstance parent = getSnapshotMethod(ref);
+				method.addParent(parent);
+				parent.addChild(method);
+			}
+
+			method.type = methodTypes[res.type];
+		}
+
+		Set<MemberHierarchyData<MethodInstance>> nameObfChecked = Util.newIdentityHashSet();
+
+		for (ClassInstance cls : classes.values()) {
+			if (!cls.isReal()) continue;
+
+			for (MethodInstance method : cls.methods) {
+				if (method.hierarchyData.hasMultipleMembers()) updateHierarchyNameObfuscated(method, nameObfChecked);
+			}
+
+			for (FieldInstance field : cls.fields) {
+				field.hierarchyData = new MemberHierarchyData<>(Collections.singleton(field), field.nameObfuscatedLocal);
+			}
+
+			cls.initStep = 4;
+		}
+
+		List<ClassInstance> ret = new ArrayList<>(snapshot.inputOrder.size());
+
+		for (String id : snapshot.inputOrder) {
+			ret.add(getSnapshotCls(id));
+		}
+
+		return ret;
+	}
+
+	private ClassInstance getSnapshotCls(String id) {
+		ClassInstance ret = getClsById(id);
+		if (ret == null) throw new IllegalStateException("snapshot references missing class "+id);
+
+		return ret;
+	}
+
+	private MethodInstance getSnapshotMethod(ExtractionSnapshot.MemberRef ref) {
+		MethodInstance ret = getSnapshotCls(ref.cls).getMethod(ref.id);
+		if (ret == null) throw new IllegalStateException("snapshot references missing method "+ref.cls+"/"+ref.id);
+
+		return ret;
+	}
+
+	private FieldInstance getSnapshotField(ExtractionSnapshot.MemberRef ref) {
+		FieldInstance ret = getSnapshotCls(ref.cls).getField(ref.id);
+		if (ret == null) throw new IllegalStateException("snapshot references missing field "+ref.cls+"/"+ref.id);
+
+		return ret;
 	}
 
 	private void processPending(CommonClasses commonClasses) {
@@ -180,14 +364,17 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 			pendingInit.clear();
 
 			for (int i = 1; i < initStep; i++) {
-				for (ClassInstance cls : steps.get(i - 1)) {
-					assert cls.isReal();
-
-					switch (i) {
-					case 1: processClassB(cls); break;
-					case 2: processClassC(cls); break;
-					case 3: processClassD(cls, commonClasses); break;
-					default: throw new IllegalStateException();
+				if (i == 2) { // hierarchy processing handles all classes at once
+					processClassesC(steps.get(i - 1), snapshotRecord);
+				} else {
+					for (ClassInstance cls : steps.get(i - 1)) {
+						assert cls.isReal();
+
+						switch (i) {
+						case 1: processClassB(cls); break;
+						case 3: processClassD(cls, commonClasses); break;
+						default: throw new IllegalStateException();
+						}
 					}
 				}
 
@@ -207,6 +394,7 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 		cpFiles.clear();
 		classPathIndex.clear();
 		classes.clear();
+		inputFingerprints.clear();
 		arrayClasses.clear();
 		pendingInit.clear();
 		initStep = 0;
@@ -217,6 +405,10 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 		return roClasses.values();
 	}
 
+	Map<String, Long> getInputFingerprints() {
+		return inputFingerprints;
+	}
+
 	public Collection<InputFile> getInputFiles() {
 		return inputFiles;
 	}
@@ -258,12 +450,13 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 			}
 			case AbstractInsnNode.FIELD_INSN: {
 				FieldInsnNode in = (FieldInsnNode) ain;
-				ClassInstance owner = getCreateClassInstance(ClassInstance.getId(in.owner));
+				ClassInstance owner = getCreateClassInstanceRecorded(ClassInstance.getId(in.owner), true);
 				FieldInstance dst = owner.resolveField(in.name, in.desc);
 
 				if (dst == null) { // unknown field, create a synthetic one
 					dst = new FieldInstance(owner, in.name, in.desc, ain.getOpcode() == Opcodes.GETSTATIC || ain.getOpcode() == Opcodes.PUTSTATIC);
 					owner.addField(dst);
+					if (snapshotRecord != null) snapshotRecord.recordMember(dst);
 				}
 
 				if (ain.getOpcode() == Opcodes.GETSTATIC || ain.getOpcode() == Opcodes.GETFIELD) {
@@ -281,7 +474,7 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 			}
 			case AbstractInsnNode.TYPE_INSN: {
 				TypeInsnNode tin = (TypeInsnNode) ain;
-				ClassInstance dst = getCreateClassInstance(ClassInstance.getId(tin.desc));
+				ClassInstance dst = getCreateClassInstanceRecorded(ClassInstance.getId(tin.desc), true);
 
 				dst.methodTypeRefs.add(method);
 				method.classRefs.add(dst);
@@ -323,7 +516,7 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 	}
 
 	private MethodInstance resolveMethod(String owner, String name, String desc, boolean toInterface, boolean isStatic, boolean create) {
-		ClassInstance cls = getCreateClassInstance(ClassInstance.getId(owner), create);
+		ClassInstance cls = getCreateClassInstanceRecorded(ClassInstance.getId(owner), create);
 		if (cls == null) return null;
 
 		MethodInstance ret = cls.resolveMethod(name, desc, toInterface);
@@ -333,11 +526,25 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 
 			ret = new MethodInstance(cls, name, desc, isStatic);
 			cls.addMethod(ret);
+			if (snapshotRecord != null) snapshotRecord.recordMember(ret);
 		}
 
 		return ret;
 	}
 
+	/**
+	 * getCreateClassInstance variant for the recorded passes, logging any class it makes available.
+	 */
+	private ClassInstance getCreateClassInstanceRecorded(String id, boolean createUnknown) {
+		if (snapshotRecord == null) return getCreateClassInstance(id, createUnknown);
+
+		ClassInstance prev = getClsById(id);
+		ClassInstance ret = getCreateClassInstance(id, createUnknown);
+		if (ret != prev) snapshotRecord.recordClass(id, createUnknown);
+
+		return ret;
+	}
+
 	private MethodInstance resolveMethod(MethodInsnNode in) {
 		return resolveMethod(in.owner, in.name, in.desc,
 				Util.isCallToInterface(in), in.getOpcode() == Opcodes.INVOKESTATIC, false);
@@ -351,10 +558,7 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 	/**
 	 * 3rd processing pass, determine same hierarchy methods.
 	 */
-	private static void processClassC(ClassInstance cls) {
-		assert cls.initStep == 2;
-		cls.initStep = 3;
-
+	private static void processClassesC(Collection<ClassInstance> classes, ExtractionSnapshot.Side snapshotRecord) {
 		/* Determine which methods share the same hierarchy by grouping all methods within a
 		 * bottom-up class hierarchy by id.
 		 *
@@ -363,46 +567,167 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 		 * - neither is private or static
 		 * - every methods's owner is part of a set of 2+ classes/interfaces where a class or
 		 *   interface exists that is assignable to them
-		 * - all of these owner sets are linked by sharing a class/interface (potentially indirectly) */
-		if (!cls.childClasses.isEmpty() || !cls.implementers.isEmpty()) return; // visiting only classes that aren't being extended is sufficient to visit every method
+		 * - all of these owner sets are linked by sharing a class/interface (potentially indirectly)
+		 *
+		 * The methods visible by id are computed once per class from its direct super types, same id
+		 * methods get united in a disjoint set forest. */
+		Map<ClassInstance, Map<String, MethodInstance>> visibleMethods = new IdentityHashMap<>();
+		MethodHierarchyGroups groups = new MethodHierarchyGroups();
+		List<MethodInstance> singletons = snapshotRecord != null ? new ArrayList<>() : null;
 
-		Map<String, MethodInstance> methods = new HashMap<>();
-		Queue<ClassInstance> toCheck = new ArrayDeque<>();
-		toCheck.add(cls);
+		for (ClassInstance cls : classes) {
+			if (!cls.isReal()) continue;
 
-		while ((cls = toCheck.poll()) != null) {
-			for (MethodInstance method : cls.methods) {
-				MethodInstance prev;
+			assert cls.initStep == 2;
+			cls.initStep = 3;
 
-				if (isHierarchyBarrier(method)) {
-					if (method.hierarchyData == null) {
-						method.hierarchyData = new MemberHierarchyData<>(Collections.singleton(method), method.nameObfuscatedLocal);
-					}
-				} else if ((prev = methods.get(method.id)) != null) {
-					if (method.hierarchyData == null) {
-						method.hierarchyData = prev.hierarchyData;
-						method.hierarchyData.addMember(method);
-					} else if (method.hierarchyData != prev.hierarchyData) {
-						for (MethodInstance m : prev.hierarchyData.getMembers()) {
-							method.hierarchyData.addMember(m);
-							m.hierarchyData = method.hierarchyData;
-						}
-					}
-				} else {
-					methods.put(method.id, method);
+			if (cls.childClasses.isEmpty() && cls.implementers.isEmpty()) { // visiting only classes that aren't being extended is sufficient to visit every method
+				gatherHierarchyMethods(cls, visibleMethods, groups, singletons);
+			}
+		}
+
+		Collection<List<MethodInstance>> groupList = groups.apply();
+		if (snapshotRecord != null) snapshotRecord.recordHierarchyPass(singletons, groupList);
+	}
+
+	private static Map<String, MethodInstance> gatherHierarchyMethods(ClassInstance cls, Map<ClassInstance, Map<String, MethodInstance>> visibleMethods, MethodHierarchyGroups groups,
+			List<MethodInstance> singletons) {
+		Map<String, MethodInstance> ret = visibleMethods.get(cls);
+		if (ret != null) return ret;
+
+		ret = Collections.emptyMap();
+		boolean shared = true; // ret may be a parent's map, copy before modifying
+
+		List<ClassInstance> parents = new ArrayList<>(cls.interfaces.size() + 1);
+		if (cls.superClass != null) parents.add(cls.superClass);
+		parents.addAll(cls.interfaces);
+
+		for (ClassInstance parent : parents) {
+			Map<String, MethodInstance> parentMethods = gatherHierarchyMethods(parent, visibleMethods, groups, singletons);
+			if (parentMethods.isEmpty()) continue;
+
+			if (ret.isEmpty()) {
+				ret = parentMethods;
+				continue;
+			}
+
+			if (shared) {
+				ret = new HashMap<>(ret);
+				shared = false;
+			}
+
+			for (Map.Entry<String, MethodInstance> entry : parentMethods.entrySet()) {
+				MethodInstance prev = ret.putIfAbsent(entry.getKey(), entry.getValue());
+				if (prev != null && prev != entry.getValue()) groups.union(prev, entry.getValue());
+			}
+		}
+
+		for (MethodInstance method : cls.methods) {
+			if (isHierarchyBarrier(method)) {
+				if (method.hierarchyData == null) {
+					method.hierarchyData = new MemberHierarchyData<>(Collections.singleton(method), method.nameObfuscatedLocal);
+					if (singletons != null) singletons.add(method);
+				}
+
+				continue;
+			}
+
+			if (shared) {
+				ret = new HashMap<>(ret);
+				shared = false;
+			}
+
+			groups.add(method);
+			MethodInstance prev = ret.put(method.id, method);
+			if (prev != null) groups.union(prev, method);
+		}
+
+		visibleMethods.put(cls, ret);
+
+		return ret;
+	}
+
+	/**
+	 * Disjoint set forest of methods sharing a hierarchy, applied to their hierarchy data at the end.
+	 */
+	private static final class MethodHierarchyGroups {
+		void add(MethodInstance method) {
+			parents.putIfAbsent(method, method);
+		}
+
+		MethodInstance find(MethodInstance method) {
+			MethodInstance parent;
+
+			while ((parent = parents.get(method)) != method) {
+				MethodInstance grandParent = parents.get(parent);
+				parents.put(method, grandParent); // path halving
+				method = grandParent;
+			}
+
+			return method;
+		}
+
+		void union(MethodInstance a, MethodInstance b) {
+			a = find(a);
+			b = find(b);
+			if (a == b) return;
 
-					if (method.hierarchyData == null) {
-						method.hierarchyData = new MemberHierarchyData<>(Util.newIdentityHashSet(), method.nameObfuscatedLocal);
-						method.hierarchyData.addMember(method);
+			int sizeA = sizes.getOrDefault(a, 1);
+			int sizeB = sizes.getOrDefault(b, 1);
+
+			if (sizeA < sizeB) {
+				MethodInstance tmp = a;
+				a = b;
+				b = tmp;
+			}
+
+			parents.put(b, a);
+			sizes.remove(b);
+			sizes.put(a, sizeA + sizeB);
+		}
+
+		Collection<List<MethodInstance>> apply() {
+			Map<MethodInstance, List<MethodInstance>> members = new IdentityHashMap<>();
+
+			for (MethodInstance method : parents.keySet()) {
+				members.computeIfAbsent(find(method), ignore -> new ArrayList<>()).add(method);
+			}
+
+			for (List<MethodInstance> group : members.values()) {
+				// reuse the largest hierarchy from a previous pass, if any
+				MemberHierarchyData<MethodInstance> target = null;
+
+				for (MethodInstance method : group) {
+					if (method.hierarchyData != null && (target == null || method.hierarchyData.getMembers().size() > target.getMembers().size())) {
+						target = method.hierarchyData;
 					}
 				}
 
-				assert method.hierarchyData != null;
+				if (target == null) {
+					target = new MemberHierarchyData<>(Util.newIdentityHashSet(), group.get(0).nameObfuscatedLocal);
+				}
+
+				for (MethodInstance method : group) {
+					MemberHierarchyData<MethodInstance> data = method.hierarchyData;
+					if (data == target) continue;
+
+					if (data == null) {
+						target.addMember(method);
+						method.hierarchyData = target;
+					} else { // merge hierarchy from a previous pass
+						for (MethodInstance m : data.getMembers()) {
+							target.addMember(m);
+							m.hierarchyData = target;
+						}
+					}
+				}
 			}
 
-			if (cls.superClass != null) toCheck.add(cls.superClass);
-			toCheck.addAll(cls.interfaces);
+			return members.values();
 		}
+
+		private final Map<MethodInstance, MethodInstance> parents = new IdentityHashMap<>();
+		private final Map<MethodInstance, Integer> sizes = new IdentityHashMap<>();
 	}
 
 	private static boolean isHierarchyBarrier(MethodInstance method) {
@@ -424,33 +749,32 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 
 			if (method.hierarchyData.hasMultipleMembers()) { // may have parent/child methods
 				determineMethodRelations(method, toCheck, checked);
-
-				// update name obfuscated state if not done yet, the name is only obfuscated if it is for all hierarchy members
-				if (nameObfChecked.add(method.hierarchyData) && method.hierarchyData.nameObfuscated) {
-					for (MethodInstance m : method.hierarchyData.getMembers()) {
-						if (!m.nameObfuscatedLocal) {
-							method.hierarchyData.nameObfuscated = false;
-							break;
-						}
-					}
-				}
+				updateHierarchyNameObfuscated(method, nameObfChecked);
 			}
 
 			determineMethodType(method);
-			//Analysis.analyzeMethod(method, common);
 		}
 
 		for (FieldInstance field : cls.getFields()) {
 			field.hierarchyData = new MemberHierarchyData<>(Collections.singleton(field), field.nameObfuscatedLocal);
-
-			if (field.writeRefs.size() == 1) {
-				Analysis.checkInitializer(field, this);
-			}
+			// the initializer gets extracted on demand by FieldInstance.getInitializer
 		}
 
 		cls.initStep = 4;
 	}
 
+	private static void updateHierarchyNameObfuscated(MethodInstance method, Set<MemberHierarchyData<MethodInstance>> checked) {
+		// update name obfuscated state if not done yet, the name is only obfuscated if it is for all hierarchy members
+		if (checked.add(method.hierarchyData) && method.hierarchyData.nameObfuscated) {
+			for (MethodInstance m : method.hierarchyData.getMembers()) {
+				if (!m.nameObfuscatedLocal) {
+					method.hierarchyData.nameObfuscated = false;
+					break;
+				}
+			}
+		}
+	}
+
 	private static void determineMethodRelations(MethodInstance method, Queue<ClassInstance> toCheck, Set<ClassInstance> checked) {
 		if (method.origName.equals("<init>") || method.origName.equals("<clinit>")) return;
 		if (isHierarchyBarrier(method)) return;
@@ -535,6 +859,41 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 	private void processClassE(ClassInstance cls, int clsIndex, AtomicInteger vmIdx) {
 		assert cls.initStep == 4;
 
+		assignTmpNames(cls, clsIndex, vmIdx);
+
+		cls.initStep = 5;
+	}
+
+	/**
+	 * Re-derive the temporary names of all input classes and members, e.g. after the extractor changed sides.
+	 */
+	void reassignTmpNames() {
+		List<ClassInstance> inputs = new ArrayList<>();
+
+		for (ClassInstance cls : classes.values()) {
+			if (!cls.isReal() || !cls.isInput()) continue;
+
+			inputs.add(cls);
+			cls.setTmpName(null);
+
+			for (MethodInstance method : cls.getMethods()) {
+				if (method.hierarchyData != null) method.setTmpName(null);
+			}
+
+			for (FieldInstance field : cls.getFields()) {
+				if (field.hierarchyData != null) field.setTmpName(null);
+			}
+		}
+
+		int clsIdx = 0;
+		AtomicInteger vmIdx = new AtomicInteger();
+
+		for (ClassInstance cls : inputs) {
+			assignTmpNames(cls, cls.nameObfuscated ? clsIdx++ : -1, vmIdx);
+		}
+	}
+
+	private void assignTmpNames(ClassInstance cls, int clsIndex, AtomicInteger vmIdx) {
 		/* Assign each class+member a contextually unique name in the form <type><env><id>
 		 * where <type> is c for class, m for method, vm for virtual method and f for field,
 		 * <env> is a for envA and b for envB and <id> is an integer id.
@@ -576,8 +935,6 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 			field.setTmpName("f"+envName+memberIndex);
 			memberIndex++;
 		}
-
-		cls.initStep = 5;
 	}
 
 	@Override
@@ -697,9 +1054,10 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 		if (id.length() <= 1) return null; // primitive
 
 		String name = ClassInstance.getName(id);
-		Path file = classPathIndex.get(name);
-		if (file == null) return null;
+		Path archive = classPathIndex.get(name);
+		if (archive == null) return null;
 
+		Path file = env.getClassPathFile(archive, name);
 		ClassNode cn = ClassEnvironment.readClass(file, false);
 		ClassInstance cls = new ClassInstance(ClassInstance.getId(cn.name), ClassEnvironment.getContainingUri(file.toUri(), cn.name), this, cn);
 		if (!cls.getId().equals(id)) throw new RuntimeException("mismatched cls id "+id+" for "+file+", expected "+name);
@@ -726,11 +1084,13 @@ public class ClassFeatureExtractor implements LocalClassEnv {
 	final ClassEnvironment env;
 	private final List<InputFile> inputFiles = new ArrayList<>();
 	private final List<InputFile> cpFiles = new ArrayList<>();
-	private final Map<String, Path> classPathIndex = new HashMap<>();
+	private final Map<String, Path> classPathIndex = new HashMap<>(); // class name -> archive
 	private final Map<String, ClassInstance> classes = new HashMap<>();
 	private final Map<String, ClassInstance> roClasses = Collections.unmodifiableMap(classes);
 	private final Map<String, ClassInstance> arrayClasses = new HashMap<>();
+	private final Map<String, Long> inputFingerprints = new HashMap<>(); // class id -> class file crc+size
 
 	private int initStep;
 	private final List<ClassInstance> pendingInit = new ArrayList<>();
+	private ExtractionSnapshot.Side snapshotRecord; // non-null while recording passes 2-4
 }
@@ -346,6 +346,7 @@ public final class ClassInstance implements ParentInstance, Matchable<ClassInsta
 		assert cls == null || cls.getEnv() != env && !cls.getEnv().isShared();
 
 		this.matchedClass = cls;
+		env.getGlobal().onMatchChange();
 	}
 
 	@Override
@@ -401,11 +402,21 @@ public final class ClassInstance implements ParentInstance, Matchable<ClassInsta
 	}
 
 	public ClassSignature getSignature() {
-		return signature;
+		ClassSignature ret = signature;
+		if (ret != null || signatureStr == null) return ret;
+
+		// the referenced classes were resolved during extraction, so parsing only looks them up and racing parses are benign
+		signature = ret = ClassSignature.parse(signatureStr, env);
+
+		return ret;
+	}
+
+	boolean hasSignature() {
+		return signatureStr != null;
 	}
 
-	void setSignature(ClassSignature signature) {
-		this.signature = signature;
+	void setSignature(String signature) {
+		this.signatureStr = signature;
 	}
 
 	public boolean isPrimitive() {
@@ -960,6 +971,17 @@ public final class ClassInstance implements ParentInstance, Matchable<ClassInsta
 		this.auxName[index] = name;
 	}
 
+	/**
+	 * Copy the uid, names, comment and matchable state of the same class from a previous environment.
+	 */
+	void copyNames(ClassInstance o) {
+		uid = o.uid;
+		mappedName = o.mappedName;
+		mappedComment = o.mappedComment;
+		auxName = o.auxName != null ? o.auxName.clone() : null;
+		matchable = o.matchable;
+	}
+
 	public boolean isAssignableFrom(ClassInstance c) {
 		if (c == this) return true;
 		if (isPrimitive()) return false;
@@ -1078,7 +1100,7 @@ public final class ClassInstance implements ParentInstance, Matchable<ClassInsta
 		ClassNode cn = getMergedAsmNode();
 		if (cn == null) throw new IllegalArgumentException("cls without asm node: "+this);
 
-		synchronized (Util.asmNodeSync) {
+		synchronized (cn) { // visiting a tree node mutates its labels, different classes may be visited concurrently
 			if (nameType != NameType.PLAIN) {
 				AsmClassRemapper.process(cn, new AsmRemapper(env, nameType), visitor);
 			} else {
@@ -1186,7 +1208,8 @@ public final class ClassInstance implements ParentInstance, Matchable<ClassInsta
 	final boolean nameObfuscated;
 	private final boolean input;
 	final ClassInstance elementClass; // 0-dim class TODO: improve handling of array classes (references etc.)
-	private ClassSignature signature;
+	private String signatureStr;
+	private volatile ClassSignature signature; // parsed from signatureStr on first use
 
 	MethodInstance[] methods = noMethods;
 	FieldInstance[] fields = noFields;
@@ -1217,7 +1240,7 @@ public final class ClassInstance implements ParentInstance, Matchable<ClassInsta
 	private String[] auxName;
 
 	private boolean matchable = true;
-	private ClassInstance matchedClass;
+	private volatile ClassInstance matchedClass;
 
 	byte initStep; // for init step asserts
 }
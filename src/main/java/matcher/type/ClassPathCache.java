@@ -0,0 +1,362 @@
+package matcher.type;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+
+import matcher.Matcher;
+import matcher.Util;
+import matcher.Util.DataWriter;
+import matcher.config.Config;
+import matcher.type.InputFile.HashType;
+
+/**
+ * Persistent caches for class path archive indices, input file hashes and member-only JDK classes of the running
+ * runtime.
+ *
+ * <p>All cache files are optional, missing or broken ones are rebuilt transparently.
+ */
+final class ClassPathCache {
+	/**
+	 * Get the names of all classes in archive, using the stored index if the archive's size and mtime didn't change.
+	 */
+	static List<String> getClassNames(Path archive) {
+		long size, mtime;
+
+		try {
+			size = Files.size(archive);
+			mtime = Files.getLastModifiedTime(archive).toMillis();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		String key = archive.toAbsolutePath().normalize().toString();
+		Path indexFile = getCacheFile("cp-index", hash(key)+".idx");
+		List<String> ret = indexFile != null ? readIndex(indexFile, key, size, mtime) : null;
+		if (ret != null) return ret;
+
+		ret = new ArrayList<>();
+
+		try (ZipFile zip = new ZipFile(archive.toFile())) {
+			for (Enumeration<? extends ZipEntry> it = zip.entries(); it.hasMoreElements(); ) {
+				ZipEntry entry = it.nextElement();
+				String name = entry.getName();
+				if (entry.isDirectory() || !name.endsWith(".class")) continue;
+				if (name.startsWith("/")) throw new RuntimeException("invalid path: "+archive+" ("+name+")");
+
+				ret.add(name.substring(0, name.length() - ".class".length()));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		if (indexFile != null) writeIndex(indexFile, key, size, mtime, ret);
+
+		return ret;
+	}
+
+	private static List<String> readIndex(Path file, String key, long size, long mtime) {
+		try (DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (is.readInt() != indexMagic
+					|| !is.readUTF().equals(key)
+					|| is.readLong() != size
+					|| is.readLong() != mtime) {
+				return null;
+			}
+
+			int count = is.readInt();
+			List<String> ret = new ArrayList<>(count);
+
+			for (int i = 0; i < count; i++) {
+				ret.add(is.readUTF());
+			}
+
+			return ret;
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			Matcher.LOGGER.debug("Discarding unreadable class path index {}: {}", file, e.toString());
+			return null;
+		}
+	}
+
+	private static void writeIndex(Path file, String key, long size, long mtime, List<String> names) {
+		write(file, os -> {
+			os.writeInt(indexMagic);
+			os.writeUTF(key);
+			os.writeLong(size);
+			os.writeLong(mtime);
+			os.writeInt(names.size());
+
+			for (String name : names) {
+				os.writeUTF(name);
+			}
+		});
+	}
+
+	/**
+	 * Hash all files that aren't cached yet in parallel, largest first.
+	 */
+	static void hashFiles(Collection<Path> files, HashType type) {
+		Matcher.runInParallel(new ArrayList<>(new LinkedHashSet<>(files)), file -> {
+			try {
+				getFileHash(file, type);
+			} catch (IOException e) {
+				// reported once the file gets opened
+			}
+		}, file -> file.toFile().length(), progress -> { }, null);
+	}
+
+	/**
+	 * Get the hash of file, using the stored one if the file's identity, size and mtime didn't change.
+	 */
+	static byte[] getFileHash(Path file, HashType type) throws IOException {
+		Path realPath = file.toRealPath();
+		BasicFileAttributes attrs = Files.readAttributes(realPath, BasicFileAttributes.class);
+		String path = realPath.toString();
+		String key = type.name()+":"+path;
+		long size = attrs.size();
+		long mtime = attrs.lastModifiedTime().toMillis();
+		String fileKey = Objects.toString(attrs.fileKey(), "");
+
+		synchronized (ClassPathCache.class) {
+			if (fileHashes == null) loadFileHashes();
+
+			FileHash entry = fileHashes.get(key);
+
+			if (entry != null && entry.size == size && entry.mtime == mtime && entry.fileKey.equals(fileKey)) {
+				return entry.hash.clone();
+			}
+		}
+
+		byte[] ret = type.hash(realPath);
+
+		synchronized (ClassPathCache.class) {
+			fileHashes.put(key, new FileHash(type, path, size, mtime, fileKey, ret.clone()));
+			fileHashesDirty = true;
+		}
+
+		return ret;
+	}
+
+	static synchronized void saveFileHashes() {
+		if (!fileHashesDirty) return;
+
+		Path file = getFileHashesFile();
+		fileHashesDirty = false;
+		if (file == null) return;
+
+		fileHashes.values().removeIf(entry -> !Files.isRegularFile(Paths.get(entry.path)));
+
+		write(file, os -> {
+			os.writeInt(hashMagic);
+			os.writeInt(fileHashes.size());
+
+			for (FileHash entry : fileHashes.values()) {
+				os.writeUTF(entry.type.name());
+				os.writeUTF(entry.path);
+				os.writeLong(entry.size);
+				os.writeLong(entry.mtime);
+				os.writeUTF(entry.fileKey);
+				os.writeInt(entry.hash.length);
+				os.write(entry.hash);
+			}
+		});
+	}
+
+	private static void loadFileHashes() {
+		fileHashes = new HashMap<>();
+
+		Path file = getFileHashesFile();
+		if (file == null) return;
+
+		try (DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (is.readInt() != hashMagic) return;
+
+			int count = is.readInt();
+
+			for (int i = 0; i < count; i++) {
+				HashType type = HashType.valueOf(is.readUTF());
+				String path = is.readUTF();
+				long size = is.readLong();
+				long mtime = is.readLong();
+				String fileKey = is.readUTF();
+				byte[] hash = new byte[is.readInt()];
+				is.readFully(hash);
+
+				fileHashes.put(type.name()+":"+path, new FileHash(type, path, size, mtime, fileKey, hash));
+			}
+		} catch (NoSuchFileException e) {
+			// not cached yet
+		} catch (Exception e) {
+			Matcher.LOGGER.debug("Discarding unreadable file hash cache {}: {}", file, e.toString());
+			fileHashes.clear();
+		}
+	}
+
+	private static Path getFileHashesFile() {
+		return getCacheFile("hashes", "files.bin");
+	}
+
+	/**
+	 * Get a cached member-only JDK class by its internal name.
+	 */
+	static synchronized JdkClass getJdkClass(String name) {
+		if (jdkClasses == null) loadJdkClasses();
+
+		return jdkClasses.get(name);
+	}
+
+	/**
+	 * Add a JDK class read without code to the cache, it'll be stored with the next saveJdkClasses call.
+	 */
+	static synchronized void putJdkClass(String name, URI origin, ClassNode cn) {
+		if (jdkClasses == null) loadJdkClasses();
+
+		ClassWriter writer = new ClassWriter(0);
+		cn.accept(writer);
+
+		jdkClasses.put(name, new JdkClass(origin, writer.toByteArray()));
+		jdkClassesDirty = true;
+	}
+
+	static synchronized void saveJdkClasses() {
+		if (!jdkClassesDirty) return;
+
+		Path file = getJdkClassesFile();
+		jdkClassesDirty = false;
+		if (file == null) return;
+
+		write(file, os -> {
+			os.writeInt(jdkMagic);
+			os.writeInt(jdkClasses.size());
+
+			for (Map.Entry<String, JdkClass> entry : jdkClasses.entrySet()) {
+				JdkClass cls = entry.getValue();
+
+				os.writeUTF(entry.getKey());
+				os.writeUTF(cls.origin.toString());
+				os.writeInt(cls.data.length);
+				os.write(cls.data);
+			}
+		});
+	}
+
+	private static void loadJdkClasses() {
+		jdkClasses = new HashMap<>();
+
+		Path file = getJdkClassesFile();
+		if (file == null) return;
+
+		try (DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (is.readInt() != jdkMagic) return;
+
+			int count = is.readInt();
+
+			for (int i = 0; i < count; i++) {
+				String name = is.readUTF();
+				URI origin = new URI(is.readUTF());
+				byte[] data = new byte[is.readInt()];
+				is.readFully(data);
+
+				jdkClasses.put(name, new JdkClass(origin, data));
+			}
+		} catch (NoSuchFileException e) {
+			// not cached yet
+		} catch (Exception e) {
+			Matcher.LOGGER.debug("Discarding unreadable JDK class cache {}: {}", file, e.toString());
+			jdkClasses.clear();
+		}
+	}
+
+	private static Path getJdkClassesFile() {
+		String runtime = System.getProperty("java.home")+"\n"+System.getProperty("java.runtime.version");
+
+		return getCacheFile("jdk", hash(runtime)+".bin");
+	}
+
+	private static Path getCacheFile(String dir, String name) {
+		Path cacheDir = Config.getCacheDir();
+
+		return cacheDir != null ? cacheDir.resolve(dir).resolve(name) : null;
+	}
+
+	private static String hash(String str) {
+		return HexFormat.of().formatHex(HashType.SHA1.createDigest().digest(str.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static void write(Path file, DataWriter writer) {
+		try {
+			Util.writeAtomically(file, writer);
+		} catch (IOException e) {
+			Matcher.LOGGER.warn("Can't write cache file {}: {}", file, e.toString());
+		}
+	}
+
+	private static final class FileHash {
+		FileHash(HashType type, String path, long size, long mtime, String fileKey, byte[] hash) {
+			this.type = type;
+			this.path = path;
+			this.size = size;
+			this.mtime = mtime;
+			this.fileKey = fileKey;
+			this.hash = hash;
+		}
+
+		final HashType type;
+		final String path;
+		final long size;
+		final long mtime;
+		final String fileKey;
+		final byte[] hash;
+	}
+
+	static final class JdkClass {
+		JdkClass(URI origin, byte[] data) {
+			this.origin = origin;
+			this.data = data;
+		}
+
+		ClassNode read() {
+			ClassNode ret = new ClassNode();
+			new ClassReader(data).accept(ret, ClassReader.EXPAND_FRAMES | ClassReader.SKIP_CODE);
+
+			return ret;
+		}
+
+		final URI origin;
+		private final byte[] data;
+	}
+
+	private static final int indexMagic = 0x4d435049; // MCPI
+	private static final int jdkMagic = 0x4d4a444b; // MJDK
+	private static final int hashMagic = 0x4d484153; // MHAS
+
+	private static Map<String, JdkClass> jdkClasses;
+	private static boolean jdkClassesDirty;
+	private static Map<String, FileHash> fileHashes;
+	private static boolean fileHashesDirty;
+}
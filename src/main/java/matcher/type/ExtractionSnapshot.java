@@ -0,0 +1,520 @@
+package matcher.type;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import matcher.Matcher;
+import matcher.Util;
+import matcher.config.Config;
+import matcher.config.ProjectConfig;
+import matcher.type.InputFile.HashType;
+
+/**
+ * Persistent results of the feature extraction passes 2-4 for a specific project setup.
+ *
+ * <p>A snapshot records the classes and synthetic members created while processing the method bodies in order,
+ * the method hierarchy groups and the per method references, relations and types. Reopening the same project
+ * replays it instead of analyzing all method bodies again, the class files themselves are still read normally.
+ */
+final class ExtractionSnapshot {
+	/**
+	 * Determine the snapshot key for env's current inputs, class path and config.
+	 */
+	static String getKey(ClassEnvironment env, ProjectConfig config) {
+		MessageDigest digest = HashType.SHA256.createDigest();
+
+		update(digest, Integer.toString(formatVersion));
+		digest.update(getCodeHash());
+		update(digest, System.getProperty("java.home"));
+		update(digest, System.getProperty("java.runtime.version"));
+
+		for (Collection<InputFile> files : List.of(env.getInputFilesA(), env.getInputFilesB(),
+				env.getClassPathFiles(), env.getClassPathFilesA(), env.getClassPathFilesB())) {
+			update(digest, Integer.toString(files.size()));
+
+			for (InputFile file : files) {
+				if (file.hash == null) return null; // can't identify the input reliably
+
+				update(digest, file.hashType.name());
+				digest.update(file.hash);
+			}
+		}
+
+		update(digest, config.getNonObfuscatedClassPatternA());
+		update(digest, config.getNonObfuscatedClassPatternB());
+		update(digest, config.getNonObfuscatedMemberPatternA());
+		update(digest, config.getNonObfuscatedMemberPatternB());
+		update(digest, Boolean.toString(config.hasInputsBeforeClassPath()));
+
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * Hash the class files of the extraction code, dev builds don't have an implementation version to tell changes apart.
+	 */
+	private static synchronized byte[] getCodeHash() {
+		if (codeHash != null) return codeHash;
+
+		MessageDigest digest = HashType.SHA256.createDigest();
+
+		for (Class<?> cls : List.of(ExtractionSnapshot.class, ClassEnvironment.class, ClassFeatureExtractor.class, Analysis.class,
+				ClassInstance.class, MemberInstance.class, MethodInstance.class, FieldInstance.class, MethodVarInstance.class)) {
+			try (InputStream is = cls.getResourceAsStream(cls.getSimpleName()+".class")) {
+				if (is != null) {
+					digest.update(is.readAllBytes());
+					continue;
+				}
+			} catch (IOException e) {
+				// ignored
+			}
+
+			// no class file access, fall back to the release version
+			update(digest, String.valueOf(ExtractionSnapshot.class.getPackage().getImplementationVersion()));
+			break;
+		}
+
+		return codeHash = digest.digest();
+	}
+
+	private static void update(MessageDigest digest, String str) {
+		digest.update(str.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+	}
+
+	/**
+	 * Load the snapshot for key, returns an empty snapshot for recording if there's no usable one.
+	 */
+	static ExtractionSnapshot load(String key) {
+		ExtractionSnapshot ret = new ExtractionSnapshot(key);
+		Path file = getFile(key);
+		if (file == null) return ret;
+
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)); // not mapped, the mapping would keep the file locked on windows
+			List<String> strings = new ArrayList<>();
+
+			if (buffer.getInt() != magic
+					|| buffer.getInt() != formatVersion
+					|| !Side.readString(buffer, strings).equals(key)) {
+				return ret;
+			}
+
+			ret.sideA.read(buffer, strings);
+			ret.sideB.read(buffer, strings);
+
+			if (buffer.getInt() != magic) throw new IOException("corrupt snapshot");
+		} catch (NoSuchFileException e) {
+			return ret;
+		} catch (IOException | RuntimeException e) {
+			Matcher.LOGGER.warn("Discarding unreadable extraction snapshot {}: {}", file, e.toString());
+
+			return new ExtractionSnapshot(key);
+		}
+
+		return ret;
+	}
+
+	private ExtractionSnapshot(String key) {
+		this.key = key;
+	}
+
+	boolean isComplete() {
+		return sideA.isComplete() && sideB.isComplete();
+	}
+
+	void save() {
+		if (!isComplete()) throw new IllegalStateException("incomplete snapshot");
+
+		Path file = getFile(key);
+		if (file == null) return;
+
+		try {
+			Util.writeAtomically(file, os -> {
+				Map<String, Integer> strings = new HashMap<>();
+
+				os.writeInt(magic);
+				os.writeInt(formatVersion);
+				Side.writeString(key, os, strings);
+
+				sideA.write(os, strings);
+				sideB.write(os, strings);
+
+				os.writeInt(magic);
+			});
+
+			prune(file.getParent());
+		} catch (IOException e) {
+			Matcher.LOGGER.warn("Can't write extraction snapshot {}: {}", file, e.toString());
+		}
+	}
+
+	void delete() {
+		Path file = getFile(key);
+		if (file == null) return;
+
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			Matcher.LOGGER.warn("Can't delete extraction snapshot {}: {}", file, e.toString());
+		}
+	}
+
+	private static Path getFile(String key) {
+		Path cacheDir = Config.getCacheDir();
+
+		return cacheDir != null ? cacheDir.resolve("snapshots").resolve(key+".bin") : null;
+	}
+
+	/**
+	 * Remove all but the most recently written snapshots.
+	 */
+	private static void prune(Path dir) throws IOException {
+		List<Path> files;
+
+		try (Stream<Path> stream = Files.list(dir)) {
+			files = stream.filter(p -> p.getFileName().toString().endsWith(".bin")).toList();
+		}
+
+		if (files.size() <= maxSnapshots) return;
+
+		Map<Path, Long> mtimes = new HashMap<>();
+
+		for (Path file : files) {
+			mtimes.put(file, Files.getLastModifiedTime(file).toMillis());
+		}
+
+		List<Path> sorted = new ArrayList<>(files);
+		sorted.sort(Comparator.comparing(mtimes::get, Comparator.reverseOrder()));
+
+		for (Path file : sorted.subList(maxSnapshots, sorted.size())) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * Extraction data for one side of the project.
+	 */
+	static final class Side {
+		boolean isComplete() {
+			return complete;
+		}
+
+		void recordClass(String id, boolean createUnknown) {
+			creations.add(new Creation(Creation.CLASS, id, null, null, createUnknown));
+		}
+
+		void recordMember(MemberInstance<?> member) {
+			creations.add(new Creation(member instanceof MethodInstance ? Creation.METHOD : Creation.FIELD,
+					member.cls.id, member.origName, member.getDesc(), member.isStatic()));
+		}
+
+		void recordHierarchyPass(List<MethodInstance> singletons, Collection<List<MethodInstance>> groups) {
+			List<List<MemberRef>> groupRefs = new ArrayList<>(groups.size());
+
+			for (List<MethodInstance> group : groups) {
+				groupRefs.add(toRefs(group));
+			}
+
+			hierarchyPasses.add(new HierarchyPass(toRefs(singletons), groupRefs));
+		}
+
+		/**
+		 * Record the final per method state of all local classes and the order in which input classes get their temporary names.
+		 */
+		void recordResults(Collection<ClassInstance> classes, List<ClassInstance> initialClasses) {
+			for (ClassInstance cls : classes) {
+				if (!cls.isReal()) continue;
+
+				for (MethodInstance method : cls.methods) {
+					List<String> classRefs = new ArrayList<>(method.classRefs.size());
+
+					for (ClassInstance ref : method.classRefs) {
+						classRefs.add(ref.id);
+					}
+
+					methodResults.add(new MethodResult(new MemberRef(method),
+							method.type.ordinal(),
+							toRefs(method.refsOut),
+							toRefs(method.fieldReadRefs),
+							toRefs(method.fieldWriteRefs),
+							classRefs,
+							toRefs(method.getParents())));
+				}
+			}
+
+			for (ClassInstance cls : initialClasses) {
+				if (cls.isReal() && cls.isInput()) inputOrder.add(cls.id);
+			}
+
+			complete = true;
+		}
+
+		private static List<MemberRef> toRefs(Collection<? extends MemberInstance<?>> members) {
+			List<MemberRef> ret = new ArrayList<>(members.size());
+
+			for (MemberInstance<?> member : members) {
+				ret.add(new MemberRef(member));
+			}
+
+			return ret;
+		}
+
+		private void write(DataOutputStream os, Map<String, Integer> strings) throws IOException {
+			os.writeInt(creations.size());
+
+			for (Creation c : creations) {
+				os.writeByte(c.kind);
+				writeString(c.owner, os, strings);
+
+				if (c.kind != Creation.CLASS) {
+					writeString(c.name, os, strings);
+					writeString(c.desc, os, strings);
+				}
+
+				os.writeBoolean(c.flag);
+			}
+
+			os.writeInt(hierarchyPasses.size());
+
+			for (HierarchyPass pass : hierarchyPasses) {
+				writeRefs(pass.singletons, os, strings);
+				os.writeInt(pass.groups.size());
+
+				for (List<MemberRef> group : pass.groups) {
+					writeRefs(group, os, strings);
+				}
+			}
+
+			os.writeInt(methodResults.size());
+
+			for (MethodResult res : methodResults) {
+				writeRef(res.method, os, strings);
+				os.writeByte(res.type);
+				writeRefs(res.refsOut, os, strings);
+				writeRefs(res.fieldReadRefs, os, strings);
+				writeRefs(res.fieldWriteRefs, os, strings);
+				os.writeInt(res.classRefs.size());
+
+				for (String cls : res.classRefs) {
+					writeString(cls, os, strings);
+				}
+
+				writeRefs(res.parents, os, strings);
+			}
+
+			os.writeInt(inputOrder.size());
+
+			for (String cls : inputOrder) {
+				writeString(cls, os, strings);
+			}
+		}
+
+		private void read(ByteBuffer buf, List<String> strings) {
+			int count = buf.getInt();
+
+			for (int i = 0; i < count; i++) {
+				int kind = buf.get();
+				String owner = readString(buf, strings);
+				String name = kind != Creation.CLASS ? readString(buf, strings) : null;
+				String desc = kind != Creation.CLASS ? readString(buf, strings) : null;
+
+				creations.add(new Creation(kind, owner, name, desc, buf.get() != 0));
+			}
+
+			count = buf.getInt();
+
+			for (int i = 0; i < count; i++) {
+				List<MemberRef> singletons = readRefs(buf, strings);
+				int groupCount = buf.getInt();
+				List<List<MemberRef>> groups = new ArrayList<>(groupCount);
+
+				for (int j = 0; j < groupCount; j++) {
+					groups.add(readRefs(buf, strings));
+				}
+
+				hierarchyPasses.add(new HierarchyPass(singletons, groups));
+			}
+
+			count = buf.getInt();
+
+			for (int i = 0; i < count; i++) {
+				MemberRef method = readRef(buf, strings);
+				int type = buf.get();
+				List<MemberRef> refsOut = readRefs(buf, strings);
+				List<MemberRef> fieldReadRefs = readRefs(buf, strings);
+				List<MemberRef> fieldWriteRefs = readRefs(buf, strings);
+				int clsCount = buf.getInt();
+				List<String> classRefs = new ArrayList<>(clsCount);
+
+				for (int j = 0; j < clsCount; j++) {
+					classRefs.add(readString(buf, strings));
+				}
+
+				methodResults.add(new MethodResult(method, type, refsOut, fieldReadRefs, fieldWriteRefs, classRefs, readRefs(buf, strings)));
+			}
+
+			count = buf.getInt();
+
+			for (int i = 0; i < count; i++) {
+				inputOrder.add(readString(buf, strings));
+			}
+
+			complete = true;
+		}
+
+		private static void writeRefs(List<MemberRef> refs, DataOutputStream os, Map<String, Integer> strings) throws IOException {
+			os.writeInt(refs.size());
+
+			for (MemberRef ref : refs) {
+				writeRef(ref, os, strings);
+			}
+		}
+
+		private static void writeRef(MemberRef ref, DataOutputStream os, Map<String, Integer> strings) throws IOException {
+			writeString(ref.cls, os, strings);
+			writeString(ref.id, os, strings);
+		}
+
+		static void writeString(String str, DataOutputStream os, Map<String, Integer> strings) throws IOException {
+			Integer idx = strings.putIfAbsent(str, strings.size());
+
+			if (idx != null) {
+				os.writeInt(idx);
+			} else {
+				byte[] data = str.getBytes(StandardCharsets.UTF_8);
+				os.writeInt(-1);
+				os.writeInt(data.length);
+				os.write(data);
+			}
+		}
+
+		private static List<MemberRef> readRefs(ByteBuffer buf, List<String> strings) {
+			int count = buf.getInt();
+			List<MemberRef> ret = new ArrayList<>(count);
+
+			for (int i = 0; i < count; i++) {
+				ret.add(readRef(buf, strings));
+			}
+
+			return ret;
+		}
+
+		private static MemberRef readRef(ByteBuffer buf, List<String> strings) {
+			return new MemberRef(readString(buf, strings), readString(buf, strings));
+		}
+
+		static String readString(ByteBuffer buf, List<String> strings) {
+			int idx = buf.getInt();
+			if (idx >= 0) return strings.get(idx);
+
+			int len = buf.getInt();
+			if (len < 0 || len > buf.remaining()) throw new IllegalStateException("invalid string length: "+len);
+
+			byte[] data = new byte[len];
+			buf.get(data);
+			String ret = new String(data, StandardCharsets.UTF_8);
+			strings.add(ret);
+
+			return ret;
+		}
+
+		final List<Creation> creations = new ArrayList<>();
+		final List<HierarchyPass> hierarchyPasses = new ArrayList<>();
+		final List<MethodResult> methodResults = new ArrayList<>();
+		final List<String> inputOrder = new ArrayList<>();
+		private boolean complete;
+	}
+
+	/**
+	 * Class or synthetic member creation, flag is createUnknown for classes and isStatic for members.
+	 */
+	static final class Creation {
+		static final int CLASS = 0;
+		static final int METHOD = 1;
+		static final int FIELD = 2;
+
+		Creation(int kind, String owner, String name, String desc, boolean flag) {
+			this.kind = kind;
+			this.owner = owner;
+			this.name = name;
+			this.desc = desc;
+			this.flag = flag;
+		}
+
+		final int kind;
+		final String owner;
+		final String name;
+		final String desc;
+		final boolean flag;
+	}
+
+	static final class MemberRef {
+		MemberRef(MemberInstance<?> member) {
+			this(member.cls.id, member.id);
+		}
+
+		MemberRef(String cls, String id) {
+			this.cls = cls;
+			this.id = id;
+		}
+
+		final String cls;
+		final String id;
+	}
+
+	static final class HierarchyPass {
+		HierarchyPass(List<MemberRef> singletons, List<List<MemberRef>> groups) {
+			this.singletons = singletons;
+			this.groups = groups;
+		}
+
+		final List<MemberRef> singletons;
+		final List<List<MemberRef>> groups;
+	}
+
+	static final class MethodResult {
+		MethodResult(MemberRef method, int type,
+				List<MemberRef> refsOut, List<MemberRef> fieldReadRefs, List<MemberRef> fieldWriteRefs,
+				List<String> classRefs, List<MemberRef> parents) {
+			this.method = method;
+			this.type = type;
+			this.refsOut = refsOut;
+			this.fieldReadRefs = fieldReadRefs;
+			this.fieldWriteRefs = fieldWriteRefs;
+			this.classRefs = classRefs;
+			this.parents = parents;
+		}
+
+		final MemberRef method;
+		final int type;
+		final List<MemberRef> refsOut;
+		final List<MemberRef> fieldReadRefs;
+		final List<MemberRef> fieldWriteRefs;
+		final List<String> classRefs;
+		final List<MemberRef> parents;
+	}
+
+	private static final int magic = 0x4d455853; // MEXS
+	private static final int formatVersion = 1; // bump whenever the extraction passes change their results
+	private static final int maxSnapshots = 8;
+	private static byte[] codeHash;
+
+	final Side sideA = new Side();
+	final Side sideB = new Side();
+	private final String key;
+}
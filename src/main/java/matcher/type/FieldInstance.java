@@ -33,7 +33,8 @@ public final class FieldInstance extends MemberInstance<FieldInstance> {
 		try {
 			this.type = cls.getEnv().getCreateClassInstance(desc);
 			this.asmNode = asmNode;
-			this.signature = asmNode == null || asmNode.signature == null || !cls.isInput() ? null : FieldSignature.parse(asmNode.signature, cls.getEnv());
+			this.signatureStr = asmNode == null || !cls.isInput() ? null : asmNode.signature;
+			if (signatureStr != null) Signature.resolveClasses(signatureStr, cls.getEnv()); // parsed later, but needs the class path
 		} catch (InvalidSharedEnvQueryException e) {
 			throw e.checkOrigin(cls);
 		}
@@ -101,10 +102,20 @@ public final class FieldInstance extends MemberInstance<FieldInstance> {
 	}
 
 	public FieldSignature getSignature() {
-		return signature;
+		FieldSignature ret = signature;
+		if (ret != null || signatureStr == null) return ret;
+
+		// the referenced classes were resolved during extraction, so parsing only looks them up and racing parses are benign
+		signature = ret = FieldSignature.parse(signatureStr, getEnv());
+
+		return ret;
 	}
 
 	public List<AbstractInsnNode> getInitializer() {
+		if (!initializerExtracted && Analysis.isInitializerCandidate(this)) {
+			Analysis.extractInitializers(writeRefs.iterator().next());
+		}
+
 		return initializer;
 	}
 
@@ -172,8 +183,10 @@ public final class FieldInstance extends MemberInstance<FieldInstance> {
 	final FieldNode asmNode;
 	final ClassInstance type;
 	ClassInstance exactType;
-	private final FieldSignature signature;
+	private final String signatureStr;
+	private volatile FieldSignature signature; // parsed from signatureStr on first use
 	List<AbstractInsnNode> initializer;
+	volatile boolean initializerExtracted; // publishes initializer
 
 	final Set<MethodInstance> readRefs = Util.newIdentityHashSet();
 	final Set<MethodInstance> writeRefs = Util.newIdentityHashSet();
@@ -3,7 +3,7 @@ package matcher.type;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
@@ -18,7 +18,7 @@ public class InputFile {
 			this.path = path;
 			this.fileName = getSanitizedFileName(path);
 			this.size = Files.size(path);
-			this.hash = HashType.SHA256.hash(path);
+			this.hash = ClassPathCache.getFileHash(path, HashType.SHA256);
 			this.hashType = HashType.SHA256;
 			this.pathHint = path;
 		} catch (IOException e) {
@@ -66,7 +66,7 @@ public class InputFile {
 			if (fileName != null && !getSanitizedFileName(path).equals(fileName)) return false;
 			if (size != -1 && Files.size(path) != size) return false;
 
-			return hash == null || Arrays.equals(hash, hashType.hash(path));
+			return hash == null || Arrays.equals(hash, ClassPathCache.getFileHash(path, hashType));
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
@@ -132,9 +132,11 @@ public class InputFile {
 
 			MessageDigest digest = tlData.digests.get(this);
 			ByteBuffer buffer = tlData.buffer;
+			digest.reset(); // may hold partial input from a failed read
 			buffer.clear();
 
-			try (SeekableByteChannel channel = Files.newByteChannel(path)) {
+			// no memory mapping, the mappings would stay until gc and keep the files locked on windows
+			try (FileChannel channel = FileChannel.open(path)) {
 				while (channel.read(buffer) != -1) {
 					buffer.flip();
 					digest.update(buffer);
@@ -29,5 +29,5 @@ final class MemberHierarchyData<T> {
 	String[] auxName;
 
 	boolean matchable = true;
-	MemberHierarchyData<T> matchedHierarchy;
+	volatile MemberHierarchyData<T> matchedHierarchy;
 }
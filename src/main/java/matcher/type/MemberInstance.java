@@ -343,6 +343,28 @@ public abstract class MemberInstance<T extends MemberInstance<T>> implements Mat
 
 		this.matchedInstance = match;
 		this.hierarchyData.matchedHierarchy = match != null ? match.hierarchyData : null;
+		cls.getEnv().getGlobal().onMatchChange();
+	}
+
+	/**
+	 * Copy the names, comment and matchable state of the same member from a previous environment.
+	 *
+	 * <p>Hierarchy-wide state is only ever set, never cleared, since the hierarchy may now contain other members.
+	 */
+	void copyNames(MemberInstance<?> o) {
+		mappedComment = o.mappedComment;
+		if (hierarchyData == null || o.hierarchyData == null) return;
+
+		MemberHierarchyData<?> src = o.hierarchyData;
+		if (src.uid >= 0) hierarchyData.uid = src.uid;
+		if (src.mappedName != null) hierarchyData.mappedName = src.mappedName;
+		if (!src.matchable) hierarchyData.matchable = false;
+
+		if (src.auxName != null) {
+			for (int i = 0; i < src.auxName.length; i++) {
+				if (src.auxName[i] != null) setAuxName(i, src.auxName[i]);
+			}
+		}
 	}
 
 	@Override
@@ -372,5 +394,5 @@ public abstract class MemberInstance<T extends MemberInstance<T>> implements Mat
 
 	String mappedComment;
 
-	T matchedInstance;
+	volatile T matchedInstance;
 }
@@ -42,9 +42,21 @@ public final class MethodInstance extends MemberInstance<MethodInstance> impleme
 			this.real = asmNode != null;
 			this.access = asmNode != null ? asmNode.access : approximateAccess(isStatic);
 			this.args = gatherArgs(this, desc, asmNode);
-			this.vars = cls.isInput() ? gatherVars(this, asmNode) : emptyVars;
+
+			if (cls.isInput() && hasLocalVariables(asmNode)) {
+				this.vars = null; // gathered on first use
+
+				// create the var types now, class path access isn't available anymore later
+				for (LocalVariableNode var : asmNode.localVariables) {
+					cls.getEnv().getCreateClassInstance(var.desc);
+				}
+			} else {
+				this.vars = emptyVars;
+			}
+
 			this.retType = cls.getEnv().getCreateClassInstance(Type.getReturnType(desc).getDescriptor());
-			this.signature = asmNode == null || asmNode.signature == null || !cls.isInput() ? null : MethodSignature.parse(asmNode.signature, cls.getEnv());
+			this.signatureStr = asmNode == null || !cls.isInput() ? null : asmNode.signature;
+			if (signatureStr != null) Signature.resolveClasses(signatureStr, cls.getEnv()); // parsed later, but needs the class path
 			this.asmNode = !cls.getEnv().isShared() ? asmNode : null;
 		} catch (InvalidSharedEnvQueryException e) {
 			throw e.checkOrigin(cls);
@@ -122,10 +134,14 @@ public final class MethodInstance extends MemberInstance<MethodInstance> impleme
 		return args;
 	}
 
+	private static boolean hasLocalVariables(MethodNode asmNode) {
+		return asmNode != null
+				&& asmNode.localVariables != null // TODO: generate?
+				&& !asmNode.localVariables.isEmpty();
+	}
+
 	private static MethodVarInstance[] gatherVars(MethodInstance method, MethodNode asmNode) {
-		if (asmNode == null) return emptyVars;
-		if (asmNode.localVariables == null) return emptyVars; // TODO: generate?
-		if (asmNode.localVariables.isEmpty()) return emptyVars;
+		if (!hasLocalVariables(asmNode)) return emptyVars;
 
 		InsnList il = asmNode.instructions;
 		AbstractInsnNode firstInsn = il.getFirst();
@@ -171,8 +187,14 @@ public final class MethodInstance extends MemberInstance<MethodInstance> impleme
 				if (start.getOpcode() >= 0) startOpIdx++;
 			}
 
+			ClassInstance type;
+
+			synchronized (method.getEnv().getGlobal()) { // may run concurrently with other lazy initialization
+				type = method.getEnv().getCreateClassInstance(var.desc);
+			}
+
 			ret[i] = new MethodVarInstance(method, false, i, var.index, asmNode.localVariables.indexOf(var),
-					method.getEnv().getCreateClassInstance(var.desc), startInsn, endInsn, startOpIdx,
+					type, startInsn, endInsn, startOpIdx,
 					var.name,
 					var.name == null || method.nameObfuscatedLocal || method.cls.nameObfuscated || !Util.isValidJavaIdentifier(var.name));
 		}
@@ -270,6 +292,7 @@ public final class MethodInstance extends MemberInstance<MethodInstance> impleme
 	}
 
 	public MethodVarInstance getVar(int index) {
+		MethodVarInstance[] vars = getVars();
 		if (index < 0 || index >= vars.length) throw new IllegalArgumentException("invalid var index: "+index);
 
 		return vars[index];
@@ -301,6 +324,7 @@ public final class MethodInstance extends MemberInstance<MethodInstance> impleme
 				}
 			}
 		} else {
+			MethodVarInstance[] vars = getVars();
 			MethodVarInstance candidate = null;
 			boolean conflict = false;
 
@@ -332,7 +356,19 @@ public final class MethodInstance extends MemberInstance<MethodInstance> impleme
 	}
 
 	public MethodVarInstance[] getVars() {
-		return vars;
+		MethodVarInstance[] ret = vars;
+
+		return ret != null ? ret : initVars();
+	}
+
+	private synchronized MethodVarInstance[] initVars() {
+		MethodVarInstance[] ret = vars;
+
+		if (ret == null) {
+			vars = ret = gatherVars(this, asmNode);
+		}
+
+		return ret;
 	}
 
 	public boolean hasAllArgsMapped() {
@@ -349,7 +385,7 @@ public final class MethodInstance extends MemberInstance<MethodInstance> impleme
 			if (arg.hasMappedName()) return true;
 		}
 
-		for (MethodVarInstance var : vars) {
+		for (MethodVarInstance var : getVars()) {
 			if (var.hasMappedName()) return true;
 		}
 
@@ -441,7 +477,13 @@ public final class MethodInstance extends MemberInstance<MethodInstance> impleme
 	}
 
 	public MethodSignature getSignature() {
-		return signature;
+		MethodSignature ret = signature;
+		if (ret != null || signatureStr == null) return ret;
+
+		// the referenced classes were resolved during extraction, so parsing only looks them up and racing parses are benign
+		signature = ret = MethodSignature.parse(signatureStr, getEnv());
+
+		return ret;
 	}
 
 	@Override
@@ -544,7 +586,7 @@ public final class MethodInstance extends MemberInstance<MethodInstance> impleme
 
 		anyUnmatched = false;
 
-		for (MethodVarInstance v : vars) {
+		for (MethodVarInstance v : getVars()) {
 			if (!v.hasMatch()) {
 				anyUnmatched = true;
 				break;
@@ -552,10 +594,10 @@ public final class MethodInstance extends MemberInstance<MethodInstance> impleme
 		}
 
 		if (anyUnmatched) {
-			for (MethodVarInstance a : vars) {
+			for (MethodVarInstance a : getVars()) {
 				if (a.hasMatch()) continue;
 
-				for (MethodVarInstance b : matchedInstance.vars) {
+				for (MethodVarInstance b : matchedInstance.getVars()) {
 					if (!b.hasMatch() && ClassifierUtil.checkPotentialEquality(a, b)) {
 						return false;
 					}
@@ -570,14 +612,15 @@ public final class MethodInstance extends MemberInstance<MethodInstance> impleme
 		return name+desc;
 	}
 
-	private static final MethodVarInstance[] emptyVars = new MethodVarInstance[0];
+	static final MethodVarInstance[] emptyVars = new MethodVarInstance[0];
 
 	final boolean real;
 	final int access;
 	final MethodVarInstance[] args;
 	final ClassInstance retType;
-	MethodVarInstance[] vars;
-	final MethodSignature signature;
+	volatile MethodVarInstance[] vars; // null until gathered
+	private final String signatureStr;
+	private volatile MethodSignature signature; // parsed from signatureStr on first use
 	private final MethodNode asmNode;
 
 	Boolean hasParentMethod;
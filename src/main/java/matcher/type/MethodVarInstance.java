@@ -249,6 +249,7 @@ public final class MethodVarInstance implements Matchable<MethodVarInstance> {
 		assert match == null || method == match.method.getMatch();
 
 		this.matchedInstance = match;
+		method.getEnv().getGlobal().onMatchChange();
 	}
 
 	@Override
@@ -256,6 +257,17 @@ public final class MethodVarInstance implements Matchable<MethodVarInstance> {
 		return matchedInstance != null;
 	}
 
+	/**
+	 * Copy the uid, names, comment and matchable state of the same variable from a previous environment.
+	 */
+	void copyNames(MethodVarInstance o) {
+		uid = o.uid;
+		mappedName = o.mappedName;
+		mappedComment = o.mappedComment;
+		auxName = o.auxName != null ? o.auxName.clone() : null;
+		matchable = o.matchable;
+	}
+
 	@Override
 	public float getSimilarity() {
 		if (matchedInstance == null) return 0;
@@ -289,5 +301,5 @@ public final class MethodVarInstance implements Matchable<MethodVarInstance> {
 	String[] auxName;
 
 	private boolean matchable = true;
-	private MethodVarInstance matchedInstance;
+	private volatile MethodVarInstance matchedInstance;
 }
@@ -0,0 +1,200 @@
+package matcher.type;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import matcher.Matcher;
+
+/**
+ * Matches and names of the input classes of an environment, retained across re-reading its inputs.
+ *
+ * <p>Only classes whose class files are byte-identical between the old and new inputs get their state restored,
+ * matches additionally require both sides to be unchanged. Everything else is left for matching anew. Classes of a
+ * side the reload kept are restored onto themselves.
+ */
+public final class ReloadState {
+	public static ReloadState capture(ClassEnvironment env) {
+		return new ReloadState(new Side(env.getExtractorA()), new Side(env.getExtractorB()));
+	}
+
+	private ReloadState(Side sideA, Side sideB) {
+		this.sideA = sideA;
+		this.sideB = sideB;
+
+		// record the matches now, a side kept by the reload is still the same instances but loses its matches
+		for (ClassInstance cls : sideA.classes.values()) {
+			if (cls.getMatch() == null) continue;
+
+			recordMatch(cls);
+
+			for (MethodInstance method : cls.getMethods()) {
+				recordMatch(method);
+
+				for (MethodVarInstance arg : method.getArgs()) {
+					recordMatch(arg);
+				}
+
+				for (MethodVarInstance var : method.getVars()) {
+					recordMatch(var);
+				}
+			}
+
+			for (FieldInstance field : cls.getFields()) {
+				recordMatch(field);
+			}
+		}
+	}
+
+	private <T extends Matchable<T>> void recordMatch(T a) {
+		T b = a.getMatch();
+		if (b != null) matches.put(a, b);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends Matchable<T>> T getRecordedMatch(T a) {
+		return (T) matches.get(a);
+	}
+
+	/**
+	 * Restore the retained state into the reloaded environment of matcher.
+	 */
+	public void apply(Matcher matcher) {
+		ClassEnvironment env = matcher.getEnv();
+		Map<ClassInstance, ClassInstance> unchangedA = sideA.getUnchanged(env.getExtractorA());
+		Map<ClassInstance, ClassInstance> unchangedB = sideB.getUnchanged(env.getExtractorB());
+		int matched = 0;
+
+		for (Map<ClassInstance, ClassInstance> unchanged : List.of(unchangedA, unchangedB)) {
+			for (Map.Entry<ClassInstance, ClassInstance> entry : unchanged.entrySet()) {
+				if (entry.getKey() != entry.getValue()) copyNames(entry.getKey(), entry.getValue()); // same instance if the side was kept
+			}
+		}
+
+		for (Map.Entry<ClassInstance, ClassInstance> entry : unchangedA.entrySet()) {
+			ClassInstance oldA = entry.getKey();
+			ClassInstance oldB = getRecordedMatch(oldA);
+			if (oldB == null) continue;
+
+			ClassInstance a = entry.getValue();
+			ClassInstance b = unchangedB.get(oldB);
+			if (b == null) continue;
+
+			matcher.match(a, b);
+			restoreMemberMatches(oldA, a, b, matcher);
+			matched++;
+		}
+
+		Matcher.LOGGER.info("Reload retained {}/{} classes A, {}/{} classes B and {} class matches",
+				unchangedA.size(), sideA.classes.size(), unchangedB.size(), sideB.classes.size(), matched);
+	}
+
+	private static void copyNames(ClassInstance oldCls, ClassInstance cls) {
+		cls.copyNames(oldCls);
+
+		for (MethodInstance oldMethod : oldCls.getMethods()) {
+			MethodInstance method = cls.getMethod(oldMethod.getId());
+			if (method == null) continue;
+
+			method.copyNames(oldMethod);
+			copyNames(oldMethod.getArgs(), method.getArgs());
+			copyNames(oldMethod.getVars(), method.getVars());
+		}
+
+		for (FieldInstance oldField : oldCls.getFields()) {
+			FieldInstance field = cls.getField(oldField.getId());
+			if (field != null) field.copyNames(oldField);
+		}
+	}
+
+	private static void copyNames(MethodVarInstance[] oldVars, MethodVarInstance[] vars) {
+		if (oldVars.length != vars.length) return;
+
+		for (int i = 0; i < vars.length; i++) {
+			vars[i].copyNames(oldVars[i]);
+		}
+	}
+
+	private void restoreMemberMatches(ClassInstance oldA, ClassInstance a, ClassInstance b, Matcher matcher) {
+		for (MethodInstance oldMethodA : oldA.getMethods()) {
+			MethodInstance oldMethodB = getRecordedMatch(oldMethodA);
+			if (oldMethodB == null) continue;
+
+			MethodInstance methodA = a.getMethod(oldMethodA.getId());
+			MethodInstance methodB = b.getMethod(oldMethodB.getId());
+			if (methodA == null || methodB == null || !methodA.isMatchable() || !methodB.isMatchable()) continue;
+
+			matcher.match(methodA, methodB);
+			restoreVarMatches(oldMethodA.getArgs(), methodA.getArgs(), methodB.getArgs(), matcher);
+			restoreVarMatches(oldMethodA.getVars(), methodA.getVars(), methodB.getVars(), matcher);
+		}
+
+		for (FieldInstance oldFieldA : oldA.getFields()) {
+			FieldInstance oldFieldB = getRecordedMatch(oldFieldA);
+			if (oldFieldB == null) continue;
+
+			FieldInstance fieldA = a.getField(oldFieldA.getId());
+			FieldInstance fieldB = b.getField(oldFieldB.getId());
+			if (fieldA == null || fieldB == null || !fieldA.isMatchable() || !fieldB.isMatchable()) continue;
+
+			matcher.match(fieldA, fieldB);
+		}
+	}
+
+	private void restoreVarMatches(MethodVarInstance[] oldVarsA, MethodVarInstance[] varsA, MethodVarInstance[] varsB, Matcher matcher) {
+		if (oldVarsA.length != varsA.length) return;
+
+		for (int i = 0; i < varsA.length; i++) {
+			MethodVarInstance oldVarB = getRecordedMatch(oldVarsA[i]);
+			if (oldVarB == null) continue;
+
+			int idx = oldVarB.getIndex(); // same kind as oldVarsA[i], so the index is into varsB
+			if (idx >= varsB.length) continue;
+
+			MethodVarInstance varB = varsB[idx];
+			if (varsA[i].isMatchable() && varB.isMatchable()) matcher.match(varsA[i], varB);
+		}
+	}
+
+	private static final class Side {
+		Side(ClassFeatureExtractor extractor) {
+			for (ClassInstance cls : extractor.getClasses()) {
+				if (!cls.isInput()) continue;
+
+				classes.put(cls.getId(), cls);
+
+				for (MethodInstance method : cls.getMethods()) {
+					method.getVars(); // gather now, the old side can't resolve classes anymore once it's replaced
+				}
+			}
+
+			fingerprints = new HashMap<>(extractor.getInputFingerprints());
+		}
+
+		/**
+		 * Map the retained classes to their counterparts in extractor if their class files didn't change.
+		 */
+		Map<ClassInstance, ClassInstance> getUnchanged(ClassFeatureExtractor extractor) {
+			Map<ClassInstance, ClassInstance> ret = new IdentityHashMap<>();
+			Map<String, Long> newFingerprints = extractor.getInputFingerprints();
+
+			for (ClassInstance oldCls : classes.values()) {
+				Long fingerprint = fingerprints.get(oldCls.getId());
+				if (fingerprint == null || !fingerprint.equals(newFingerprints.get(oldCls.getId()))) continue;
+
+				ClassInstance cls = extractor.getLocalClsById(oldCls.getId());
+				if (cls != null && cls.isInput()) ret.put(oldCls, cls);
+			}
+
+			return ret;
+		}
+
+		final Map<String, ClassInstance> classes = new HashMap<>();
+		final Map<String, Long> fingerprints;
+	}
+
+	private final Side sideA;
+	private final Side sideB;
+	private final Map<Matchable<?>, Matchable<?>> matches = new IdentityHashMap<>(); // A -> B at capture time
+}
@@ -4,6 +4,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureVisitor;
+
 import matcher.NameType;
 import matcher.classifier.ClassifierUtil;
 
@@ -723,6 +727,21 @@ public final class Signature {
 		ReferenceTypeSignature cls;
 	}
 
+	/**
+	 * Resolve the classes a class, method or field signature references without building its object graph.
+	 *
+	 * <p>This creates the same classes the full parse would, so a later parse only looks them up. Inner class suffixes
+	 * are only kept by name, like in {@link ClassTypeSignature}.
+	 */
+	static void resolveClasses(String sig, ClassEnv env) {
+		new SignatureReader(sig).accept(new SignatureVisitor(Opcodes.ASM9) {
+			@Override
+			public void visitClassType(String name) {
+				env.getCreateClassInstance(ClassInstance.getId(name));
+			}
+		});
+	}
+
 	private static <T extends PotentialComparable<T>> boolean isPotentiallyEqual(T a, T b) {
 		assert !(a instanceof Collection);
 